@@ -0,0 +1,733 @@
+package modula.engine;
+
+import modula.engine.actor.Lane;
+import modula.engine.actor.LaneGroup;
+import modula.engine.actor.Mailbox;
+import modula.engine.actor.MailboxHandler;
+import modula.engine.bus.EventBus;
+import modula.engine.bus.EventBusDispatcher;
+import modula.engine.context.StateMachineBuildContext;
+import modula.engine.context.WorkflowContext;
+import modula.engine.event.WorkflowEvent;
+import modula.engine.store.CacheStats;
+import modula.engine.store.EventJournal;
+import modula.engine.store.FileInstanceStore;
+import modula.engine.store.FileTimerStore;
+import modula.engine.store.InstanceCache;
+import modula.engine.store.InstanceStore;
+import modula.engine.timer.LaneTimers;
+import modula.engine.timer.Timeout;
+import modula.engine.timer.TimeoutHandler;
+import modula.engine.timer.TimerScheduler;
+import modula.engine.version.DefinitionVersion;
+import modula.engine.version.DefinitionVersions;
+import modula.engine.version.ReloadPolicy;
+import modula.executor.core.ModulaExecutor;
+import modula.executor.core.SCInstance;
+import modula.executor.core.dispatcher.EventSink;
+import modula.executor.core.event.TriggerEvent;
+import modula.executor.statemachine.StateMachineDefinition;
+import modula.listener.NotificationRegistry;
+import modula.parser.model.State;
+import modula.parser.model.TransitionTarget;
+import modula.spring.SpringHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description: 按流程key分发的流程驱动器
+ * 每个{@link WorkflowContext#getKey()}对应一个{@link Mailbox}和一个状态机，key按hash分片到固定的{@link modula.engine.actor.Lane}，
+ * 同一个key的事件在同一线程上按提交顺序执行，不同key分散到所有通道并行执行。
+ * 每个通道共享一个执行器和一个活动实例缓存{@link InstanceCache}，缓存里只保存实例自身状态{@link SCInstance}，超出内存上限时钝化最久未用的实例。
+ * 延迟发送和状态超时由一个{@link TimerScheduler}调度，到期事件按key成批投递到实例邮箱。
+ * 实例之间通过{@link EventBusDispatcher}互发事件，共享{@link EventBus}的引擎之间按"类型:key"寻址。
+ * 异步action和invoker不占用通道线程，完成事件通过{@link EventSink}回到实例邮箱。
+ * {@link #reload()}热更新定义，新实例立即使用新版本，已有实例按{@link ReloadPolicy}惰性迁移，旧版本没有实例后卸载，见{@link DefinitionVersions}
+ * @author: gubing.gb
+ * @date: 2017/4/5.
+ */
+public class ActorWorkflowEngine implements WorkflowEngine, MailboxHandler, InitializingBean, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(ActorWorkflowEngine.class);
+
+    /**
+     * 状态机创建上下文，为空时从spring容器获取
+     */
+    private StateMachineBuildContext buildContext;
+
+    /**
+     * 通道数，默认cpu核数
+     */
+    private int lanes = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 单个邮箱每次调度最多处理的消息数
+     */
+    private int throughput = 64;
+
+    /**
+     * 通道线程名前缀
+     */
+    private String threadNamePrefix = "workflow-lane-";
+
+    /**
+     * 扁平状态机是否编译执行
+     */
+    private boolean compiled;
+
+    /**
+     * 实例存储，为空时实例只保存在内存中
+     */
+    private InstanceStore instanceStore;
+
+    /**
+     * 活动实例缓存的总内存上限（估算值，单位字节），按通道平分，超出时按LRU钝化实例，不大于0时不淘汰
+     */
+    private long cacheMaxWeight;
+
+    /**
+     * 事件日志目录，设置后每个通道一个日志，事件应用前先写日志，需要同时设置instanceStore
+     */
+    private String journalDirectory;
+
+    /**
+     * 日志段文件大小，默认64M
+     */
+    private int journalSegmentSize = 64 << 20;
+
+    private EventJournal.SyncPolicy journalSyncPolicy = EventJournal.SyncPolicy.GROUP;
+
+    /**
+     * 组提交的记录数
+     */
+    private int journalGroupSize = 256;
+
+    /**
+     * 定时精度，单位毫秒
+     */
+    private long timerTickMillis = 10L;
+
+    /**
+     * 定时事件持久化目录，为空时定时事件只保存在内存中
+     */
+    private String timerDirectory;
+
+    /**
+     * 定时事件段文件大小，默认16M
+     */
+    private int timerSegmentSize = 16 << 20;
+
+    private TimerScheduler timerScheduler;
+
+    /**
+     * 通道状态超时，下标为通道序号，和执行器一起创建
+     */
+    private LaneTimers[] laneTimers;
+
+    /**
+     * 事件总线，为空时创建一个只包含本引擎的总线
+     */
+    private EventBus eventBus;
+
+    /**
+     * 在事件总线上登记的状态机类型，为空时不登记，其他引擎不能向本引擎发事件
+     */
+    private String machineType;
+
+    /**
+     * 通道事件分发，下标为通道序号，和执行器一起创建
+     */
+    private EventBusDispatcher[] dispatchers;
+
+    /**
+     * 通道事件日志，下标为通道序号，只在对应通道线程上写入
+     */
+    private EventJournal[] journals;
+
+    private LaneGroup laneGroup;
+
+    /**
+     * 定义热更新后已有实例的处理方式
+     */
+    private ReloadPolicy reloadPolicy = ReloadPolicy.MIGRATE;
+
+    /**
+     * 状态机定义的所有已加载版本，每个版本带各通道的执行器
+     */
+    private volatile DefinitionVersions versions;
+
+    /**
+     * 通道活动实例缓存，下标为通道序号，只在对应通道线程上使用
+     */
+    private InstanceCache[] caches;
+
+    /**
+     * key对应的邮箱，实例淘汰出缓存后空闲时关闭并移除
+     */
+    private final ConcurrentHashMap<String, Mailbox> mailboxes = new ConcurrentHashMap<String, Mailbox>();
+
+    /**
+     * 异步action和invoker的完成事件投递到实例邮箱，实例id即流程key
+     */
+    private final EventSink eventSink = new EventSink() {
+        @Override
+        public void post(String sessionId, TriggerEvent event) {
+            ActorWorkflowEngine.this.post(sessionId, event);
+        }
+    };
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        laneGroup = new LaneGroup(lanes, threadNamePrefix);
+        caches = new InstanceCache[laneGroup.size()];
+        laneTimers = new LaneTimers[laneGroup.size()];
+        dispatchers = new EventBusDispatcher[laneGroup.size()];
+        if (eventBus == null) {
+            eventBus = new EventBus();
+        }
+        if (machineType != null) {
+            eventBus.register(machineType, this);
+        }
+        timerScheduler = new TimerScheduler(timerTickMillis, new TimeoutHandler() {
+            @Override
+            public void onTimeout(String key, List<Timeout> timeouts) {
+                int routed = 0;
+                for (Timeout timeout : timeouts) {
+                    if (timeout.getTarget() != null) {
+                        routed++;
+                    }
+                }
+                TriggerEvent[] events = new TriggerEvent[timeouts.size() - routed];
+                int count = 0;
+                for (Timeout timeout : timeouts) {
+                    TriggerEvent event = new TriggerEvent(timeout.getEvent(), TriggerEvent.TIME_EVENT, timeout.getPayload());
+                    if (timeout.getTarget() == null) {
+                        events[count++] = event;
+                    } else {
+                        route(key, timeout.getTarget(), event);
+                    }
+                }
+                if (count > 0) {
+                    post(key, events);
+                }
+            }
+        });
+        if (timerDirectory != null) {
+            timerScheduler.setStore(new FileTimerStore(new File(timerDirectory), timerSegmentSize));
+        }
+        if (journalDirectory != null) {
+            if (instanceStore == null) {
+                throw new IllegalStateException("event journal requires an instance store");
+            }
+            openJournals();
+        }
+        laneGroup.start();
+        timerScheduler.start();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (machineType != null && eventBus != null) {
+            eventBus.unregister(machineType);
+        }
+        if (laneGroup != null) {
+            laneGroup.shutdown(5000L);
+        }
+        // 通道处理完剩余事件后再停，它们加入和取消的定时事件也要写入存储
+        if (timerScheduler != null) {
+            timerScheduler.stop();
+        }
+        if (journals != null) {
+            for (EventJournal journal : journals) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * 所有通道做checkpoint：实例快照写入磁盘后删除已应用的日志段，异步执行
+     */
+    public void checkpoint() {
+        if (journals == null) {
+            return;
+        }
+        for (int i = 0; i < journals.length; i++) {
+            final EventJournal journal = journals[i];
+            laneGroup.get(i).execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        instanceStore.flush();
+                        journal.checkpoint();
+                    } catch (Exception e) {
+                        logger.error("journal checkpoint error", e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 异步执行，事件投递到key对应的邮箱后立即返回null
+     */
+    public <T> T execute(WorkflowContext context) {
+        if (context == null || context.getKey() == null) {
+            throw new IllegalArgumentException("workflow key is null");
+        }
+        // 调用方可能复用context，投递事件快照
+        WorkflowContext snapshot = new WorkflowContext(context.getKey(), context.getCurrentState());
+        List<WorkflowEvent> events = context.getEvents();
+        if (events != null) {
+            snapshot.setEvents(events.toArray(new WorkflowEvent[events.size()]));
+        }
+        deliver(context.getKey(), snapshot);
+        return null;
+    }
+
+    /**
+     * 投递一批事件到key对应的邮箱，按顺序在一次处理中应用，任意线程可调用
+     */
+    public void post(String key, TriggerEvent... events) {
+        if (key == null) {
+            throw new IllegalArgumentException("workflow key is null");
+        }
+        deliver(key, events);
+    }
+
+    /**
+     * 投递到key当前的邮箱，邮箱空闲关闭后重新创建
+     */
+    private void deliver(String key, Object message) {
+        for (; ; ) {
+            Mailbox mailbox = mailboxOf(key);
+            if (mailbox.post(message)) {
+                return;
+            }
+            mailboxes.remove(key, mailbox);
+        }
+    }
+
+    /**
+     * 消息是{@link WorkflowContext}，或定时器投递的一批到期事件{@link TriggerEvent}[]
+     */
+    @Override
+    public void onMessage(Mailbox mailbox, Object message) {
+        EventBusDispatcher dispatcher = null;
+        try {
+            DefinitionVersions versions = versions();
+            prepareLane(mailbox.getLane());
+            laneTimers[mailbox.getLane().getIndex()].bind(mailbox.getKey());
+            dispatcher = dispatchers[mailbox.getLane().getIndex()];
+            dispatcher.bind(mailbox.getKey());
+            InstanceCache cache = cacheOf(mailbox.getLane());
+            SCInstance instance = cache.get(mailbox.getKey());
+            ModulaExecutor executor;
+            if (instance == null) {
+                DefinitionVersion version = versions.acquireCurrent();
+                instance = version.getDefinition().newInstance(mailbox.getKey());
+                executor = executorOf(mailbox.getLane(), version);
+                executor.go(instance);
+            } else {
+                // 其他序列化方式或存储加载的实例没有绑定版本，先绑定到当前版本；定义更新后惰性迁移，迁移后是新实例，立即替换缓存中的旧实例
+                versions.bind(instance);
+                SCInstance migrated = versions.migrate(instance);
+                if (migrated != instance) {
+                    instance = migrated;
+                    cache.put(mailbox.getKey(), instance);
+                }
+                executor = executorOf(mailbox.getLane(), versions.versionOf(instance));
+            }
+            EventJournal journal = journals != null ? journals[mailbox.getLane().getIndex()] : null;
+            TriggerEvent[] evts = null;
+            if (message instanceof TriggerEvent[]) {
+                evts = (TriggerEvent[]) message;
+            } else {
+                List<WorkflowEvent> events = ((WorkflowContext) message).getEvents();
+                if (events != null && !events.isEmpty()) {
+                    evts = toTriggerEvents(events);
+                }
+            }
+            if (evts != null) {
+                if (journal != null) {
+                    instance.setLastSequence(journal.append(mailbox.getKey(), evts));
+                }
+                executor.triggerEvents(instance, evts);
+            }
+            if (instanceStore != null) {
+                instanceStore.save(mailbox.getKey(), instance);
+                if (journal != null && journal.hasSealedSegments()) {
+                    instanceStore.flush();
+                    journal.truncate();
+                }
+            }
+            cache.put(mailbox.getKey(), instance);
+            // 快照写入后再投递本次发出的事件
+            dispatcher.flush();
+        } catch (Exception e) {
+            if (dispatcher != null) {
+                dispatcher.discard();
+            }
+            logger.error("workflow execute error, key=" + mailbox.getKey(), e);
+            // 缓存中的实例可能已经执行了一半且没有写回，丢弃后下一个事件从存储中最后的快照重新加载；没有存储时只能保留内存中的实例
+            if (instanceStore != null) {
+                InstanceCache cache = caches[mailbox.getLane().getIndex()];
+                if (cache != null) {
+                    cache.invalidate(mailbox.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * 实例已不在缓存中（被淘汰或处理失败后丢弃）的空闲邮箱关闭并移除，之后的投递会重新创建
+     */
+    @Override
+    public void onIdle(Mailbox mailbox) {
+        InstanceCache cache = caches[mailbox.getLane().getIndex()];
+        if (cache != null && !cache.contains(mailbox.getKey())) {
+            closeMailbox(mailbox.getKey());
+        }
+    }
+
+    private void closeMailbox(String key) {
+        Mailbox mailbox = mailboxes.get(key);
+        if (mailbox != null && mailbox.close()) {
+            mailboxes.remove(key, mailbox);
+        }
+    }
+
+    /**
+     * 投递到期的延迟发送：target按空格或逗号分成多个目标，"类型:key"发给{@link EventBus}中登记的引擎，
+     * 以#开头的发给定时事件所属的key，其他发给本引擎的流程key
+     */
+    private void route(String key, String target, TriggerEvent event) {
+        int length = target.length();
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || target.charAt(i) == ' ' || target.charAt(i) == ',') {
+                if (i > start) {
+                    String part = target.substring(start, i);
+                    int colon = part.indexOf(':');
+                    if (part.startsWith("#")) {
+                        post(key, event);
+                    } else if (colon < 0) {
+                        post(part, event);
+                    } else {
+                        ActorWorkflowEngine to = eventBus.engineOf(part.substring(0, colon));
+                        if (to != null) {
+                            to.post(part.substring(colon + 1), event);
+                        } else {
+                            logger.error("unknown machine type in delayed target: {}, key={}", part, key);
+                        }
+                    }
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * 打开各通道的事件日志，重放上次退出后未写入快照的事件，然后清空日志。
+     * 重放在启动线程上按日志顺序串行执行，完成前通道不处理新事件；快照中的日志序号不小于记录序号的事件已应用，跳过。
+     * 重放使用通道的执行器，发出的事件在快照写入后投递，状态超时和延迟发送照常加入定时调度
+     */
+    private void openJournals() throws Exception {
+        journals = new EventJournal[laneGroup.size()];
+        for (int i = 0; i < journals.length; i++) {
+            EventJournal journal = new EventJournal(new File(journalDirectory, "lane-" + i), journalSegmentSize);
+            journal.setSyncPolicy(journalSyncPolicy);
+            journal.setGroupSize(journalGroupSize);
+            journal.open();
+            journals[i] = journal;
+        }
+        final DefinitionVersions versions = versions();
+        final int[] applied = new int[1];
+        int records = 0;
+        for (int i = 0; i < journals.length; i++) {
+            final Lane lane = laneGroup.get(i);
+            prepareLane(lane);
+            final LaneTimers timers = laneTimers[i];
+            final EventBusDispatcher dispatcher = dispatchers[i];
+            records += journals[i].replay(new EventJournal.Replayer() {
+                @Override
+                public void replay(long sequence, String key, TriggerEvent[] events) throws Exception {
+                    timers.bind(key);
+                    dispatcher.bind(key);
+                    SCInstance instance = instanceStore.load(key);
+                    ModulaExecutor executor;
+                    if (instance == null) {
+                        DefinitionVersion version = versions.acquireCurrent();
+                        instance = version.getDefinition().newInstance(key);
+                        executor = executorOf(lane, version);
+                        executor.go(instance);
+                    } else {
+                        executor = executorOf(lane, versions.bind(instance));
+                    }
+                    if (sequence > instance.getLastSequence()) {
+                        instance.setLastSequence(sequence);
+                        executor.triggerEvents(instance, events);
+                        instanceStore.save(key, instance);
+                        applied[0]++;
+                    }
+                    dispatcher.flush();
+                    // 重放的实例不留在内存中
+                    versions.release(instance);
+                }
+            });
+        }
+        instanceStore.flush();
+        for (int i = 0; i < journals.length; i++) {
+            journals[i].checkpoint();
+            final EventJournal journal = journals[i];
+            laneGroup.get(i).setIdleTask(new Runnable() {
+                @Override
+                public void run() {
+                    journal.commit();
+                }
+            });
+        }
+        logger.info("event journal recovered, records={}, applied={}", records, applied[0]);
+    }
+
+    /**
+     * 获取key对应的邮箱，不存在则创建
+     */
+    protected Mailbox mailboxOf(String key) {
+        Mailbox mailbox = mailboxes.get(key);
+        if (mailbox == null) {
+            Mailbox created = new Mailbox(key, laneGroup.laneOf(key), this, throughput);
+            mailbox = mailboxes.putIfAbsent(key, created);
+            if (mailbox == null) {
+                mailbox = created;
+            }
+        }
+        return mailbox;
+    }
+
+    /**
+     * 获取通道上当前版本的执行器
+     */
+    protected ModulaExecutor executorOf(Lane lane) throws Exception {
+        return executorOf(lane, versions().current());
+    }
+
+    /**
+     * 获取通道上指定版本的执行器，不存在则创建，{@link LaneTimers}只注册到设置了超时的状态上
+     */
+    protected ModulaExecutor executorOf(Lane lane, DefinitionVersion version) throws Exception {
+        ModulaExecutor executor = version.getExecutor(lane.getIndex());
+        if (executor == null) {
+            prepareLane(lane);
+            LaneTimers timers = laneTimers[lane.getIndex()];
+            executor = version.getDefinition().newExecutor();
+            executor.setEventdispatcher(dispatchers[lane.getIndex()]);
+            executor.setEventSink(eventSink);
+            for (TransitionTarget target : version.getDefinition().getModula().getTargets().values()) {
+                if (target instanceof State && ((State) target).getTimeout() > 0) {
+                    executor.addListener(target, timers, NotificationRegistry.ON_ENTRY | NotificationRegistry.ON_EXIT);
+                }
+            }
+            version.setExecutor(lane.getIndex(), executor);
+        }
+        return executor;
+    }
+
+    /**
+     * 创建通道的{@link EventBusDispatcher}和{@link LaneTimers}，通道上所有版本的执行器共用
+     */
+    private void prepareLane(Lane lane) {
+        if (dispatchers[lane.getIndex()] == null) {
+            LaneTimers timers = new LaneTimers(timerScheduler);
+            laneTimers[lane.getIndex()] = timers;
+            dispatchers[lane.getIndex()] = new EventBusDispatcher(this, eventBus, timers);
+        }
+    }
+
+    /**
+     * @return 定时调度，未启动时为null
+     */
+    public TimerScheduler getTimerScheduler() {
+        return timerScheduler;
+    }
+
+    /**
+     * 获取通道实例缓存，不存在则创建
+     */
+    protected InstanceCache cacheOf(Lane lane) throws Exception {
+        InstanceCache cache = caches[lane.getIndex()];
+        if (cache == null) {
+            final DefinitionVersions versions = versions();
+            cache = new InstanceCache(cacheMaxWeight / caches.length, versions, instanceStore);
+            cache.setEvictionListener(new InstanceCache.EvictionListener() {
+                @Override
+                public void onEvict(String key, SCInstance instance) {
+                    versions.evict(instance);
+                    closeMailbox(key);
+                }
+            });
+            caches[lane.getIndex()] = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * @return 所有通道实例缓存的统计汇总
+     */
+    public CacheStats getCacheStats() {
+        CacheStats stats = new CacheStats();
+        if (caches != null) {
+            for (InstanceCache cache : caches) {
+                stats.add(cache);
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return 当前版本的定义
+     */
+    protected StateMachineDefinition getDefinition() throws Exception {
+        return versions().current().getDefinition();
+    }
+
+    /**
+     * @return 定义的所有版本，第一次调用时创建定义
+     */
+    protected DefinitionVersions versions() throws Exception {
+        if (versions == null) {
+            synchronized (this) {
+                if (versions == null) {
+                    StateMachineDefinition created = getBuildContext().createDefinition();
+                    created.setCompiled(compiled);
+                    DefinitionVersions installed = new DefinitionVersions(laneGroup.size(), reloadPolicy);
+                    installed.install(created);
+                    if (instanceStore instanceof FileInstanceStore
+                            && ((FileInstanceStore) instanceStore).getSerializer() == null) {
+                        // 快照按下标引用共享模型，解码后直接关联到对应版本
+                        ((FileInstanceStore) instanceStore).setSerializer(installed);
+                    }
+                    versions = installed;
+                }
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * 热更新定义：重新解析文档并安装为当前版本，之后创建的实例使用新版本，已有实例按{@link ReloadPolicy}迁移，任意线程可调用
+     *
+     * @return 新版本号
+     */
+    public synchronized int reload() throws Exception {
+        DefinitionVersions versions = versions();
+        StateMachineDefinition created = getBuildContext().reloadDefinition();
+        created.setCompiled(compiled);
+        DefinitionVersion version = versions.install(created);
+        logger.info("definition reloaded, version={}, loaded versions={}", version.getVersion(),
+                versions.getLoaded().size());
+        return version.getVersion();
+    }
+
+    /**
+     * @return 已加载的定义版本，可以读取各版本上的实例数
+     */
+    public List<DefinitionVersion> getDefinitionVersions() {
+        return versions != null ? versions.getLoaded() : Collections.<DefinitionVersion>emptyList();
+    }
+
+    private static TriggerEvent[] toTriggerEvents(List<WorkflowEvent> events) {
+        TriggerEvent[] evts = new TriggerEvent[events.size()];
+        for (int i = 0; i < evts.length; ++i) {
+            WorkflowEvent event = events.get(i);
+            if (event != null) {
+                evts[i] = new TriggerEvent(event.getEvent(), TriggerEvent.SIGNAL_EVENT, event.getPayload());
+            }
+        }
+        return evts;
+    }
+
+    protected StateMachineBuildContext getBuildContext() {
+        if (buildContext == null) {
+            buildContext = SpringHolder.getService(StateMachineBuildContext.class);
+        }
+        return buildContext;
+    }
+
+    public void setBuildContext(StateMachineBuildContext buildContext) {
+        this.buildContext = buildContext;
+    }
+
+    public void setLanes(int lanes) {
+        this.lanes = lanes;
+    }
+
+    public void setThroughput(int throughput) {
+        this.throughput = throughput;
+    }
+
+    public void setReloadPolicy(ReloadPolicy reloadPolicy) {
+        this.reloadPolicy = reloadPolicy;
+    }
+
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+
+    public void setInstanceStore(InstanceStore instanceStore) {
+        this.instanceStore = instanceStore;
+    }
+
+    public void setCacheMaxWeight(long cacheMaxWeight) {
+        this.cacheMaxWeight = cacheMaxWeight;
+    }
+
+    public void setJournalDirectory(String journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    public void setJournalSegmentSize(int journalSegmentSize) {
+        this.journalSegmentSize = journalSegmentSize;
+    }
+
+    public void setJournalSyncPolicy(EventJournal.SyncPolicy journalSyncPolicy) {
+        this.journalSyncPolicy = journalSyncPolicy;
+    }
+
+    public void setJournalGroupSize(int journalGroupSize) {
+        this.journalGroupSize = journalGroupSize;
+    }
+
+    public EventBus getEventBus() {
+        return eventBus;
+    }
+
+    public void setEventBus(EventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    public void setMachineType(String machineType) {
+        this.machineType = machineType;
+    }
+
+    public void setTimerTickMillis(long timerTickMillis) {
+        this.timerTickMillis = timerTickMillis;
+    }
+
+    public void setTimerDirectory(String timerDirectory) {
+        this.timerDirectory = timerDirectory;
+    }
+
+    public void setTimerSegmentSize(int timerSegmentSize) {
+        this.timerSegmentSize = timerSegmentSize;
+    }
+
+    public void setThreadNamePrefix(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+}
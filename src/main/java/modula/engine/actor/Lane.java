@@ -0,0 +1,126 @@
+package modula.engine.actor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @description: 工作通道，一个通道对应一个线程，串行执行投递到本通道的{@link Mailbox}
+ * @author: gubing.gb
+ * @date: 2017/4/5.
+ */
+public final class Lane implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(Lane.class);
+
+    /**
+     * 通道序号
+     */
+    private final int index;
+
+    /**
+     * 待执行的任务，多生产者单消费者
+     */
+    private final Queue<Runnable> runQueue = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * 工作线程
+     */
+    private final Thread thread;
+
+    /**
+     * 工作线程是否准备park
+     */
+    private volatile boolean waiting;
+
+    /**
+     * 任务队列为空、线程park前执行的任务，例如事件日志的组提交
+     */
+    private volatile Runnable idleTask;
+
+    /**
+     * 运行状态
+     */
+    private volatile boolean running;
+
+    Lane(int index, String threadNamePrefix) {
+        this.index = index;
+        this.thread = new Thread(this, threadNamePrefix + index);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * 当前线程是否是本通道的工作线程
+     */
+    public boolean inLane() {
+        return Thread.currentThread() == thread;
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    void join(long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+
+    /**
+     * 设置空闲任务，在通道线程上执行
+     */
+    public void setIdleTask(Runnable idleTask) {
+        this.idleTask = idleTask;
+    }
+
+    /**
+     * 投递任务，任意线程可调用
+     */
+    public void execute(Runnable task) {
+        runQueue.offer(task);
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private void runIdleTask() {
+        Runnable task = idleTask;
+        if (task != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error("lane idle task error, lane=" + index, t);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running || !runQueue.isEmpty()) {
+            Runnable task = runQueue.poll();
+            if (task == null) {
+                runIdleTask();
+                waiting = true;
+                if (runQueue.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+                continue;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error("lane task error, lane=" + index, t);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package modula.engine.actor;
+
+/**
+ * @description: 按key分片的通道组，相同key总是落到同一个{@link Lane}
+ * @author: gubing.gb
+ * @date: 2017/4/5.
+ */
+public final class LaneGroup {
+    private final Lane[] lanes;
+
+    public LaneGroup(int size, String threadNamePrefix) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("lane size must be positive, size=" + size);
+        }
+        this.lanes = new Lane[size];
+        for (int i = 0; i < size; i++) {
+            lanes[i] = new Lane(i, threadNamePrefix);
+        }
+    }
+
+    public void start() {
+        for (Lane lane : lanes) {
+            lane.start();
+        }
+    }
+
+    /**
+     * 停止所有通道，已投递的任务会执行完
+     */
+    public void shutdown(long awaitMillis) throws InterruptedException {
+        for (Lane lane : lanes) {
+            lane.stop();
+        }
+        for (Lane lane : lanes) {
+            lane.join(awaitMillis);
+        }
+    }
+
+    public int size() {
+        return lanes.length;
+    }
+
+    public Lane get(int index) {
+        return lanes[index];
+    }
+
+    /**
+     * key所属通道
+     */
+    public Lane laneOf(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return lanes[(h & 0x7fffffff) % lanes.length];
+    }
+}
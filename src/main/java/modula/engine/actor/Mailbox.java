@@ -0,0 +1,139 @@
+package modula.engine.actor;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @description: 流程实例邮箱，一个key对应一个邮箱，同一邮箱内的消息在所属{@link Lane}上串行处理，处理期间无需加锁
+ * @author: gubing.gb
+ * @date: 2017/4/5.
+ */
+public final class Mailbox implements Runnable {
+    /**
+     * 流程key
+     */
+    private final String key;
+
+    /**
+     * 所属通道
+     */
+    private final Lane lane;
+
+    /**
+     * 消息处理器
+     */
+    private final MailboxHandler handler;
+
+    /**
+     * 每次调度最多处理的消息数，防止单个key饿死同通道的其他key
+     */
+    private final int throughput;
+
+    /**
+     * 待处理消息
+     */
+    private final Queue<Object> messages = new ConcurrentLinkedQueue<Object>();
+
+    /**
+     * 是否已投递到通道，关闭后一直为true，不再调度
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * 是否已关闭，关闭后不再接收消息，发送方需要重新获取邮箱
+     */
+    private volatile boolean closed;
+
+    public Mailbox(String key, Lane lane, MailboxHandler handler, int throughput) {
+        this.key = key;
+        this.lane = lane;
+        this.handler = handler;
+        this.throughput = throughput;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Lane getLane() {
+        return lane;
+    }
+
+    /**
+     * 投递消息，任意线程可调用
+     *
+     * @return 邮箱已关闭、消息没有投递时返回false
+     */
+    public boolean post(Object message) {
+        if (closed) {
+            return false;
+        }
+        messages.offer(message);
+        if (closed) {
+            // 和close()竞争：消息还在队列里说明关闭时没有处理到，取回后由调用方投递到新邮箱，否则已经在关闭时处理
+            return !messages.remove(message);
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * 空闲时关闭邮箱，只能在所属通道线程上调用。和投递竞争同一个调度标记，已调度或正在处理时不关闭。
+     * 关闭前已入队的消息仍在本邮箱处理
+     *
+     * @return 是否关闭
+     */
+    public boolean close() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return false;
+        }
+        closed = true;
+        if (!messages.isEmpty()) {
+            lane.execute(this);
+        }
+        return true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 是否有待处理消息
+     */
+    public boolean hasMessages() {
+        return !messages.isEmpty();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            lane.execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (closed) {
+            // 关闭时剩下的消息，之后的投递都会转到新邮箱
+            Object message;
+            while ((message = messages.poll()) != null) {
+                handler.onMessage(this, message);
+            }
+            return;
+        }
+        try {
+            Object message;
+            for (int i = 0; i < throughput && (message = messages.poll()) != null; i++) {
+                handler.onMessage(this, message);
+            }
+        } finally {
+            scheduled.set(false);
+            if (!messages.isEmpty()) {
+                schedule();
+            } else {
+                handler.onIdle(this);
+            }
+        }
+    }
+}
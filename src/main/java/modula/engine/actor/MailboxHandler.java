@@ -0,0 +1,23 @@
+package modula.engine.actor;
+
+/**
+ * @description: 邮箱消息处理器，在邮箱所属通道线程上回调
+ * @author: gubing.gb
+ * @date: 2017/4/5.
+ */
+public interface MailboxHandler {
+    /**
+     * 处理消息，异常由实现自行处理，不会中断同邮箱后续消息
+     *
+     * @param mailbox 邮箱
+     * @param message 消息
+     */
+    void onMessage(Mailbox mailbox, Object message);
+
+    /**
+     * 邮箱处理完所有消息后回调，可以在这里{@link Mailbox#close()}不再需要的邮箱
+     *
+     * @param mailbox 邮箱
+     */
+    void onIdle(Mailbox mailbox);
+}
@@ -0,0 +1,38 @@
+package modula.engine.bus;
+
+import modula.engine.ActorWorkflowEngine;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description: 进程内事件总线，按状态机类型登记{@link ActorWorkflowEngine}，供{@link EventBusDispatcher}解析target
+ * <p>
+ * 多个引擎共享同一个总线时，流程之间可以直接互发事件，例如订单 -> 物流 -> 结算
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/15.
+ */
+public class EventBus {
+    private final ConcurrentHashMap<String, ActorWorkflowEngine> engines = new ConcurrentHashMap<String, ActorWorkflowEngine>();
+
+    /**
+     * 登记状态机类型，同一类型只能登记一个引擎
+     */
+    public void register(String type, ActorWorkflowEngine engine) {
+        ActorWorkflowEngine old = engines.putIfAbsent(type, engine);
+        if (old != null && old != engine) {
+            throw new IllegalStateException("machine type already registered: " + type);
+        }
+    }
+
+    public void unregister(String type) {
+        engines.remove(type);
+    }
+
+    /**
+     * @return 类型对应的引擎，没有登记时返回null
+     */
+    public ActorWorkflowEngine engineOf(String type) {
+        return engines.get(type);
+    }
+}
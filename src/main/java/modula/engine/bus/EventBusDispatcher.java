@@ -0,0 +1,253 @@
+package modula.engine.bus;
+
+import modula.engine.ActorWorkflowEngine;
+import modula.executor.core.dispatcher.EventDispatcher;
+import modula.executor.core.event.TriggerEvent;
+import org.w3c.dom.Node;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @description: 通道执行器的事件分发，把事件投递到同一进程内其他实例的邮箱
+ * <p>
+ * target可以是流程key（本引擎），或"类型:key"（{@link EventBus}中登记的其他引擎），多个target用空格或逗号分隔即群发；
+ * 为空或以#开头（如#_internal）时发给当前实例。带延迟的发送先检查target中的类型都已登记，再交给delayed分发器，取消也交给它。
+ * 发送先写入缓冲，当前实例处理完、快照写入后由引擎调用{@link #flush()}，发往同一实例的事件合并成一条消息投递；
+ * 群发时所有目标共享同一个{@link TriggerEvent}和payload，不按目标复制参数。
+ * 每个通道一个，只在通道线程上使用，不加锁
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/15.
+ */
+public class EventBusDispatcher implements EventDispatcher {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ActorWorkflowEngine engine;
+
+    private final EventBus bus;
+
+    private final EventDispatcher delayed;
+
+    /**
+     * 当前处理的流程key
+     */
+    private String key;
+
+    /**
+     * 缓冲的发送，按发送顺序
+     */
+    private ActorWorkflowEngine[] engines = new ActorWorkflowEngine[INITIAL_CAPACITY];
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+
+    private TriggerEvent[] events = new TriggerEvent[INITIAL_CAPACITY];
+
+    /**
+     * 合并时同一目标的下一条发送的下标，-1表示没有
+     */
+    private int[] next = new int[INITIAL_CAPACITY];
+
+    /**
+     * 分组的最后一条发送的下标，只对分组第一条有意义，-1表示不是分组第一条
+     */
+    private int[] tail = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * 合并时key到分组第一条发送下标，复用
+     */
+    private final Map<String, Integer> groups = new HashMap<String, Integer>();
+
+    private long sent;
+
+    /**
+     * @param engine  所属引擎，target不带类型时发给它
+     * @param bus     事件总线，可以为null
+     * @param delayed 带延迟的发送和取消，可以为null
+     */
+    public EventBusDispatcher(ActorWorkflowEngine engine, EventBus bus, EventDispatcher delayed) {
+        this.engine = engine;
+        this.bus = bus;
+        this.delayed = delayed;
+    }
+
+    /**
+     * 设置当前处理的流程key
+     */
+    public void bind(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public void cancel(String sendId) {
+        if (delayed != null) {
+            delayed.cancel(sendId);
+        }
+    }
+
+    @Override
+    public void send(String sendId, String target, String type, String event, Map<String, Object> params,
+                     Object hints, long delay, List<Node> externalNodes) {
+        if (delay > 0 && delayed != null) {
+            checkTarget(target);
+            delayed.send(sendId, target, type, event, params, hints, delay, externalNodes);
+            return;
+        }
+        send(target, event, params);
+    }
+
+    /**
+     * 立即发送，payload原样交给目标实例
+     *
+     * @param target 目标，格式见类说明
+     */
+    public void send(String target, String event, Object payload) {
+        TriggerEvent evt = new TriggerEvent(event, TriggerEvent.SIGNAL_EVENT, payload);
+        if (target == null || target.startsWith("#")) {
+            add(engine, key, evt);
+            return;
+        }
+        int length = target.length();
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || target.charAt(i) == ' ' || target.charAt(i) == ',') {
+                if (i > start) {
+                    addTarget(target.substring(start, i), evt);
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * 群发，所有目标共享同一个事件
+     */
+    public void send(String[] targets, String event, Object payload) {
+        TriggerEvent evt = new TriggerEvent(event, TriggerEvent.SIGNAL_EVENT, payload);
+        for (String target : targets) {
+            addTarget(target, evt);
+        }
+    }
+
+    /**
+     * 投递缓冲的发送，发往同一实例的事件按发送顺序合并成一条消息
+     */
+    public void flush() {
+        if (size == 0) {
+            return;
+        }
+        try {
+            if (size == 1) {
+                engines[0].post(keys[0], events[0]);
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                Integer head = groups.get(keys[i]);
+                next[i] = -1;
+                if (head != null && engines[head] == engines[i]) {
+                    next[tail[head]] = i;
+                    tail[i] = -1;
+                    tail[head] = i;
+                } else {
+                    // 不同引擎的同名key各自投递
+                    if (head == null) {
+                        groups.put(keys[i], i);
+                    }
+                    tail[i] = i;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                if (tail[i] < 0) {
+                    continue;
+                }
+                int count = 0;
+                for (int j = i; j >= 0; j = next[j]) {
+                    count++;
+                }
+                TriggerEvent[] batch = new TriggerEvent[count];
+                count = 0;
+                for (int j = i; j >= 0; j = next[j]) {
+                    batch[count++] = events[j];
+                }
+                engines[i].post(keys[i], batch);
+            }
+        } finally {
+            sent += size;
+            discard();
+        }
+    }
+
+    /**
+     * 丢弃缓冲的发送，当前实例处理失败时调用
+     */
+    public void discard() {
+        Arrays.fill(engines, 0, size, null);
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(events, 0, size, null);
+        groups.clear();
+        size = 0;
+    }
+
+    /**
+     * @return 已投递的事件数
+     */
+    public long getSentCount() {
+        return sent;
+    }
+
+    /**
+     * 检查延迟发送的target，类型没有登记时和立即发送一样抛出异常，不等到期后才发现
+     */
+    private void checkTarget(String target) {
+        if (target == null || target.indexOf(':') < 0) {
+            return;
+        }
+        int length = target.length();
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || target.charAt(i) == ' ' || target.charAt(i) == ',') {
+                int colon = target.indexOf(':', start);
+                if (colon >= 0 && colon < i && target.charAt(start) != '#') {
+                    String type = target.substring(start, colon);
+                    if (bus == null || bus.engineOf(type) == null) {
+                        throw new IllegalArgumentException("unknown machine type in target: " + target.substring(start, i));
+                    }
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    private void addTarget(String target, TriggerEvent evt) {
+        int colon = target.indexOf(':');
+        if (colon < 0) {
+            add(engine, target, evt);
+            return;
+        }
+        String type = target.substring(0, colon);
+        ActorWorkflowEngine to = bus != null ? bus.engineOf(type) : null;
+        if (to == null) {
+            throw new IllegalArgumentException("unknown machine type in target: " + target);
+        }
+        add(to, target.substring(colon + 1), evt);
+    }
+
+    private void add(ActorWorkflowEngine to, String toKey, TriggerEvent evt) {
+        if (size == keys.length) {
+            int capacity = size << 1;
+            engines = Arrays.copyOf(engines, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            events = Arrays.copyOf(events, capacity);
+            next = Arrays.copyOf(next, capacity);
+            tail = Arrays.copyOf(tail, capacity);
+        }
+        engines[size] = to;
+        keys[size] = toKey;
+        events[size] = evt;
+        size++;
+    }
+}
@@ -1,9 +1,13 @@
 package modula.engine.context;
 
+import modula.executor.core.evaluator.Evaluator;
+import modula.executor.core.evaluator.Guard;
 import modula.executor.statemachine.StateMachine;
 import modula.parser.model.ModelException;
 import modula.executor.statemachine.StateMachineBuilder;
+import modula.executor.statemachine.StateMachineDefinition;
 import modula.listener.DefaultWorkflowListener;
+import modula.parser.io.CompiledModulaCache;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
@@ -31,6 +35,21 @@ public class StateMachineBuildContext {
         return builder.build();
     }
 
+    public StateMachineDefinition createDefinition() throws ModelException, XMLStreamException, IOException {
+        return builder.buildDefinition();
+    }
+
+    /**
+     * 重新解析文档，见{@link StateMachineBuilder#reloadDefinition()}
+     */
+    public StateMachineDefinition reloadDefinition() throws ModelException, XMLStreamException, IOException {
+        return builder.reloadDefinition();
+    }
+
+    public int getVersion() {
+        return builder.getVersion();
+    }
+
     public String getId() {
         return id;
     }
@@ -47,6 +66,18 @@ public class StateMachineBuildContext {
         builder.setActions(actions);
     }
 
+    public void setGuards(Map<String, Class<? extends Guard>> guards) {
+        builder.setGuards(guards);
+    }
+
+    public void setEvaluator(Evaluator evaluator) {
+        builder.setEvaluator(evaluator);
+    }
+
+    public void setModelCache(CompiledModulaCache modelCache) {
+        builder.setModelCache(modelCache);
+    }
+
     public void setListeners(List<DefaultWorkflowListener> listeners) {
         this.builder.setListeners(listeners);
     }
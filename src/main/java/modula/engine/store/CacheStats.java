@@ -0,0 +1,80 @@
+package modula.engine.store;
+
+/**
+ * @description: 各通道{@link InstanceCache}统计值的汇总
+ * @author: gubing.gb
+ * @date: 2017/4/13.
+ */
+public final class CacheStats {
+    private long size;
+
+    private long weight;
+
+    private long hits;
+
+    private long misses;
+
+    private long loads;
+
+    private long loadNanos;
+
+    private long evictions;
+
+    /**
+     * 累加一个缓存的统计值
+     */
+    public CacheStats add(InstanceCache cache) {
+        if (cache != null) {
+            size += cache.size();
+            weight += cache.getWeight();
+            hits += cache.getHitCount();
+            misses += cache.getMissCount();
+            loads += cache.getLoadCount();
+            loadNanos += cache.getLoadNanos();
+            evictions += cache.getEvictionCount();
+        }
+        return this;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    public double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    public long getLoadCount() {
+        return loads;
+    }
+
+    /**
+     * @return 平均加载耗时，单位纳秒
+     */
+    public long getAverageLoadNanos() {
+        return loads == 0 ? 0 : loadNanos / loads;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{size=" + size + ", weight=" + weight + ", hitRate=" + getHitRate() + ", loads=" + loads
+                + ", avgLoadNanos=" + getAverageLoadNanos() + ", evictions=" + evictions + "}";
+    }
+}
@@ -0,0 +1,104 @@
+package modula.engine.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * @description: 默认的变量值编码，常用的基本类型、字符串、BigDecimal、Date用一个类型字节加紧凑编码，
+ * 其他可序列化对象退回java序列化
+ * @author: gubing.gb
+ * @date: 2017/4/11.
+ */
+public class DefaultValueEncoder implements ValueEncoder {
+    private static final int NULL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INT = 3;
+    private static final int LONG = 4;
+    private static final int DOUBLE = 5;
+    private static final int STRING = 6;
+    private static final int DECIMAL = 7;
+    private static final int DATE = 8;
+    private static final int SERIALIZED = 9;
+
+    @Override
+    public void write(Object value, SnapshotOutput out) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeVarLong((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeVarLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            out.writeString((String) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(DECIMAL);
+            out.writeString(value.toString());
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            out.writeVarLong(((Date) value).getTime());
+        } else if (value instanceof Serializable) {
+            out.writeByte(SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bytes);
+            try {
+                oos.writeObject(value);
+            } finally {
+                oos.close();
+            }
+            out.writeBytes(bytes.toByteArray());
+        } else {
+            throw new IOException("value is not serializable: " + value.getClass().getName());
+        }
+    }
+
+    @Override
+    public Object read(SnapshotInput in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case INT:
+                return (int) in.readVarLong();
+            case LONG:
+                return in.readVarLong();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return in.readString();
+            case DECIMAL:
+                return new BigDecimal(in.readString());
+            case DATE:
+                return new Date(in.readVarLong());
+            case SERIALIZED:
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(in.readBytes()));
+                try {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                } finally {
+                    ois.close();
+                }
+            default:
+                throw new IOException("unknown value type " + type);
+        }
+    }
+}
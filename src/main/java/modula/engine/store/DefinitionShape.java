@@ -0,0 +1,49 @@
+package modula.engine.store;
+
+/**
+ * @description: 定义的形状：快照中按下标引用的状态、history和数据模型槽位对应的id，
+ * 定义卸载后只保留这几张表，旧定义写的快照仍可以按id映射到新定义上解码，见{@link SCInstanceCodec#addShape(DefinitionShape)}
+ * @author: gubing.gb
+ * @date: 2017/4/19.
+ */
+public final class DefinitionShape {
+    private final int definitionId;
+
+    private final String[] stateIds;
+
+    private final String[] historyIds;
+
+    private final String[] slotNames;
+
+    public DefinitionShape(int definitionId, String[] stateIds, String[] historyIds, String[] slotNames) {
+        this.definitionId = definitionId;
+        this.stateIds = stateIds;
+        this.historyIds = historyIds;
+        this.slotNames = slotNames;
+    }
+
+    public int getDefinitionId() {
+        return definitionId;
+    }
+
+    /**
+     * @return 状态id，下标为状态下标
+     */
+    public String[] getStateIds() {
+        return stateIds;
+    }
+
+    /**
+     * @return history id，下标为快照中的history下标
+     */
+    public String[] getHistoryIds() {
+        return historyIds;
+    }
+
+    /**
+     * @return 槽位变量名，下标为槽位
+     */
+    public String[] getSlotNames() {
+        return slotNames;
+    }
+}
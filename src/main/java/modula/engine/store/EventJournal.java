@@ -0,0 +1,336 @@
+package modula.engine.store;
+
+import modula.executor.core.event.TriggerEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * @description: 外部事件的预写日志，事件在应用到实例前追加到内存映射的段文件，段写满后切换到新段
+ * <p>
+ * 每个通道一个日志，只在通道线程上写入，不加锁；写入只进入page cache，按{@link SyncPolicy}把多条记录合并成一次fsync，
+ * 通道空闲时也会提交。实例快照写入存储后，已应用的段可以删除（checkpoint），恢复时从快照开始重放日志中序号更大的事件。
+ * checkpoint时把最后分配的序号写入sequence文件，日志为空时从它继续递增，不依赖系统时间
+ * </p>
+ * <p>
+ * 记录格式：int 长度 | int crc32 | long 序号 | key | 事件数 | (事件名 | 类型 | payload)...，长度最后写入
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/12.
+ */
+public class EventJournal {
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+
+    private static final String SUFFIX = ".wal";
+
+    private static final int HEADER = 4 + 4 + 8;
+
+    private static final String SEQUENCE_FILE = "sequence";
+
+    /**
+     * fsync方式
+     */
+    public enum SyncPolicy {
+        /**
+         * 不主动fsync，进程崩溃不丢数据，机器掉电可能丢失
+         */
+        NONE,
+        /**
+         * 组提交，每groupSize条记录或通道空闲时fsync一次
+         */
+        GROUP,
+        /**
+         * 每条记录fsync
+         */
+        ALWAYS
+    }
+
+    /**
+     * 重放回调
+     */
+    public interface Replayer {
+        void replay(long sequence, String key, TriggerEvent[] events) throws Exception;
+    }
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private SyncPolicy syncPolicy = SyncPolicy.GROUP;
+
+    private int groupSize = 256;
+
+    private ValueEncoder valueEncoder = new DefaultValueEncoder();
+
+    /**
+     * 所有段，按id排序
+     */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    private final SnapshotOutput body = new SnapshotOutput(256);
+
+    private final CRC32 crc = new CRC32();
+
+    private Segment active;
+
+    /**
+     * 最后分配的序号
+     */
+    private long sequence;
+
+    /**
+     * 上次fsync后写入的记录数
+     */
+    private int pending;
+
+    private long commits;
+
+    public EventJournal(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * 打开日志，定位到已有记录的末尾
+     */
+    public void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create directory " + directory);
+        }
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            int id = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+            segments.put(id, new Segment(id, file, (int) Math.max(file.length(), segmentSize)));
+        }
+        long last = readSequence();
+        for (Segment segment : segments.values()) {
+            int pos = 0;
+            int length;
+            while ((length = recordAt(segment, pos)) > 0) {
+                last = Math.max(last, segment.buffer.getLong(pos + 8));
+                pos += length;
+            }
+            segment.position = pos;
+        }
+        // 序号在重启后也要递增，全新的日志从时间戳开始，不小于删除日志目录前快照中的序号
+        sequence = last > 0 ? last : System.currentTimeMillis() << 20;
+        active = segments.isEmpty() ? newSegment(1) : segments.lastEntry().getValue();
+    }
+
+    /**
+     * 追加一批事件
+     *
+     * @param key    流程key
+     * @param events 事件
+     * @return 记录序号
+     */
+    public long append(String key, TriggerEvent[] events) throws IOException {
+        long seq = ++sequence;
+        body.reset();
+        body.writeString(key);
+        body.writeVarInt(events.length);
+        for (TriggerEvent event : events) {
+            body.writeString(event.getName());
+            body.writeVarInt(event.getType());
+            valueEncoder.write(event.getPayload(), body);
+        }
+        int length = HEADER + body.size();
+        if (length > segmentSize) {
+            throw new IOException("journal record too large: " + length + " bytes");
+        }
+        if (active.position + length > active.capacity) {
+            roll();
+        }
+        int pos = active.position;
+        ByteBuffer buf = active.buffer.duplicate();
+        buf.position(pos + 8);
+        buf.putLong(seq);
+        body.writeTo(buf);
+        buf.flip();
+        buf.position(pos + 8);
+        crc.reset();
+        crc.update(buf);
+        active.buffer.putInt(pos + 4, (int) crc.getValue());
+        active.buffer.putInt(pos, length);
+        active.position = pos + length;
+        pending++;
+        if (syncPolicy == SyncPolicy.ALWAYS || (syncPolicy == SyncPolicy.GROUP && pending >= groupSize)) {
+            commit();
+        }
+        return seq;
+    }
+
+    /**
+     * 提交组：把上次提交后的记录fsync到磁盘
+     */
+    public void commit() {
+        if (pending > 0 && syncPolicy != SyncPolicy.NONE) {
+            active.force();
+            commits++;
+        }
+        pending = 0;
+    }
+
+    /**
+     * @return 是否有写满的段，有时可以在快照写入磁盘后调用{@link #truncate()}
+     */
+    public boolean hasSealedSegments() {
+        return segments.size() > 1;
+    }
+
+    /**
+     * 删除写满的段，调用前这些段中的事件必须已应用且快照已写入磁盘
+     */
+    public void truncate() throws IOException {
+        while (segments.size() > 1) {
+            Segment segment = segments.pollFirstEntry().getValue();
+            segment.delete();
+        }
+    }
+
+    /**
+     * checkpoint：当前段有记录时切换到新段，保存最后分配的序号，然后删除所有旧段
+     */
+    public void checkpoint() throws IOException {
+        if (active.position > 0) {
+            roll();
+        }
+        writeSequence();
+        truncate();
+    }
+
+    /**
+     * 按写入顺序重放所有记录
+     *
+     * @return 重放的记录数
+     */
+    public int replay(Replayer replayer) throws Exception {
+        int count = 0;
+        for (Segment segment : segments.values()) {
+            int pos = 0;
+            int length;
+            while ((length = recordAt(segment, pos)) > 0) {
+                byte[] data = new byte[length - HEADER];
+                ByteBuffer buf = segment.buffer.duplicate();
+                buf.position(pos + HEADER);
+                buf.get(data);
+                SnapshotInput in = new SnapshotInput(data);
+                String key = in.readString();
+                TriggerEvent[] events = new TriggerEvent[in.readVarInt()];
+                for (int i = 0; i < events.length; i++) {
+                    String name = in.readString();
+                    int type = in.readVarInt();
+                    events[i] = new TriggerEvent(name, type, valueEncoder.read(in));
+                }
+                replayer.replay(segment.buffer.getLong(pos + 8), key, events);
+                count++;
+                pos += length;
+            }
+        }
+        return count;
+    }
+
+    public void close() throws IOException {
+        commit();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * @return fsync次数
+     */
+    public long getCommitCount() {
+        return commits;
+    }
+
+    public void setSyncPolicy(SyncPolicy syncPolicy) {
+        this.syncPolicy = syncPolicy;
+    }
+
+    public void setGroupSize(int groupSize) {
+        this.groupSize = groupSize;
+    }
+
+    public void setValueEncoder(ValueEncoder valueEncoder) {
+        this.valueEncoder = valueEncoder;
+    }
+
+    private void roll() throws IOException {
+        active.force();
+        pending = 0;
+        active = newSegment(active.id + 1);
+    }
+
+    /**
+     * @return checkpoint时保存的序号，没有时返回0
+     */
+    private long readSequence() throws IOException {
+        File file = new File(directory, SEQUENCE_FILE);
+        if (file.length() < 8) {
+            return 0;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.readLong();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 保存最后分配的序号，写入磁盘后才能删除段
+     */
+    private void writeSequence() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(new File(directory, SEQUENCE_FILE), "rw");
+        try {
+            raf.writeLong(sequence);
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment segment = new Segment(id, new File(directory, String.format("%08d%s", id, SUFFIX)), segmentSize);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * @return pos处完整记录的长度，没有记录或记录不完整时返回0
+     */
+    private int recordAt(Segment segment, int pos) {
+        if (pos + HEADER > segment.capacity) {
+            return 0;
+        }
+        int length = segment.buffer.getInt(pos);
+        if (length < HEADER || pos + length > segment.capacity) {
+            return 0;
+        }
+        ByteBuffer buf = segment.buffer.duplicate();
+        buf.limit(pos + length);
+        buf.position(pos + 8);
+        crc.reset();
+        crc.update(buf);
+        if ((int) crc.getValue() != segment.buffer.getInt(pos + 4)) {
+            logger.warn("journal segment {} truncated at {}", segment.id, pos);
+            return 0;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,485 @@
+package modula.engine.store;
+
+import modula.executor.core.SCInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * @description: 本地文件实现的实例存储，不依赖外部数据库
+ * <p>
+ * 数据写在固定大小、内存映射的段文件中，段按页组织，记录只追加：一页放得下的记录不跨页，放不下的从页首开始连续存放。
+ * 内存中只保存key到记录地址（段id + 偏移）的索引，启动时扫描段文件重建。覆盖和删除留下的旧记录在段的有效数据比例
+ * 低于compactionThreshold时，把有效记录复制到当前段后删除整个段文件
+ * </p>
+ * <p>
+ * 记录格式：int 长度 | int crc32 | byte 类型 | short key长度 | key(utf-8) | 实例字节，长度最后写入，
+ * 扫描时遇到长度为0或crc不符即认为该段数据结束
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/10.
+ */
+public class FileInstanceStore implements InstanceStore, InitializingBean, DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(FileInstanceStore.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String SUFFIX = ".seg";
+
+    private static final int PAGE_SIZE = 4096;
+
+    private static final int HEADER = 4 + 4 + 1 + 2;
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * 数据目录
+     */
+    private String directory;
+
+    /**
+     * 段文件大小，默认64M
+     */
+    private int segmentSize = 64 << 20;
+
+    /**
+     * 段的有效数据比例低于此值时压缩
+     */
+    private double compactionThreshold = 0.5;
+
+    /**
+     * 索引初始容量
+     */
+    private int expectedSize = 1024;
+
+    /**
+     * 实例序列化方式，未设置时用java序列化，由{@link modula.engine.ActorWorkflowEngine}使用时设置为{@link SCInstanceCodec}
+     */
+    private volatile InstanceSerializer serializer;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 所有段，按id排序，id越大越新
+     */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    private final CRC32 crc = new CRC32();
+
+    private KeyIndex index;
+
+    /**
+     * 当前写入的段
+     */
+    private Segment active;
+
+    private boolean compacting;
+
+    public FileInstanceStore() {
+    }
+
+    public FileInstanceStore(String directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        open();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        close();
+    }
+
+    /**
+     * 打开存储，扫描已有段文件重建索引
+     */
+    public void open() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (index != null) {
+                return;
+            }
+            File dir = new File(directory);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("can not create directory " + dir);
+            }
+            index = new KeyIndex(expectedSize);
+            File[] files = dir.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File d, String name) {
+                    return name.endsWith(SUFFIX);
+                }
+            });
+            for (File file : files) {
+                String name = file.getName();
+                int id = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+                segments.put(id, new Segment(id, file, (int) Math.max(file.length(), segmentSize)));
+            }
+            for (Segment segment : segments.values()) {
+                recover(segment);
+            }
+            active = segments.isEmpty() ? newSegment(1) : segments.lastEntry().getValue();
+            logger.info("instance store opened, dir={}, segments={}, instances={}", directory, segments.size(), index.size());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public SCInstance load(String key) throws IOException {
+        byte[] data;
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            long address = index.get(key);
+            if (address == KeyIndex.NONE) {
+                return null;
+            }
+            data = readValue(segments.get(segmentOf(address)), offsetOf(address));
+        } finally {
+            lock.readLock().unlock();
+        }
+        return serializer().deserialize(data);
+    }
+
+    @Override
+    public void save(String key, SCInstance instance) throws IOException {
+        byte[] value = serializer().serialize(instance);
+        byte[] keyBytes = key.getBytes(UTF8);
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            long address = append(PUT, keyBytes, value);
+            release(index.put(key, address));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            long old = index.remove(key);
+            if (old != KeyIndex.NONE) {
+                append(DELETE, key.getBytes(UTF8), EMPTY);
+                release(old);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index != null ? index.size() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 把当前段写入磁盘，写满的段在切换时已写入
+     */
+    @Override
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            if (active != null) {
+                active.force();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 压缩有效数据比例低于compactionThreshold的段，切换段时自动调用
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (compacting) {
+                return;
+            }
+            compacting = true;
+            try {
+                for (Segment segment : new ArrayList<Segment>(segments.values())) {
+                    if (segment != active && segment.liveBytes < segment.position * compactionThreshold) {
+                        compact(segment);
+                    }
+                }
+            } finally {
+                compacting = false;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (index == null) {
+                return;
+            }
+            active.force();
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            active = null;
+            index = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把段中的有效记录复制到当前段，然后删除段文件
+     * 删除标记在还有更早的段时保留，防止重启时更早段中的旧记录复活
+     */
+    private void compact(Segment segment) throws IOException {
+        boolean oldest = segment.id == segments.firstKey();
+        List<Integer> positions = records(segment);
+        int moved = 0;
+        for (int pos : positions) {
+            String key = readKey(segment, pos);
+            long address = addressOf(segment.id, pos);
+            byte type = segment.buffer.get(pos + 8);
+            if (type == PUT && index.get(key) == address) {
+                index.put(key, append(PUT, key.getBytes(UTF8), readValue(segment, pos)));
+                moved++;
+            } else if (type == DELETE && !oldest && index.get(key) == KeyIndex.NONE) {
+                append(DELETE, key.getBytes(UTF8), EMPTY);
+            }
+        }
+        segments.remove(segment.id);
+        segment.delete();
+        logger.info("instance store segment {} compacted, moved={}", segment.id, moved);
+    }
+
+    /**
+     * 追加一条记录
+     *
+     * @return 记录地址
+     */
+    private long append(byte type, byte[] key, byte[] value) throws IOException {
+        int length = HEADER + key.length + value.length;
+        if (length > segmentSize) {
+            throw new IOException("instance too large: " + length + " bytes");
+        }
+        Segment segment = active;
+        int pos = segment.position;
+        if (length > PAGE_SIZE - pos % PAGE_SIZE) {
+            pos = align(pos);
+        }
+        if (pos + length > segment.capacity) {
+            roll();
+            // 切换时的压缩可能已把有效记录复制到新段，按新段的实际位置重新计算
+            return append(type, key, value);
+        }
+        ByteBuffer buf = segment.buffer.duplicate();
+        buf.position(pos + 8);
+        buf.put(type);
+        buf.putShort((short) key.length);
+        buf.put(key);
+        buf.put(value);
+        buf.flip();
+        buf.position(pos + 8);
+        crc.reset();
+        crc.update(buf);
+        segment.buffer.putInt(pos + 4, (int) crc.getValue());
+        segment.buffer.putInt(pos, length);
+        segment.position = pos + length;
+        if (type == PUT) {
+            segment.liveBytes += length;
+        }
+        return addressOf(segment.id, pos);
+    }
+
+    /**
+     * 写满当前段后切换到新段，并尝试压缩旧段，压缩复制的记录追加在新段中
+     */
+    private void roll() throws IOException {
+        active.force();
+        active = newSegment(active.id + 1);
+        if (!compacting) {
+            compact();
+        }
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        File file = new File(directory, String.format("%08d%s", id, SUFFIX));
+        Segment segment = new Segment(id, file, segmentSize);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * 地址指向的记录不再有效
+     */
+    private void release(long address) {
+        if (address != KeyIndex.NONE) {
+            Segment segment = segments.get(segmentOf(address));
+            segment.liveBytes -= segment.buffer.getInt(offsetOf(address));
+        }
+    }
+
+    /**
+     * 扫描段，重放记录到索引
+     */
+    private void recover(Segment segment) {
+        int end = 0;
+        for (int pos : records(segment)) {
+            String key = readKey(segment, pos);
+            int length = segment.buffer.getInt(pos);
+            if (segment.buffer.get(pos + 8) == PUT) {
+                release(index.put(key, addressOf(segment.id, pos)));
+                segment.liveBytes += length;
+            } else {
+                release(index.remove(key));
+            }
+            end = pos + length;
+        }
+        segment.position = end;
+    }
+
+    /**
+     * @return 段中所有完整记录的偏移
+     */
+    private List<Integer> records(Segment segment) {
+        List<Integer> positions = new ArrayList<Integer>();
+        ByteBuffer buffer = segment.buffer;
+        int pos = 0;
+        while (pos + HEADER <= segment.capacity) {
+            int length = buffer.getInt(pos);
+            if (length == 0) {
+                if (pos % PAGE_SIZE == 0) {
+                    break;
+                }
+                // 页尾填充
+                pos = align(pos);
+                continue;
+            }
+            if (length < HEADER || pos + length > segment.capacity || !checksum(segment, pos, length)) {
+                logger.warn("instance store segment {} truncated at {}", segment.id, pos);
+                break;
+            }
+            positions.add(pos);
+            pos += length;
+        }
+        return positions;
+    }
+
+    private boolean checksum(Segment segment, int pos, int length) {
+        ByteBuffer buf = segment.buffer.duplicate();
+        buf.limit(pos + length);
+        buf.position(pos + 8);
+        crc.reset();
+        crc.update(buf);
+        return (int) crc.getValue() == segment.buffer.getInt(pos + 4);
+    }
+
+    private static String readKey(Segment segment, int pos) {
+        int keyLength = segment.buffer.getShort(pos + 9);
+        byte[] key = new byte[keyLength];
+        ByteBuffer buf = segment.buffer.duplicate();
+        buf.position(pos + HEADER);
+        buf.get(key);
+        return new String(key, UTF8);
+    }
+
+    private static byte[] readValue(Segment segment, int pos) {
+        int length = segment.buffer.getInt(pos);
+        int keyLength = segment.buffer.getShort(pos + 9);
+        byte[] value = new byte[length - HEADER - keyLength];
+        ByteBuffer buf = segment.buffer.duplicate();
+        buf.position(pos + HEADER + keyLength);
+        buf.get(value);
+        return value;
+    }
+
+    private InstanceSerializer serializer() {
+        InstanceSerializer current = serializer;
+        if (current == null) {
+            current = new JavaInstanceSerializer();
+            serializer = current;
+        }
+        return current;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (index == null) {
+            throw new IOException("instance store is not open");
+        }
+    }
+
+    private static int align(int pos) {
+        return (pos + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    private static long addressOf(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public void setCompactionThreshold(double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public void setExpectedSize(int expectedSize) {
+        this.expectedSize = expectedSize;
+    }
+
+    public InstanceSerializer getSerializer() {
+        return serializer;
+    }
+
+    public void setSerializer(InstanceSerializer serializer) {
+        this.serializer = serializer;
+    }
+}
@@ -0,0 +1,248 @@
+package modula.engine.store;
+
+import modula.engine.timer.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * @description: 未到期定时事件的持久化，加入和取消/到期都追加一条记录到内存映射的段文件
+ * <p>
+ * 启动时重放所有记录得到未到期的定时事件，然后把它们重写到新段并删除旧段；
+ * 运行中记录数超过未到期数的两倍且有写满的段时由调用方触发同样的重写。只在定时线程上使用，不加锁
+ * </p>
+ * <p>
+ * 记录格式：int 长度 | int crc32 | byte 类型 | sendId | (加入时)key | (带target的加入)target | 事件名 | 到期时间 | payload，长度最后写入
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/14.
+ */
+public class FileTimerStore {
+    private static final Logger logger = LoggerFactory.getLogger(FileTimerStore.class);
+
+    private static final String SUFFIX = ".tmr";
+
+    private static final int HEADER = 4 + 4 + 1;
+
+    private static final byte ADD = 1;
+
+    private static final byte REMOVE = 2;
+
+    /**
+     * 带target的加入
+     */
+    private static final byte ADD_TARGET = 3;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private ValueEncoder valueEncoder = new DefaultValueEncoder();
+
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    private final SnapshotOutput body = new SnapshotOutput(128);
+
+    private final CRC32 crc = new CRC32();
+
+    private Segment active;
+
+    /**
+     * 段文件中的记录数
+     */
+    private long records;
+
+    public FileTimerStore(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * 打开存储，重放记录并重写
+     *
+     * @return 未到期的定时事件，按加入顺序
+     */
+    public List<Timeout> open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create directory " + directory);
+        }
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            int id = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+            segments.put(id, new Segment(id, file, (int) Math.max(file.length(), segmentSize)));
+        }
+        Map<String, Timeout> live = new LinkedHashMap<String, Timeout>();
+        for (Segment segment : segments.values()) {
+            int pos = 0;
+            int length;
+            while ((length = recordAt(segment, pos)) > 0) {
+                byte[] data = new byte[length - HEADER];
+                ByteBuffer buf = segment.buffer.duplicate();
+                buf.position(pos + HEADER);
+                buf.get(data);
+                SnapshotInput in = new SnapshotInput(data);
+                String sendId = in.readString();
+                byte type = segment.buffer.get(pos + 8);
+                if (type == ADD || type == ADD_TARGET) {
+                    String key = in.readString();
+                    String target = type == ADD_TARGET ? in.readString() : null;
+                    String event = in.readString();
+                    long deadline = in.readVarLong();
+                    live.put(sendId, new Timeout(sendId, key, target, event, valueEncoder.read(in), deadline));
+                } else {
+                    live.remove(sendId);
+                }
+                pos += length;
+            }
+            segment.position = pos;
+        }
+        active = segments.isEmpty() ? newSegment(1) : segments.lastEntry().getValue();
+        List<Timeout> timeouts = new ArrayList<Timeout>(live.values());
+        compact(timeouts);
+        return timeouts;
+    }
+
+    /**
+     * 记录加入的定时事件，同一sendId的旧记录被覆盖
+     */
+    public void add(Timeout timeout) throws IOException {
+        body.reset();
+        body.writeString(timeout.getSendId());
+        body.writeString(timeout.getKey());
+        if (timeout.getTarget() != null) {
+            body.writeString(timeout.getTarget());
+        }
+        body.writeString(timeout.getEvent());
+        body.writeVarLong(timeout.getDeadline());
+        valueEncoder.write(timeout.getPayload(), body);
+        append(timeout.getTarget() != null ? ADD_TARGET : ADD);
+    }
+
+    /**
+     * 记录取消或到期的定时事件
+     */
+    public void remove(String sendId) throws IOException {
+        body.reset();
+        body.writeString(sendId);
+        append(REMOVE);
+    }
+
+    /**
+     * @param live 未到期的定时事件数
+     * @return 是否值得重写
+     */
+    public boolean needsCompaction(int live) {
+        return segments.size() > 1 && records > 2L * live;
+    }
+
+    /**
+     * 把未到期的定时事件重写到新段，然后删除旧段
+     */
+    public void compact(Collection<Timeout> live) throws IOException {
+        int first = active.position > 0 ? active.id + 1 : active.id;
+        if (active.position > 0) {
+            roll();
+        }
+        records = 0;
+        for (Timeout timeout : live) {
+            add(timeout);
+        }
+        active.force();
+        while (segments.firstKey() < first) {
+            segments.pollFirstEntry().getValue().delete();
+        }
+    }
+
+    /**
+     * 把已写入的记录刷到磁盘
+     */
+    public void force() {
+        active.force();
+    }
+
+    public void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.force();
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    public void setValueEncoder(ValueEncoder valueEncoder) {
+        this.valueEncoder = valueEncoder;
+    }
+
+    private void append(byte type) throws IOException {
+        int length = HEADER + body.size();
+        if (length > segmentSize) {
+            throw new IOException("timer record too large: " + length + " bytes");
+        }
+        if (active.position + length > active.capacity) {
+            roll();
+        }
+        int pos = active.position;
+        ByteBuffer buf = active.buffer.duplicate();
+        buf.position(pos + 8);
+        buf.put(type);
+        body.writeTo(buf);
+        buf.flip();
+        buf.position(pos + 8);
+        crc.reset();
+        crc.update(buf);
+        active.buffer.putInt(pos + 4, (int) crc.getValue());
+        active.buffer.putInt(pos, length);
+        active.position = pos + length;
+        records++;
+    }
+
+    private void roll() throws IOException {
+        active.force();
+        active = newSegment(active.id + 1);
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment segment = new Segment(id, new File(directory, String.format("%08d%s", id, SUFFIX)), segmentSize);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * @return pos处完整记录的长度，没有记录或记录不完整时返回0
+     */
+    private int recordAt(Segment segment, int pos) {
+        if (pos + HEADER > segment.capacity) {
+            return 0;
+        }
+        int length = segment.buffer.getInt(pos);
+        if (length < HEADER || pos + length > segment.capacity) {
+            return 0;
+        }
+        ByteBuffer buf = segment.buffer.duplicate();
+        buf.limit(pos + length);
+        buf.position(pos + 8);
+        crc.reset();
+        crc.update(buf);
+        if ((int) crc.getValue() != segment.buffer.getInt(pos + 4)) {
+            logger.warn("timer segment {} truncated at {}", segment.id, pos);
+            return 0;
+        }
+        return length;
+    }
+}
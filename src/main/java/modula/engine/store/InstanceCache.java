@@ -0,0 +1,258 @@
+package modula.engine.store;
+
+import modula.executor.core.SCInstance;
+import modula.executor.core.context.Context;
+import modula.executor.core.context.SlotContext;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @description: 活动实例缓存，按估算的内存占用限制总量，超出时按LRU淘汰
+ * <p>
+ * 淘汰的实例被钝化：有{@link InstanceStore}时实例每次处理完已写回存储，直接丢弃；没有存储时保存为
+ * {@link InstanceSerializer}编码后的字节。下次事件到来时透明地重新激活。
+ * 每个通道一份，只在通道线程上使用，不加锁；统计值可以从其他线程读取
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/13.
+ */
+public final class InstanceCache {
+    /**
+     * 实例被淘汰出缓存时的回调，在通道线程上调用
+     */
+    public interface EvictionListener {
+        void onEvict(String key, SCInstance instance);
+    }
+
+    /**
+     * 实例本身、Status、位图等固定开销
+     */
+    private static final int BASE_WEIGHT = 160;
+
+    /**
+     * 缓存条目、key字符串的固定开销
+     */
+    private static final int ENTRY_WEIGHT = 80;
+
+    /**
+     * 引擎为缓存中每个key保留的邮箱、消息队列和映射条目，实例淘汰后一起释放
+     */
+    private static final int MAILBOX_WEIGHT = 128;
+
+    private static final int VAR_WEIGHT = 48;
+
+    /**
+     * 最大总占用，单位字节
+     */
+    private final long maxWeight;
+
+    private final InstanceSerializer serializer;
+
+    private final InstanceStore store;
+
+    private EvictionListener evictionListener;
+
+    private final LinkedHashMap<String, Entry> live = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+    /**
+     * 没有存储时钝化的实例
+     */
+    private final Map<String, byte[]> passivated = new HashMap<String, byte[]>();
+
+    private volatile long weight;
+
+    private volatile long hits;
+
+    private volatile long misses;
+
+    private volatile long loads;
+
+    private volatile long loadNanos;
+
+    private volatile long evictions;
+
+    /**
+     * @param maxWeight  最大总占用，单位字节，不大于0时不淘汰
+     * @param serializer 没有存储时钝化用的序列化方式
+     * @param store      实例存储，可以为null
+     */
+    public InstanceCache(long maxWeight, InstanceSerializer serializer, InstanceStore store) {
+        this.maxWeight = maxWeight;
+        this.serializer = serializer;
+        this.store = store;
+    }
+
+    /**
+     * 获取实例，不在缓存中时从钝化数据或存储加载
+     *
+     * @return 实例，不存在时返回null
+     */
+    public SCInstance get(String key) throws IOException {
+        Entry entry = live.get(key);
+        if (entry != null) {
+            hits++;
+            return entry.instance;
+        }
+        misses++;
+        long start = System.nanoTime();
+        SCInstance instance = null;
+        byte[] data = passivated.remove(key);
+        if (data != null) {
+            instance = serializer.deserialize(data);
+        } else if (store != null) {
+            instance = store.load(key);
+        }
+        if (instance != null) {
+            loads++;
+            loadNanos += System.nanoTime() - start;
+            put(key, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * 放入或更新实例，实例处理完事件后调用，重新估算占用
+     */
+    public void put(String key, SCInstance instance) throws IOException {
+        Entry entry = live.get(key);
+        if (entry == null) {
+            entry = new Entry(instance);
+            live.put(key, entry);
+        } else {
+            weight -= entry.weight;
+            entry.instance = instance;
+        }
+        entry.weight = estimate(key, instance);
+        weight += entry.weight;
+        evict();
+    }
+
+    /**
+     * 丢弃缓存中的实例，下次{@link #get(String)}时从存储重新加载。用于事件处理失败、内存中的实例已经和存储不一致时，
+     * 和淘汰一样回调{@link EvictionListener}
+     */
+    public void invalidate(String key) {
+        Entry entry = live.remove(key);
+        if (entry == null) {
+            return;
+        }
+        weight -= entry.weight;
+        if (evictionListener != null) {
+            evictionListener.onEvict(key, entry.instance);
+        }
+    }
+
+    /**
+     * @return 实例是否在缓存中，不改变LRU顺序
+     */
+    public boolean contains(String key) {
+        return live.containsKey(key);
+    }
+
+    /**
+     * 淘汰最久未使用的实例，直到总占用不超过上限，最近使用的一个总是保留
+     */
+    private void evict() throws IOException {
+        if (maxWeight <= 0) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry>> it = live.entrySet().iterator();
+        while (weight > maxWeight && live.size() > 1) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (store == null) {
+                passivated.put(eldest.getKey(), serializer.serialize(eldest.getValue().instance));
+            }
+            weight -= eldest.getValue().weight;
+            it.remove();
+            evictions++;
+            if (evictionListener != null) {
+                evictionListener.onEvict(eldest.getKey(), eldest.getValue().instance);
+            }
+        }
+    }
+
+    /**
+     * 估算实例占用的堆内存
+     */
+    static int estimate(String key, SCInstance instance) {
+        int w = BASE_WEIGHT + ENTRY_WEIGHT + MAILBOX_WEIGHT + 2 * key.length();
+        Context global = instance.getGlobalContext();
+        if (global instanceof SlotContext) {
+            SlotContext context = (SlotContext) global;
+            w += 48 + 4 * context.getSlotCount();
+            for (int i = 0; i < context.getSlotCount(); i++) {
+                if (context.hasLocal(i)) {
+                    w += VAR_WEIGHT;
+                }
+            }
+            if (context.getNamedVars() != null) {
+                w += VAR_WEIGHT * (context.getNamedVars().size() + 1);
+            }
+        } else if (global != null) {
+            w += VAR_WEIGHT * (global.getVars().size() + 1);
+        }
+        return w;
+    }
+
+    /**
+     * @return 缓存中的活动实例数
+     */
+    public int size() {
+        return live.size();
+    }
+
+    /**
+     * @return 钝化的实例数，有存储时为0
+     */
+    public int passivatedSize() {
+        return passivated.size();
+    }
+
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return 从钝化数据或存储加载的次数
+     */
+    public long getLoadCount() {
+        return loads;
+    }
+
+    /**
+     * @return 加载总耗时，单位纳秒
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    public void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    private static final class Entry {
+        SCInstance instance;
+
+        int weight;
+
+        Entry(SCInstance instance) {
+            this.instance = instance;
+        }
+    }
+}
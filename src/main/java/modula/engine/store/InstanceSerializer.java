@@ -0,0 +1,17 @@
+package modula.engine.store;
+
+import modula.executor.core.SCInstance;
+
+import java.io.IOException;
+
+/**
+ * @description: 实例序列化方式，{@link InstanceStore}的实现用它把实例转成字节保存
+ * @author: gubing.gb
+ * @date: 2017/4/10.
+ */
+public interface InstanceSerializer {
+
+    byte[] serialize(SCInstance instance) throws IOException;
+
+    SCInstance deserialize(byte[] data) throws IOException;
+}
@@ -0,0 +1,52 @@
+package modula.engine.store;
+
+import modula.executor.core.SCInstance;
+
+import java.io.IOException;
+
+/**
+ * @description: 流程实例存储，按{@link modula.engine.context.WorkflowContext#getKey()}保存和加载{@link SCInstance}，
+ * 引擎处理事件前加载实例，处理完写回
+ * @author: gubing.gb
+ * @date: 2017/4/10.
+ */
+public interface InstanceStore {
+
+    /**
+     * 加载实例
+     *
+     * @param key 流程key
+     * @return 实例，不存在时返回null
+     */
+    SCInstance load(String key) throws IOException;
+
+    /**
+     * 保存实例，已存在时覆盖
+     *
+     * @param key      流程key
+     * @param instance 实例
+     */
+    void save(String key, SCInstance instance) throws IOException;
+
+    /**
+     * 删除实例
+     *
+     * @param key 流程key
+     */
+    void remove(String key) throws IOException;
+
+    /**
+     * @return 保存的实例数
+     */
+    int size();
+
+    /**
+     * 把已保存的实例写入磁盘，事件日志做checkpoint前调用
+     */
+    void flush() throws IOException;
+
+    /**
+     * 关闭存储，释放文件等资源
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,41 @@
+package modula.engine.store;
+
+import modula.executor.core.SCInstance;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * @description: 基于java序列化的实例序列化方式
+ * @author: gubing.gb
+ * @date: 2017/4/10.
+ */
+public class JavaInstanceSerializer implements InstanceSerializer {
+
+    @Override
+    public byte[] serialize(SCInstance instance) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        try {
+            out.writeObject(instance);
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public SCInstance deserialize(byte[] data) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data));
+        try {
+            return (SCInstance) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+}
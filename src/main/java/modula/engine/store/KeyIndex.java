@@ -0,0 +1,133 @@
+package modula.engine.store;
+
+/**
+ * @description: key到记录地址的索引，开放寻址的两个平行数组，比HashMap&lt;String, Long&gt;每个key少一个Entry和一个Long，
+ * 非线程安全，由{@link FileInstanceStore}加锁访问
+ * @author: gubing.gb
+ * @date: 2017/4/10.
+ */
+final class KeyIndex {
+    /**
+     * 不存在时的返回值
+     */
+    static final long NONE = -1L;
+
+    private String[] keys;
+
+    private long[] addresses;
+
+    private int mask;
+
+    private int size;
+
+    KeyIndex(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        addresses = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(String key) {
+        int i = slot(key);
+        String k;
+        while ((k = keys[i]) != null) {
+            if (k.equals(key)) {
+                return addresses[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * @return 原来的地址，不存在时返回{@link #NONE}
+     */
+    long put(String key, long address) {
+        int i = slot(key);
+        String k;
+        while ((k = keys[i]) != null) {
+            if (k.equals(key)) {
+                long old = addresses[i];
+                addresses[i] = address;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        addresses[i] = address;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return NONE;
+    }
+
+    /**
+     * @return 原来的地址，不存在时返回{@link #NONE}
+     */
+    long remove(String key) {
+        int i = slot(key);
+        String k;
+        while ((k = keys[i]) != null) {
+            if (k.equals(key)) {
+                long old = addresses[i];
+                delete(i);
+                size--;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        return NONE;
+    }
+
+    /**
+     * 线性探测的删除，把后面同一探测链上的元素前移填补空位
+     */
+    private void delete(int i) {
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            String k = keys[j];
+            if (k == null) {
+                break;
+            }
+            int home = slot(k);
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                keys[i] = k;
+                addresses[i] = addresses[j];
+                i = j;
+            }
+        }
+        keys[i] = null;
+    }
+
+    private void resize() {
+        String[] oldKeys = keys;
+        long[] oldAddresses = addresses;
+        keys = new String[oldKeys.length << 1];
+        addresses = new long[oldKeys.length << 1];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int j = slot(oldKeys[i]);
+                while (keys[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                addresses[j] = oldAddresses[i];
+            }
+        }
+    }
+
+    private int slot(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
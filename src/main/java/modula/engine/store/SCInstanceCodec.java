@@ -0,0 +1,540 @@
+package modula.engine.store;
+
+import modula.executor.core.SCInstance;
+import modula.executor.core.Status;
+import modula.executor.core.context.Context;
+import modula.executor.core.context.SimpleContext;
+import modula.executor.core.context.SlotContext;
+import modula.executor.core.context.SlotLayout;
+import modula.executor.core.invoke.Invoker;
+import modula.executor.core.invoke.ModulaInvoker;
+import modula.parser.io.ModulaDefinitionCache;
+import modula.parser.model.EnterableState;
+import modula.parser.model.History;
+import modula.parser.model.Invoke;
+import modula.parser.model.Modula;
+import modula.parser.model.TransitionalState;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description: 实例快照的二进制编码，只写实例自身数据，模型对象按下标引用，解码时重新关联到已加载的共享{@link Modula}
+ * <p>
+ * 格式：byte 格式版本 | int 定义指纹 | sessionId | byte 标志 | 事件日志序号 | 活动状态下标列表 | 有记录的history下标及其状态下标列表 |
+ * 全局context的槽位变量和其余变量 | 根context变量 | 运行中的子状态机（所在状态下标、invoke下标、invokeId、src、子实例快照），
+ * 整数都按varint写入，变量值由{@link ValueEncoder}编码，子实例快照由子状态机定义的codec编码。
+ * 定义指纹由状态机名称、版本、状态id、history和数据模型槽位计算，解码时不一致则拒绝；
+ * 登记过{@link DefinitionShape}的其他定义的快照按状态id、history id和变量名映射到本定义上解码，用于定义热更新后迁移实例，
+ * 映射后的活动状态在本定义中不是合法配置时拒绝
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/11.
+ */
+public class SCInstanceCodec implements InstanceSerializer {
+    private static final int FORMAT = 3;
+
+    /**
+     * 没有子状态机部分的旧格式
+     */
+    private static final int FORMAT_NO_INVOKES = 2;
+
+    private static final int RUNNING = 1;
+
+    private final Modula modula;
+
+    /**
+     * 状态表，下标为{@link EnterableState#getIndex()}
+     */
+    private final EnterableState[] states;
+
+    /**
+     * 按状态下标、文档顺序排列的所有history
+     */
+    private final History[] histories;
+
+    private final boolean flat;
+
+    private final int definitionId;
+
+    /**
+     * invoke所在状态的下标和在状态invoke数组中的下标
+     */
+    private final Map<Invoke, int[]> invokes = new HashMap<Invoke, int[]>();
+
+    /**
+     * 子状态机定义的codec
+     */
+    private final ConcurrentHashMap<Modula, SCInstanceCodec> children = new ConcurrentHashMap<Modula, SCInstanceCodec>();
+
+    private ValueEncoder valueEncoder = new DefaultValueEncoder();
+
+    /**
+     * 其他定义的快照到本定义的映射，按定义指纹索引
+     */
+    private volatile Map<Integer, Remap> remaps = Collections.emptyMap();
+
+    public SCInstanceCodec(Modula modula) {
+        this.modula = modula;
+        this.states = modula.getStates();
+        this.flat = modula.getFlatTable() != null;
+        List<History> list = new ArrayList<History>();
+        for (EnterableState es : states) {
+            if (es instanceof TransitionalState) {
+                TransitionalState ts = (TransitionalState) es;
+                list.addAll(ts.getHistory());
+                Invoke[] array = ts.getInvokeArray();
+                for (int i = 0; array != null && i < array.length; i++) {
+                    invokes.put(array[i], new int[]{es.getIndex(), i});
+                }
+            }
+        }
+        this.histories = list.toArray(new History[list.size()]);
+        this.definitionId = fingerprint();
+    }
+
+    @Override
+    public byte[] serialize(SCInstance instance) throws IOException {
+        SnapshotOutput out = new SnapshotOutput(64);
+        out.writeByte(FORMAT);
+        out.writeInt(definitionId);
+        out.writeString(instance.getSessionId());
+        out.writeByte(instance.isRunning() ? RUNNING : 0);
+        out.writeVarLong(instance.getLastSequence());
+
+        Status status = instance.getCurrentStatus();
+        int current = status.getCurrentIndex();
+        if (current >= 0) {
+            out.writeVarInt(1);
+            out.writeVarInt(current);
+        } else {
+            writeBits(status.snapshot(), out);
+        }
+
+        int count = 0;
+        for (History history : histories) {
+            if (!instance.isEmpty(history)) {
+                count++;
+            }
+        }
+        out.writeVarInt(count);
+        for (int i = 0; i < histories.length && count > 0; i++) {
+            if (!instance.isEmpty(histories[i])) {
+                Set<EnterableState> lastConfiguration = instance.getLastConfiguration(histories[i]);
+                out.writeVarInt(i);
+                out.writeVarInt(lastConfiguration.size());
+                for (EnterableState es : lastConfiguration) {
+                    out.writeVarInt(es.getIndex());
+                }
+            }
+        }
+
+        Context global = instance.getGlobalContext();
+        if (global instanceof SlotContext) {
+            SlotContext context = (SlotContext) global;
+            count = 0;
+            for (int i = 0; i < context.getSlotCount(); i++) {
+                if (context.hasLocal(i)) {
+                    count++;
+                }
+            }
+            out.writeVarInt(count);
+            for (int i = 0; i < context.getSlotCount(); i++) {
+                if (context.hasLocal(i)) {
+                    out.writeVarInt(i);
+                    valueEncoder.write(context.getLocal(i), out);
+                }
+            }
+            writeVars(context.getNamedVars(), out);
+        } else {
+            out.writeVarInt(0);
+            writeVars(global != null ? global.getVars() : null, out);
+        }
+        writeVars(instance.getRootContext().getVars(), out);
+        writeInvokes(instance, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public SCInstance deserialize(byte[] data) throws IOException {
+        SnapshotInput in = new SnapshotInput(data);
+        int format = in.readByte();
+        if (format != FORMAT && format != FORMAT_NO_INVOKES) {
+            throw new IOException("unknown snapshot format " + format);
+        }
+        int id = in.readInt();
+        Remap remap = null;
+        if (id != definitionId) {
+            remap = remaps.get(id);
+            if (remap == null) {
+                throw new IOException("snapshot of another definition, expected " + definitionId + " but was " + id);
+            }
+        }
+        SCInstance instance = new SCInstance(in.readString());
+        instance.setRunning((in.readByte() & RUNNING) != 0);
+        instance.setLastSequence(in.readVarLong());
+
+        Status status = instance.getCurrentStatus();
+        status.setStateTable(states, flat);
+        Set<EnterableState> mapped = remap != null ? new HashSet<EnterableState>() : null;
+        for (int n = in.readVarInt(); n > 0; n--) {
+            int index = in.readVarInt();
+            if (remap != null) {
+                index = remap.state(index);
+                mapped.add(state(index));
+            }
+            status.add(state(index));
+        }
+        if (remap != null && !isLegalConfiguration(mapped)) {
+            throw new IOException("active states of definition " + id + " are not a legal configuration in definition "
+                    + definitionId);
+        }
+
+        for (int n = in.readVarInt(); n > 0; n--) {
+            int index = in.readVarInt();
+            if (remap != null) {
+                // 新定义中删除的history和状态直接丢弃
+                index = remap.history(index);
+            } else if (index >= histories.length) {
+                throw new IOException("history index out of range: " + index);
+            }
+            Set<EnterableState> lastConfiguration = index >= 0 ? instance.getLastConfiguration(histories[index]) : null;
+            for (int m = in.readVarInt(); m > 0; m--) {
+                int state = in.readVarInt();
+                if (remap != null) {
+                    state = remap.historyState(state);
+                }
+                if (lastConfiguration != null && state >= 0) {
+                    lastConfiguration.add(state(state));
+                }
+            }
+        }
+
+        SlotLayout layout = modula.getSlotLayout();
+        SlotContext global = null;
+        int slots = in.readVarInt();
+        if (slots > 0) {
+            global = new SlotContext(layout, null);
+            for (int n = slots; n > 0; n--) {
+                int slot = in.readVarInt();
+                if (remap != null) {
+                    global.setLocal(remap.slotName(slot), valueEncoder.read(in));
+                } else {
+                    global.setLocal(slot, valueEncoder.read(in));
+                }
+            }
+        }
+        int named = in.readVarInt();
+        if (named > 0) {
+            if (global == null) {
+                global = new SlotContext(layout, null);
+            }
+            for (int n = named; n > 0; n--) {
+                global.setLocal(in.readString(), valueEncoder.read(in));
+            }
+        }
+        instance.setGlobalContext(global);
+
+        int roots = in.readVarInt();
+        if (roots > 0) {
+            SimpleContext root = new SimpleContext();
+            for (int n = roots; n > 0; n--) {
+                root.setLocal(in.readString(), valueEncoder.read(in));
+            }
+            instance.setRootContext(root);
+        }
+        if (format != FORMAT_NO_INVOKES) {
+            readInvokes(instance, remap, in);
+        }
+        return instance;
+    }
+
+    /**
+     * @return 定义指纹，快照中用它代替模型引用
+     */
+    public int getDefinitionId() {
+        return definitionId;
+    }
+
+    public Modula getModula() {
+        return modula;
+    }
+
+    /**
+     * @return 本定义的形状，定义卸载后用它解码旧快照
+     */
+    public DefinitionShape shape() {
+        String[] stateIds = new String[states.length];
+        for (int i = 0; i < states.length; i++) {
+            stateIds[i] = states[i].getId();
+        }
+        String[] historyIds = new String[histories.length];
+        for (int i = 0; i < histories.length; i++) {
+            historyIds[i] = histories[i].getId();
+        }
+        SlotLayout layout = modula.getSlotLayout();
+        String[] slotNames = new String[layout != null ? layout.size() : 0];
+        for (int i = 0; i < slotNames.length; i++) {
+            slotNames[i] = layout.nameOf(i);
+        }
+        return new DefinitionShape(definitionId, stateIds, historyIds, slotNames);
+    }
+
+    /**
+     * 迁移时按状态id映射的活动状态在目标定义中是否还是合法配置：活动状态的父状态都活动，活动的复合状态有且只有一个活动子状态，
+     * 顶层只有一个活动状态。空配置（未启动的实例）视为合法
+     *
+     * @param active 目标定义中的活动状态
+     */
+    public static boolean isLegalConfiguration(Collection<EnterableState> active) {
+        if (active.isEmpty()) {
+            return true;
+        }
+        int top = 0;
+        for (EnterableState es : active) {
+            EnterableState parent = es.getParent();
+            if (parent == null) {
+                top++;
+            } else if (!active.contains(parent)) {
+                return false;
+            }
+            if (!es.isAtomicState()) {
+                int children = 0;
+                for (EnterableState child : ((TransitionalState) es).getChildren()) {
+                    if (active.contains(child)) {
+                        children++;
+                    }
+                }
+                if (children != 1) {
+                    return false;
+                }
+            }
+        }
+        return top == 1;
+    }
+
+    /**
+     * 登记其他定义的形状，之后该定义写的快照可以由本codec解码
+     */
+    public synchronized void addShape(DefinitionShape shape) {
+        if (shape.getDefinitionId() == definitionId) {
+            return;
+        }
+        Map<Integer, Remap> copy = new HashMap<Integer, Remap>(remaps);
+        copy.put(shape.getDefinitionId(), new Remap(shape));
+        remaps = copy;
+    }
+
+    /**
+     * @return 快照的定义指纹
+     */
+    public static int definitionIdOf(byte[] data) throws IOException {
+        SnapshotInput in = new SnapshotInput(data);
+        in.readByte();
+        return in.readInt();
+    }
+
+    public void setValueEncoder(ValueEncoder valueEncoder) {
+        this.valueEncoder = valueEncoder;
+    }
+
+    /**
+     * 写入运行中的内置子状态机，其他类型的invoker不能恢复，不写入
+     */
+    private void writeInvokes(SCInstance instance, SnapshotOutput out) throws IOException {
+        if (!instance.hasInvokers()) {
+            out.writeVarInt(0);
+            return;
+        }
+        List<Map.Entry<Invoke, String>> running = new ArrayList<Map.Entry<Invoke, String>>(2);
+        for (Map.Entry<Invoke, String> entry : instance.getInvokeIds().entrySet()) {
+            Invoker invoker = instance.getInvokers().get(entry.getValue());
+            if (invoker instanceof ModulaInvoker && ((ModulaInvoker) invoker).getChild() != null
+                    && invokes.containsKey(entry.getKey())) {
+                running.add(entry);
+            }
+        }
+        out.writeVarInt(running.size());
+        for (Map.Entry<Invoke, String> entry : running) {
+            ModulaInvoker invoker = (ModulaInvoker) instance.getInvokers().get(entry.getValue());
+            int[] position = invokes.get(entry.getKey());
+            out.writeVarInt(position[0]);
+            out.writeVarInt(position[1]);
+            out.writeString(entry.getValue());
+            out.writeString(invoker.getSource() != null ? invoker.getSource() : "");
+            out.writeBytes(childCodec(invoker.getDefinition()).serialize(invoker.getChild()));
+        }
+    }
+
+    /**
+     * 恢复子状态机，迁移时所在状态在新定义中不存在的子实例丢弃
+     */
+    private void readInvokes(SCInstance instance, Remap remap, SnapshotInput in) throws IOException {
+        for (int n = in.readVarInt(); n > 0; n--) {
+            int index = in.readVarInt();
+            int position = in.readVarInt();
+            String invokeId = in.readString();
+            String source = in.readString();
+            byte[] data = in.readBytes();
+            if (remap != null) {
+                index = remap.historyState(index);
+            }
+            EnterableState owner = index >= 0 ? state(index) : null;
+            if (!(owner instanceof TransitionalState)) {
+                continue;
+            }
+            Invoke[] array = ((TransitionalState) owner).getInvokeArray();
+            if (array == null || position >= array.length) {
+                continue;
+            }
+            Invoke invoke = array[position];
+            Modula definition = invoke.getDefinition();
+            if (definition == null) {
+                try {
+                    definition = ModulaDefinitionCache.load(source);
+                } catch (Exception e) {
+                    throw new IOException("can not load invoked definition " + source + ": " + e.getMessage(), e);
+                }
+            }
+            SCInstance child = childCodec(definition).deserialize(data);
+            instance.getInvokeIds().put(invoke, invokeId);
+            instance.getInvokers().put(invokeId, new ModulaInvoker(definition, invokeId, source, child));
+        }
+    }
+
+    private SCInstanceCodec childCodec(Modula definition) {
+        SCInstanceCodec codec = children.get(definition);
+        if (codec == null) {
+            codec = new SCInstanceCodec(definition);
+            codec.setValueEncoder(valueEncoder);
+            SCInstanceCodec existing = children.putIfAbsent(definition, codec);
+            if (existing != null) {
+                codec = existing;
+            }
+        }
+        return codec;
+    }
+
+    private void writeVars(Map<String, Object> vars, SnapshotOutput out) throws IOException {
+        if (vars == null || vars.isEmpty()) {
+            out.writeVarInt(0);
+            return;
+        }
+        out.writeVarInt(vars.size());
+        for (Map.Entry<String, Object> entry : vars.entrySet()) {
+            out.writeString(entry.getKey());
+            valueEncoder.write(entry.getValue(), out);
+        }
+    }
+
+    private static void writeBits(long[] bits, SnapshotOutput out) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        out.writeVarInt(count);
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                out.writeVarInt((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    private EnterableState state(int index) throws IOException {
+        if (index >= states.length) {
+            throw new IOException("state index out of range: " + index);
+        }
+        return states[index];
+    }
+
+    private int fingerprint() {
+        int h = 17;
+        h = 31 * h + hash(modula.getName());
+        h = 31 * h + hash(modula.getVersion());
+        for (EnterableState es : states) {
+            h = 31 * h + hash(es.getId());
+        }
+        for (History history : histories) {
+            h = 31 * h + hash(history.getId());
+        }
+        SlotLayout layout = modula.getSlotLayout();
+        if (layout != null) {
+            for (int i = 0; i < layout.size(); i++) {
+                h = 31 * h + hash(layout.nameOf(i));
+            }
+        }
+        return h;
+    }
+
+    private static int hash(String s) {
+        return s != null ? s.hashCode() : 0;
+    }
+
+    /**
+     * 其他定义的下标到本定义下标的映射，新定义中不存在的为-1
+     */
+    private final class Remap {
+        final DefinitionShape shape;
+
+        final int[] states;
+
+        final int[] histories;
+
+        Remap(DefinitionShape shape) {
+            this.shape = shape;
+            Map<String, Integer> stateIndex = new HashMap<String, Integer>();
+            for (EnterableState es : SCInstanceCodec.this.states) {
+                stateIndex.put(es.getId(), es.getIndex());
+            }
+            states = map(shape.getStateIds(), stateIndex);
+            Map<String, Integer> historyIndex = new HashMap<String, Integer>();
+            for (int i = 0; i < SCInstanceCodec.this.histories.length; i++) {
+                historyIndex.put(SCInstanceCodec.this.histories[i].getId(), i);
+            }
+            histories = map(shape.getHistoryIds(), historyIndex);
+        }
+
+        int state(int index) throws IOException {
+            int mapped = historyState(index);
+            if (mapped < 0) {
+                throw new IOException("state " + (index < shape.getStateIds().length ? shape.getStateIds()[index] : index)
+                        + " of definition " + shape.getDefinitionId() + " does not exist in definition " + definitionId);
+            }
+            return mapped;
+        }
+
+        int historyState(int index) {
+            return index < states.length ? states[index] : -1;
+        }
+
+        int history(int index) {
+            return index < histories.length ? histories[index] : -1;
+        }
+
+        String slotName(int slot) throws IOException {
+            if (slot >= shape.getSlotNames().length) {
+                throw new IOException("slot index out of range: " + slot);
+            }
+            return shape.getSlotNames()[slot];
+        }
+
+        private int[] map(String[] ids, Map<String, Integer> index) {
+            int[] mapped = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                Integer target = ids[i] != null ? index.get(ids[i]) : null;
+                mapped[i] = target != null ? target : -1;
+            }
+            return mapped;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package modula.engine.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @description: {@link FileInstanceStore}、{@link EventJournal}、{@link FileTimerStore}的数据文件，固定大小，整体内存映射，只追加写入
+ * @author: gubing.gb
+ * @date: 2017/4/10.
+ */
+final class Segment {
+    /**
+     * java 9及以上用Unsafe.invokeCleaner释放映射，为null时用java 8的DirectBuffer.cleaner()
+     */
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (Exception e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    final int id;
+
+    final File file;
+
+    final int capacity;
+
+    final MappedByteBuffer buffer;
+
+    private final RandomAccessFile raf;
+
+    /**
+     * 下一条记录的写入位置
+     */
+    int position;
+
+    /**
+     * 仍被索引引用的记录字节数
+     */
+    long liveBytes;
+
+    Segment(int id, File file, int capacity) throws IOException {
+        this.id = id;
+        this.file = file;
+        this.capacity = capacity;
+        this.raf = new RandomAccessFile(file, "rw");
+        if (raf.length() < capacity) {
+            raf.setLength(capacity);
+        }
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * 关闭文件并释放映射，之后不能再访问{@link #buffer}
+     */
+    void close() throws IOException {
+        raf.close();
+        unmap(buffer);
+    }
+
+    void delete() throws IOException {
+        close();
+        if (!file.delete()) {
+            throw new IOException("can not delete " + file);
+        }
+    }
+
+    /**
+     * 立即释放映射的地址空间，不等GC回收buffer。释放失败时退回到GC回收
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception ignored) {
+            // 不支持时由GC回收
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package modula.engine.store;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * @description: 实例快照的读取，格式见{@link SnapshotOutput}
+ * @author: gubing.gb
+ * @date: 2017/4/11.
+ */
+public final class SnapshotInput {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte[] buf;
+
+    private int pos;
+
+    public SnapshotInput(byte[] buf) {
+        this.buf = buf;
+    }
+
+    public int readByte() throws IOException {
+        check(1);
+        return buf[pos++];
+    }
+
+    public byte[] readBytes() throws IOException {
+        int length = readVarInt();
+        check(length);
+        byte[] bytes = new byte[length];
+        System.arraycopy(buf, pos, bytes, 0, length);
+        pos += length;
+        return bytes;
+    }
+
+    public int readInt() throws IOException {
+        check(4);
+        return ((buf[pos++] & 0xFF) << 24) | ((buf[pos++] & 0xFF) << 16) | ((buf[pos++] & 0xFF) << 8) | (buf[pos++] & 0xFF);
+    }
+
+    public int readVarInt() throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    public long readVarLong() throws IOException {
+        long z = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            z |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (z >>> 1) ^ -(z & 1);
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    public double readDouble() throws IOException {
+        long high = readInt() & 0xFFFFFFFFL;
+        long low = readInt() & 0xFFFFFFFFL;
+        return Double.longBitsToDouble((high << 32) | low);
+    }
+
+    public String readString() throws IOException {
+        int length = readVarInt();
+        check(length);
+        String s = new String(buf, pos, length, UTF8);
+        pos += length;
+        return s;
+    }
+
+    /**
+     * @return 是否已读完
+     */
+    public boolean isEnd() {
+        return pos >= buf.length;
+    }
+
+    private void check(int n) throws IOException {
+        if (n < 0 || pos + n > buf.length) {
+            throw new EOFException("snapshot truncated at " + pos);
+        }
+    }
+}
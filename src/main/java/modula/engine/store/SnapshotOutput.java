@@ -0,0 +1,123 @@
+package modula.engine.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * @description: 实例快照的写入缓冲区，整数按varint写入，字符串按长度 + utf-8写入
+ * @author: gubing.gb
+ * @date: 2017/4/11.
+ */
+public final class SnapshotOutput {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] buf;
+
+    private int count;
+
+    public SnapshotOutput(int capacity) {
+        buf = new byte[capacity];
+    }
+
+    public void writeByte(int b) {
+        ensure(1);
+        buf[count++] = (byte) b;
+    }
+
+    public void writeBytes(byte[] bytes) {
+        writeVarInt(bytes.length);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * 固定4字节，高位在前
+     */
+    public void writeInt(int v) {
+        ensure(4);
+        buf[count++] = (byte) (v >>> 24);
+        buf[count++] = (byte) (v >>> 16);
+        buf[count++] = (byte) (v >>> 8);
+        buf[count++] = (byte) v;
+    }
+
+    /**
+     * 非负整数，每字节7位
+     */
+    public void writeVarInt(int v) {
+        ensure(5);
+        while ((v & ~0x7F) != 0) {
+            buf[count++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[count++] = (byte) v;
+    }
+
+    /**
+     * 有符号整数，zigzag编码后按varint写入
+     */
+    public void writeVarLong(long v) {
+        ensure(10);
+        long z = (v << 1) ^ (v >> 63);
+        while ((z & ~0x7FL) != 0) {
+            buf[count++] = (byte) ((z & 0x7F) | 0x80);
+            z >>>= 7;
+        }
+        buf[count++] = (byte) z;
+    }
+
+    public void writeDouble(double v) {
+        long bits = Double.doubleToLongBits(v);
+        writeInt((int) (bits >>> 32));
+        writeInt((int) bits);
+    }
+
+    public void writeString(String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) >= 0x80) {
+                writeBytes(s.getBytes(UTF8));
+                return;
+            }
+        }
+        // ascii直接写入
+        writeVarInt(length);
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * 清空已写入的内容，复用缓冲区
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 把已写入的内容写到目标缓冲区的当前位置
+     */
+    public void writeTo(ByteBuffer target) {
+        target.put(buf, 0, count);
+    }
+
+    public byte[] toByteArray() {
+        byte[] result = new byte[count];
+        System.arraycopy(buf, 0, result, 0, count);
+        return result;
+    }
+
+    private void ensure(int n) {
+        if (count + n > buf.length) {
+            byte[] grown = new byte[Math.max(buf.length << 1, count + n)];
+            System.arraycopy(buf, 0, grown, 0, count);
+            buf = grown;
+        }
+    }
+}
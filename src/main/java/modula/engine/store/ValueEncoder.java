@@ -0,0 +1,15 @@
+package modula.engine.store;
+
+import java.io.IOException;
+
+/**
+ * @description: 实例数据模型中变量值的编码方式，由{@link SCInstanceCodec}调用
+ * @author: gubing.gb
+ * @date: 2017/4/11.
+ */
+public interface ValueEncoder {
+
+    void write(Object value, SnapshotOutput out) throws IOException;
+
+    Object read(SnapshotInput in) throws IOException;
+}
@@ -0,0 +1,99 @@
+package modula.engine.timer;
+
+import modula.executor.core.dispatcher.EventDispatcher;
+import modula.listener.ModulaListener;
+import modula.parser.model.EnterableState;
+import modula.parser.model.State;
+import modula.parser.model.Transition;
+import modula.parser.model.TransitionTarget;
+import org.w3c.dom.Node;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @description: 通道执行器的延迟发送和状态超时，交给{@link TimerScheduler}
+ * <p>
+ * 作为{@link modula.engine.bus.EventBusDispatcher}的延迟分发器：没有target时发给当前实例，target为流程key时发给对应实例，以#开头的target视为当前实例；
+ * 其他引擎的"类型:key"和多个目标由分发器检查后原样记在定时事件上，到期时由引擎解析投递。
+ * 作为设置了timeout的状态上的监听器：进入状态时加入超时事件，离开时取消，超时事件的sendId由key和状态id确定，重启后也能取消。
+ * 每个通道一个，只在通道线程上使用，处理实例前由引擎通过{@link #bind(String)}设置当前key
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/14.
+ */
+public class LaneTimers implements EventDispatcher, ModulaListener {
+    private final TimerScheduler scheduler;
+
+    /**
+     * 当前处理的流程key
+     */
+    private String key;
+
+    public LaneTimers(TimerScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 设置当前处理的流程key
+     */
+    public void bind(String key) {
+        this.key = key;
+    }
+
+    @Override
+    public void cancel(String sendId) {
+        scheduler.cancel(sendId);
+    }
+
+    @Override
+    public void send(String sendId, String target, String type, String event, Map<String, Object> params,
+                     Object hints, long delay, List<Node> externalNodes) {
+        if (target == null || target.startsWith("#")) {
+            scheduler.schedule(sendId, key, event, params, delay);
+        } else if (isKey(target)) {
+            scheduler.schedule(sendId, target, event, params, delay);
+        } else {
+            scheduler.schedule(sendId, key, target, event, params, delay);
+        }
+    }
+
+    @Override
+    public void onEntry(EnterableState state) {
+        if (state instanceof State && ((State) state).getTimeout() > 0) {
+            State s = (State) state;
+            scheduler.schedule(timeoutId(key, s), key, s.getTimeoutEvent(), null, s.getTimeout());
+        }
+    }
+
+    @Override
+    public void onExit(EnterableState state) {
+        if (state instanceof State && ((State) state).getTimeout() > 0) {
+            scheduler.cancel(timeoutId(key, (State) state));
+        }
+    }
+
+    @Override
+    public void onTransition(TransitionTarget from, TransitionTarget to, Transition transition, String event) {
+    }
+
+    /**
+     * @return target是否是本引擎的单个流程key
+     */
+    private static boolean isKey(String target) {
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            if (c == ':' || c == ' ' || c == ',') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 状态超时事件的sendId
+     */
+    public static String timeoutId(String key, State state) {
+        return key + "#timeout#" + state.getId();
+    }
+}
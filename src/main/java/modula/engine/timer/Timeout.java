@@ -0,0 +1,84 @@
+package modula.engine.timer;
+
+/**
+ * @description: 一个待触发的定时事件，到期后作为事件投递给key对应的实例，设置了target时投递给target
+ * <p>
+ * 链表指针和所在层、槽只由{@link TimingWheel}在定时线程上维护
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/14.
+ */
+public final class Timeout {
+    private final String sendId;
+
+    private final String key;
+
+    /**
+     * 延迟发送的目标，格式见{@link modula.engine.bus.EventBusDispatcher}，以#开头的部分指key对应的实例；为null时发给key对应的实例
+     */
+    private final String target;
+
+    private final String event;
+
+    private final Object payload;
+
+    /**
+     * 到期时间，毫秒时间戳
+     */
+    private final long deadline;
+
+    /**
+     * 到期的tick，入轮时计算
+     */
+    long tick;
+
+    int level = -1;
+
+    int slot;
+
+    Timeout prev;
+
+    Timeout next;
+
+    public Timeout(String sendId, String key, String event, Object payload, long deadline) {
+        this(sendId, key, null, event, payload, deadline);
+    }
+
+    public Timeout(String sendId, String key, String target, String event, Object payload, long deadline) {
+        this.sendId = sendId;
+        this.key = key;
+        this.target = target;
+        this.event = event;
+        this.payload = payload;
+        this.deadline = deadline;
+    }
+
+    public String getSendId() {
+        return sendId;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public Object getPayload() {
+        return payload;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    @Override
+    public String toString() {
+        return "Timeout{sendId=" + sendId + ", key=" + key + ", target=" + target + ", event=" + event + ", deadline=" + deadline + "}";
+    }
+}
@@ -0,0 +1,19 @@
+package modula.engine.timer;
+
+import java.util.List;
+
+/**
+ * @description: 到期定时事件的接收方，同一tick内同一key的定时事件一次交付
+ * @author: gubing.gb
+ * @date: 2017/4/14.
+ */
+public interface TimeoutHandler {
+
+    /**
+     * 在定时线程上调用，不能阻塞
+     *
+     * @param key      流程key
+     * @param timeouts 到期的定时事件，按到期顺序
+     */
+    void onTimeout(String key, List<Timeout> timeouts);
+}
@@ -0,0 +1,267 @@
+package modula.engine.timer;
+
+import modula.engine.store.FileTimerStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @description: 基于{@link TimingWheel}的定时调度，一个定时线程推进时间轮并交付到期事件
+ * <p>
+ * 加入和取消只把命令放进无锁队列，定时线程每个tick开始时统一应用，所以调用方不会被阻塞，同一线程的加入和取消保持顺序。
+ * 每个tick到期的事件按key分组交给{@link TimeoutHandler}。设置了{@link FileTimerStore}时加入、取消和到期都写入存储，重启后恢复未到期的定时事件，
+ * 停机期间已到期的在启动后的第一个tick交付
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/14.
+ */
+public class TimerScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(TimerScheduler.class);
+
+    private final long tickMillis;
+
+    private final TimeoutHandler handler;
+
+    private FileTimerStore store;
+
+    private String threadName = "workflow-timer";
+
+    /**
+     * 待应用的加入({@link Timeout})和取消({@link Cancel})命令
+     */
+    private final ConcurrentLinkedQueue<Object> commands = new ConcurrentLinkedQueue<Object>();
+
+    /**
+     * 未到期的定时事件，只在定时线程上访问
+     */
+    private final Map<String, Timeout> timers = new HashMap<String, Timeout>();
+
+    private final List<Timeout> expired = new ArrayList<Timeout>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private TimingWheel wheel;
+
+    private Thread thread;
+
+    private volatile boolean running;
+
+    private volatile int pending;
+
+    private volatile long fired;
+
+    /**
+     * @param tickMillis 时间轮精度，单位毫秒
+     * @param handler    到期事件的接收方
+     */
+    public TimerScheduler(long tickMillis, TimeoutHandler handler) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.handler = handler;
+    }
+
+    /**
+     * 恢复持久化的定时事件并启动定时线程
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+        wheel = new TimingWheel(System.currentTimeMillis() / tickMillis);
+        if (store != null) {
+            for (Timeout timeout : store.open()) {
+                timers.put(timeout.getSendId(), timeout);
+                wheel.add(timeout, tickOf(timeout.getDeadline()));
+            }
+            logger.info("timer store recovered, timers={}", timers.size());
+        }
+        pending = timers.size();
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 停止定时线程，应用剩余的命令后关闭存储，未到期的定时事件留在存储中
+     */
+    public synchronized void stop() throws InterruptedException, IOException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+        thread = null;
+        applyCommands();
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    /**
+     * 加入定时事件，同一sendId未到期的定时事件被替换
+     *
+     * @param sendId  定时事件id，为null时生成
+     * @param key     流程key
+     * @param event   事件名
+     * @param payload 事件数据
+     * @param delay   延迟，单位毫秒
+     * @return sendId
+     */
+    public String schedule(String sendId, String key, String event, Object payload, long delay) {
+        return schedule(sendId, key, null, event, payload, delay);
+    }
+
+    /**
+     * 加入发给target的定时事件，到期时和key的其他定时事件一起交给{@link TimeoutHandler}
+     *
+     * @param target 目标，见{@link Timeout#getTarget()}
+     * @return sendId
+     */
+    public String schedule(String sendId, String key, String target, String event, Object payload, long delay) {
+        if (sendId == null) {
+            sendId = key + "#" + ids.incrementAndGet();
+        }
+        commands.offer(new Timeout(sendId, key, target, event, payload, System.currentTimeMillis() + Math.max(delay, 0L)));
+        return sendId;
+    }
+
+    /**
+     * 取消定时事件，已到期或不存在时忽略
+     */
+    public void cancel(String sendId) {
+        commands.offer(new Cancel(sendId));
+    }
+
+    /**
+     * @return 未到期的定时事件数，每个tick更新
+     */
+    public int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * @return 已交付的定时事件数
+     */
+    public long getFiredCount() {
+        return fired;
+    }
+
+    public void setStore(FileTimerStore store) {
+        this.store = store;
+    }
+
+    public void setThreadName(String threadName) {
+        this.threadName = threadName;
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                applyCommands();
+                long now = System.currentTimeMillis();
+                wheel.advance(now / tickMillis, expired);
+                if (!expired.isEmpty()) {
+                    deliver();
+                }
+                if (store != null && store.needsCompaction(timers.size())) {
+                    store.compact(timers.values());
+                }
+                pending = timers.size();
+            } catch (Throwable e) {
+                logger.error("timer loop error", e);
+            }
+            long now = System.currentTimeMillis();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(tickMillis - now % tickMillis));
+        }
+    }
+
+    private void applyCommands() throws IOException {
+        Object command;
+        while ((command = commands.poll()) != null) {
+            if (command instanceof Timeout) {
+                Timeout timeout = (Timeout) command;
+                Timeout old = timers.put(timeout.getSendId(), timeout);
+                if (old != null) {
+                    wheel.remove(old);
+                }
+                wheel.add(timeout, tickOf(timeout.getDeadline()));
+                if (store != null) {
+                    store.add(timeout);
+                }
+            } else {
+                String sendId = ((Cancel) command).sendId;
+                Timeout timeout = timers.remove(sendId);
+                if (timeout != null) {
+                    wheel.remove(timeout);
+                    if (store != null) {
+                        store.remove(sendId);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 按key分组交付，交付后再从存储删除，交付前崩溃的在重启后重新交付
+     */
+    private void deliver() throws IOException {
+        Map<String, List<Timeout>> byKey = new LinkedHashMap<String, List<Timeout>>();
+        for (Timeout timeout : expired) {
+            timers.remove(timeout.getSendId());
+            List<Timeout> list = byKey.get(timeout.getKey());
+            if (list == null) {
+                list = new ArrayList<Timeout>(2);
+                byKey.put(timeout.getKey(), list);
+            }
+            list.add(timeout);
+        }
+        for (Map.Entry<String, List<Timeout>> entry : byKey.entrySet()) {
+            try {
+                handler.onTimeout(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                logger.error("timeout delivery error, key=" + entry.getKey(), e);
+            }
+        }
+        if (store != null) {
+            for (Timeout timeout : expired) {
+                store.remove(timeout.getSendId());
+            }
+        }
+        fired += expired.size();
+        expired.clear();
+    }
+
+    /**
+     * 向上取整，不提前到期
+     */
+    private long tickOf(long deadline) {
+        return (deadline + tickMillis - 1) / tickMillis;
+    }
+
+    private static final class Cancel {
+        final String sendId;
+
+        Cancel(String sendId) {
+            this.sendId = sendId;
+        }
+    }
+}
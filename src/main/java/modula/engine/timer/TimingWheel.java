@@ -0,0 +1,146 @@
+package modula.engine.timer;
+
+import java.util.List;
+
+/**
+ * @description: 分层时间轮，4层，每层256个槽，第0层一个槽一个tick，上一层一个槽覆盖下一层一整圈
+ * <p>
+ * 定时事件按到期tick与当前tick的最高不同位所在层入轮，每个槽是双向链表，加入、取消都是O(1)；
+ * 下层转完一圈时把上层对应槽的定时事件降级重新入轮。只在定时线程上使用，不加锁
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/14.
+ */
+final class TimingWheel {
+    private static final int BITS = 8;
+
+    private static final int SLOTS = 1 << BITS;
+
+    private static final int MASK = SLOTS - 1;
+
+    private static final int LEVELS = 4;
+
+    /**
+     * 各层各槽的链表头
+     */
+    private final Timeout[][] wheels = new Timeout[LEVELS][SLOTS];
+
+    /**
+     * 已处理到的tick
+     */
+    private long currentTick;
+
+    private int size;
+
+    TimingWheel(long startTick) {
+        this.currentTick = startTick;
+    }
+
+    /**
+     * 加入定时事件，已过期的在下一个tick到期
+     */
+    void add(Timeout timeout, long tick) {
+        timeout.tick = Math.max(tick, currentTick + 1);
+        place(timeout);
+        size++;
+    }
+
+    /**
+     * 取消定时事件，不在轮中时忽略
+     */
+    void remove(Timeout timeout) {
+        if (timeout.level >= 0) {
+            unlink(timeout);
+            size--;
+        }
+    }
+
+    /**
+     * 推进到nowTick，到期的定时事件按到期顺序加入expired
+     */
+    void advance(long nowTick, List<Timeout> expired) {
+        if (size == 0) {
+            currentTick = Math.max(currentTick, nowTick);
+            return;
+        }
+        while (currentTick < nowTick) {
+            currentTick++;
+            // 从高层往低层降级，降到下一层当前槽的会在下一层接着处理
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (level * BITS)) - 1)) == 0) {
+                    cascade(level, (int) (currentTick >>> (level * BITS)) & MASK);
+                }
+            }
+            int slot = (int) currentTick & MASK;
+            Timeout t = wheels[0][slot];
+            wheels[0][slot] = null;
+            while (t != null) {
+                Timeout next = t.next;
+                t.prev = null;
+                t.next = null;
+                t.level = -1;
+                size--;
+                expired.add(t);
+                t = next;
+            }
+            if (size == 0) {
+                currentTick = nowTick;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long currentTick() {
+        return currentTick;
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout t = wheels[level][slot];
+        wheels[level][slot] = null;
+        while (t != null) {
+            Timeout next = t.next;
+            t.prev = null;
+            t.next = null;
+            place(t);
+            t = next;
+        }
+    }
+
+    /**
+     * 放入到期tick与当前tick更高位都相同的最低一层；最高层放不下的转到对应槽后重新放入
+     */
+    private void place(Timeout timeout) {
+        long tick = timeout.tick;
+        int level = 0;
+        while (level < LEVELS - 1 && (tick >>> ((level + 1) * BITS)) != (currentTick >>> ((level + 1) * BITS))) {
+            level++;
+        }
+        int slot = (int) (tick >>> (level * BITS)) & MASK;
+        Timeout head = wheels[level][slot];
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        wheels[level][slot] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            wheels[timeout.level][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+}
@@ -0,0 +1,156 @@
+package modula.engine.version;
+
+import modula.engine.store.SCInstanceCodec;
+import modula.executor.core.ModulaExecutor;
+import modula.executor.core.SCInstance;
+import modula.executor.statemachine.StateMachineDefinition;
+import modula.parser.model.EnterableState;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @description: 定义的一个版本：定义、快照编码和各通道的执行器，记录绑定在这个版本上的内存实例数
+ * <p>
+ * 版本被新版本替换后标记为退役，退役且没有实例时卸载，卸载后不能再绑定实例。
+ * 实例数为-1表示已卸载，绑定和卸载都是CAS，不需要锁
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/19.
+ */
+public final class DefinitionVersion {
+    private final int version;
+
+    private final StateMachineDefinition definition;
+
+    private final SCInstanceCodec codec;
+
+    /**
+     * 状态表，实例的{@link modula.executor.core.Status#getStateTable()}和它相同时绑定在这个版本上
+     */
+    private final EnterableState[] states;
+
+    /**
+     * 通道执行器，下标为通道序号，只在对应通道线程上创建和使用
+     */
+    private final ModulaExecutor[] executors;
+
+    private final AtomicLong instances = new AtomicLong();
+
+    /**
+     * 淘汰出缓存、但只能用本版本解码的实例数，它们的计数保留到再次加载
+     */
+    private final AtomicLong parked = new AtomicLong();
+
+    private volatile boolean retired;
+
+    DefinitionVersion(int version, StateMachineDefinition definition, SCInstanceCodec codec, int lanes) {
+        this.version = version;
+        this.definition = definition;
+        this.codec = codec;
+        this.states = definition.getModula().getStates();
+        this.executors = new ModulaExecutor[lanes];
+    }
+
+    /**
+     * 绑定一个实例
+     *
+     * @return 已卸载时返回false
+     */
+    boolean acquire() {
+        for (; ; ) {
+            long count = instances.get();
+            if (count < 0) {
+                return false;
+            }
+            if (instances.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 解除一个实例的绑定
+     *
+     * @return 是否因此卸载
+     */
+    boolean release() {
+        return instances.decrementAndGet() == 0 && retired && tryUnload();
+    }
+
+    /**
+     * 标记为退役
+     *
+     * @return 没有实例、因此卸载时返回true
+     */
+    boolean retire() {
+        retired = true;
+        return tryUnload();
+    }
+
+    void park() {
+        parked.incrementAndGet();
+    }
+
+    /**
+     * 取回一个淘汰时保留的计数
+     *
+     * @return 没有保留的计数时返回false
+     */
+    boolean unpark() {
+        for (; ; ) {
+            long count = parked.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (parked.compareAndSet(count, count - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean tryUnload() {
+        return instances.compareAndSet(0, -1);
+    }
+
+    boolean binds(SCInstance instance) {
+        return instance.getCurrentStatus().getStateTable() == states;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public StateMachineDefinition getDefinition() {
+        return definition;
+    }
+
+    public SCInstanceCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * @return 通道执行器，还没有创建时为null
+     */
+    public ModulaExecutor getExecutor(int lane) {
+        return executors[lane];
+    }
+
+    public void setExecutor(int lane, ModulaExecutor executor) {
+        executors[lane] = executor;
+    }
+
+    /**
+     * @return 绑定的内存实例数，已卸载时为-1
+     */
+    public long getInstanceCount() {
+        return instances.get();
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+
+    public boolean isUnloaded() {
+        return instances.get() < 0;
+    }
+}
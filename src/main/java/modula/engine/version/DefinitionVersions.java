@@ -0,0 +1,279 @@
+package modula.engine.version;
+
+import modula.engine.store.DefinitionShape;
+import modula.engine.store.InstanceSerializer;
+import modula.engine.store.SCInstanceCodec;
+import modula.executor.core.SCInstance;
+import modula.executor.statemachine.StateMachineDefinition;
+import modula.parser.model.EnterableState;
+import modula.parser.model.Modula;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * @description: 定义的所有已加载版本，新实例总是使用当前版本，已有实例按{@link ReloadPolicy}迁移或留在原版本
+ * <p>
+ * 迁移是惰性的：实例下次被访问时用原版本编码、再用当前版本按状态id解码，见{@link SCInstanceCodec#addShape(DefinitionShape)}，
+ * 不需要暂停或遍历所有实例。退役版本上的实例都迁移走或被淘汰出缓存后自动卸载，之后只保留它的{@link DefinitionShape}，
+ * 存储中的旧快照加载时直接解码到当前版本
+ * </p>
+ * <p>
+ * 同时作为实例存储和缓存的{@link InstanceSerializer}：编码时按实例绑定的版本，解码时绑定到当前版本或原版本并计数
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/19.
+ */
+public class DefinitionVersions implements InstanceSerializer {
+    private static final Logger logger = LoggerFactory.getLogger(DefinitionVersions.class);
+
+    private final int lanes;
+
+    private final ReloadPolicy policy;
+
+    private volatile DefinitionVersion current;
+
+    /**
+     * 已加载的版本，包括当前版本和还有实例的退役版本
+     */
+    private final List<DefinitionVersion> loaded = new CopyOnWriteArrayList<DefinitionVersion>();
+
+    /**
+     * 退役版本的形状，按定义指纹索引
+     */
+    private final Map<Integer, DefinitionShape> shapes = new LinkedHashMap<Integer, DefinitionShape>();
+
+    private int nextVersion = 1;
+
+    /**
+     * @param lanes  通道数
+     * @param policy 已有实例的处理方式
+     */
+    public DefinitionVersions(int lanes, ReloadPolicy policy) {
+        this.lanes = lanes;
+        this.policy = policy;
+    }
+
+    /**
+     * 安装新版本作为当前版本，原来的当前版本退役
+     */
+    public synchronized DefinitionVersion install(StateMachineDefinition definition) {
+        DefinitionVersion previous = current;
+        if (previous != null) {
+            DefinitionShape shape = previous.getCodec().shape();
+            shapes.put(shape.getDefinitionId(), shape);
+        }
+        SCInstanceCodec codec = new SCInstanceCodec(definition.getModula());
+        for (DefinitionShape shape : shapes.values()) {
+            codec.addShape(shape);
+        }
+        DefinitionVersion installed = new DefinitionVersion(nextVersion++, definition, codec, lanes);
+        loaded.add(installed);
+        current = installed;
+        if (previous != null && previous.retire()) {
+            unload(previous);
+        }
+        return installed;
+    }
+
+    /**
+     * @return 当前版本，没有安装过时为null
+     */
+    public DefinitionVersion current() {
+        return current;
+    }
+
+    /**
+     * 在当前版本上绑定一个新实例
+     */
+    public DefinitionVersion acquireCurrent() {
+        for (; ; ) {
+            DefinitionVersion version = current;
+            // 只有退役的版本才会卸载，失败说明刚好安装了新版本
+            if (version.acquire()) {
+                return version;
+            }
+        }
+    }
+
+    /**
+     * @return 实例绑定的版本，实例还没有启动时为null
+     */
+    public DefinitionVersion versionOf(SCInstance instance) {
+        for (DefinitionVersion version : loaded) {
+            if (version.binds(instance)) {
+                return version;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 确保实例绑定了版本。不是由本对象解码的实例（其他序列化方式或实例存储加载的）还没有绑定，绑定到当前版本并计数，
+     * 之后和其他实例一样在淘汰或释放时减一
+     *
+     * @return 实例绑定的版本
+     */
+    public DefinitionVersion bind(SCInstance instance) {
+        DefinitionVersion version = versionOf(instance);
+        if (version == null) {
+            version = acquireCurrent();
+            Modula modula = version.getDefinition().getModula();
+            instance.getCurrentStatus().setStateTable(modula.getStates(), modula.getFlatTable() != null);
+        }
+        return version;
+    }
+
+    /**
+     * 按策略把实例迁移到当前版本，原版本计数减一
+     *
+     * @return 迁移后的新实例，不需要或不能迁移时返回原实例
+     */
+    public SCInstance migrate(SCInstance instance) throws IOException {
+        DefinitionVersion from = versionOf(instance);
+        if (policy != ReloadPolicy.MIGRATE || from == null || from == current) {
+            return instance;
+        }
+        byte[] data = from.getCodec().serialize(instance);
+        DefinitionVersion to = acquireCurrent();
+        SCInstance migrated;
+        try {
+            migrated = to.getCodec().deserialize(data);
+        } catch (IOException e) {
+            release(to);
+            logger.debug("instance {} stays on definition version {}: {}", instance.getSessionId(),
+                    from.getVersion(), e.getMessage());
+            return instance;
+        }
+        release(from);
+        return migrated;
+    }
+
+    /**
+     * 实例被淘汰出缓存时调用。退役版本上不能迁移到当前版本的实例以后只能用原版本解码，保留计数，原版本不会卸载
+     */
+    public void evict(SCInstance instance) {
+        DefinitionVersion version = versionOf(instance);
+        if (version == null) {
+            return;
+        }
+        if (version != current && !mappable(instance)) {
+            version.park();
+            return;
+        }
+        release(version);
+    }
+
+    /**
+     * 实例离开内存时调用，解除和版本的绑定
+     */
+    public void release(SCInstance instance) {
+        DefinitionVersion version = versionOf(instance);
+        if (version != null) {
+            release(version);
+        }
+    }
+
+    @Override
+    public byte[] serialize(SCInstance instance) throws IOException {
+        DefinitionVersion version = versionOf(instance);
+        if (version == null) {
+            if (instance.getCurrentStatus().getStateTable() != null) {
+                throw new IOException("instance " + instance.getSessionId() + " is bound to an unloaded definition");
+            }
+            version = current;
+        }
+        return version.getCodec().serialize(instance);
+    }
+
+    /**
+     * 解码并绑定版本：{@link ReloadPolicy#PIN}且原版本还在时留在原版本，否则解码到当前版本，
+     * 当前版本中没有实例所在的状态时退回原版本
+     */
+    @Override
+    public SCInstance deserialize(byte[] data) throws IOException {
+        int definitionId = SCInstanceCodec.definitionIdOf(data);
+        if (policy == ReloadPolicy.PIN) {
+            SCInstance pinned = deserializePinned(definitionId, data);
+            if (pinned != null) {
+                return pinned;
+            }
+        }
+        DefinitionVersion version = acquireCurrent();
+        try {
+            return version.getCodec().deserialize(data);
+        } catch (IOException e) {
+            release(version);
+            SCInstance pinned = deserializePinned(definitionId, data);
+            if (pinned == null) {
+                throw e;
+            }
+            return pinned;
+        }
+    }
+
+    /**
+     * @return 所有已加载的版本
+     */
+    public List<DefinitionVersion> getLoaded() {
+        return loaded;
+    }
+
+    public ReloadPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 用退役但还没卸载的原版本解码
+     *
+     * @return 原版本已卸载时返回null
+     */
+    private SCInstance deserializePinned(int definitionId, byte[] data) throws IOException {
+        for (DefinitionVersion version : loaded) {
+            if (version != current && version.getCodec().getDefinitionId() == definitionId
+                    && (version.unpark() || version.acquire())) {
+                try {
+                    return version.getCodec().deserialize(data);
+                } catch (IOException e) {
+                    release(version);
+                    throw e;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 实例的活动状态在当前版本中是否都存在，并且按id映射后仍是合法配置
+     */
+    private boolean mappable(SCInstance instance) {
+        Map<String, ?> targets = current.getDefinition().getModula().getTargets();
+        Set<EnterableState> mapped = new HashSet<EnterableState>();
+        for (EnterableState es : instance.getCurrentStatus().getStates()) {
+            Object target = targets.get(es.getId());
+            if (!(target instanceof EnterableState)) {
+                return false;
+            }
+            mapped.add((EnterableState) target);
+        }
+        return SCInstanceCodec.isLegalConfiguration(mapped);
+    }
+
+    private void release(DefinitionVersion version) {
+        if (version.release()) {
+            unload(version);
+        }
+    }
+
+    private void unload(DefinitionVersion version) {
+        loaded.remove(version);
+        logger.info("definition version {} unloaded", version.getVersion());
+    }
+}
@@ -0,0 +1,17 @@
+package modula.engine.version;
+
+/**
+ * @description: 定义热更新后已有实例的处理方式
+ * @author: gubing.gb
+ * @date: 2017/4/19.
+ */
+public enum ReloadPolicy {
+    /**
+     * 实例下次处理事件时按状态id迁移到新版本，新版本中没有实例所在的状态时留在原版本
+     */
+    MIGRATE,
+    /**
+     * 实例留在原版本上，原版本上的实例都被淘汰出缓存、原版本卸载后，再加载的实例迁移到当前版本
+     */
+    PIN
+}
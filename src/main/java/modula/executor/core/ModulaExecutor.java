@@ -19,6 +19,7 @@ package modula.executor.core;
 import modula.executor.core.context.Context;
 import modula.executor.core.context.ModulaExecutionContext;
 import modula.executor.core.dispatcher.EventDispatcher;
+import modula.executor.core.dispatcher.EventSink;
 import modula.executor.core.event.TriggerEvent;
 import modula.executor.core.invoke.Invoker;
 import modula.executor.core.reporter.ErrorReporter;
@@ -99,6 +100,8 @@ public class ModulaExecutor implements ModulaIOProcessor {
      */
     public void setRootContext(final Context rootContext) {
         exctx.getScInstance().setRootContext(rootContext);
+        // re-parent the system context
+        exctx.bind(exctx.getScInstance());
     }
 
     /**
@@ -134,6 +137,17 @@ public class ModulaExecutor implements ModulaIOProcessor {
         exctx.setEventdispatcher(eventdispatcher);
     }
 
+    public EventSink getEventSink() {
+        return exctx.getEventSink();
+    }
+
+    /**
+     * 设置异步action和invoker完成事件的出口，多个实例共用执行器时必须设置
+     */
+    public void setEventSink(final EventSink eventSink) {
+        exctx.setEventSink(eventSink);
+    }
+
     public NotificationRegistry getNotificationRegistry() {
         return exctx.getNotificationRegistry();
     }
@@ -142,6 +156,13 @@ public class ModulaExecutor implements ModulaIOProcessor {
         exctx.getNotificationRegistry().addListener(observable, listener);
     }
 
+    /**
+     * 注册listener，只通知指定类型的事件，见{@link NotificationRegistry#ON_ENTRY}等
+     */
+    public void addListener(final Observable observable, final ModulaListener listener, final int kinds) {
+        exctx.getNotificationRegistry().addListener(observable, listener, kinds);
+    }
+
     public void removeListener(final Observable observable,
                                final ModulaListener listener) {
         exctx.getNotificationRegistry().removeListener(observable, listener);
@@ -201,6 +222,54 @@ public class ModulaExecutor implements ModulaIOProcessor {
         logState();
     }
 
+    /**
+     * 新建一个绑定本执行器状态机的实例
+     *
+     * @param sessionId 实例id
+     */
+    public SCInstance newInstance(String sessionId) {
+        return new SCInstance(sessionId);
+    }
+
+    /**
+     * 绑定实例并从头运行，同一执行器上的实例共享状态机、语义和监听器，调用方需保证单线程使用
+     */
+    public void go(SCInstance instance) throws ModelException {
+        exctx.bind(instance);
+        reset();
+        // invoker在运行期间发回的事件（如done.invoke）属于当前实例，解绑前处理完
+        drainEvents();
+    }
+
+    /**
+     * 绑定实例并依次触发事件，实例停止后剩余事件丢弃；处理期间invoker发回的事件接着处理
+     */
+    public void triggerEvents(SCInstance instance, TriggerEvent[] evts) throws ModelException {
+        exctx.bind(instance);
+        if (evts == null) {
+            return;
+        }
+        for (TriggerEvent evt : evts) {
+            if (!exctx.isRunning()) {
+                break;
+            }
+            if (evt != null) {
+                eventStep(evt);
+            }
+        }
+        drainEvents();
+    }
+
+    /**
+     * 处理绑定实例期间加入队列的事件，实例停止后剩余的丢弃，不留给下一个实例
+     */
+    private void drainEvents() throws ModelException {
+        if (!externalEventQueue.isEmpty()) {
+            triggerEvents();
+            externalEventQueue.clear();
+        }
+    }
+
     /**
      * 添加事件
      */
@@ -17,44 +17,48 @@
 package modula.executor.core;
 
 import modula.executor.core.context.Context;
-import modula.executor.core.context.ModulaSystemContext;
 import modula.executor.core.context.SimpleContext;
-import modula.executor.core.reporter.ErrorReporter;
-import modula.parser.model.*;
-import modula.parser.ModulaIOProcessor;
+import modula.executor.core.invoke.Invoker;
+import modula.parser.model.EnterableState;
+import modula.parser.model.History;
+import modula.parser.model.Invoke;
 
 import java.io.Serializable;
-import java.util.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * SCInstance 记账功能
+ * <p>
+ * 只保存单个流程实例自己的数据：活动状态、历史、数据context、运行中的invoker，
+ * 状态机模型、语义、监听器等由同一定义下的{@link ModulaExecutor}共享，执行时通过
+ * {@link ModulaExecutor#go(SCInstance)}/{@link ModulaExecutor#triggerEvents(SCInstance, modula.executor.core.event.TriggerEvent[])}绑定。
+ * 除活动状态外所有字段都按需创建，未使用数据和历史的实例只占几十字节
+ * </p>
  */
 public class SCInstance implements Serializable {
 
     /**
      * Serial version UID.
      */
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 5L;
 
     /**
-     * 没有设置状态机错误
+     * 实例id，作为_sessionid
      */
-    private static final String ERR_NO_STATE_MACHINE = "SCInstance: State machine not set";
+    private final String sessionId;
 
     /**
-     * 没有设置errorReporter错误
+     * 运行状态
      */
-    private static final String ERR_NO_ERROR_REPORTER = "SCInstance: ErrorReporter not set";
+    private boolean running;
 
     /**
-     * 状态机是否已经初始化
+     * 最后应用到本实例的事件日志序号，恢复时跳过已应用的事件
      */
-    private boolean initialized;
-
-    /**
-     * 状态机
-     */
-    private Modula stateMachine;
+    private long lastSequence;
 
     /**
      * 当前状态
@@ -62,123 +66,68 @@ public class SCInstance implements Serializable {
     private final Status currentStatus;
 
     /**
-     * The SCXML I/O Processor for the internal event queue
-     */
-    private transient ModulaIOProcessor internalIOProcessor;
-
-    /**
-     * The error reporter.
-     */
-    private transient ErrorReporter errorReporter = null;
-
-    /**
-     * EnterableState context map
+     * The map of last known configurations per History，按需创建
      */
-    private final Map<EnterableState, Context> contexts = new HashMap<EnterableState, Context>();
+    private Map<History, Set<EnterableState>> histories;
 
     /**
-     * The map of last known configurations per History.
+     * 根Context，按需创建
      */
-    private final Map<History, Set<EnterableState>> histories = new HashMap<History, Set<EnterableState>>();
+    private Context rootContext;
 
     /**
-     * 根Context
+     * 全局context，即实例的数据模型，所有状态共用，按需创建，父context为执行器的系统context
      */
-    private Context rootContext;
+    private Context globalContext;
 
     /**
-     * 系统context
+     * invokeId列表，按需创建
      */
-    private ModulaSystemContext systemContext;
+    private transient Map<Invoke, String> invokeIds;
 
     /**
-     * 全局context
+     * key: invokeId，按需创建
      */
-    private Context globalContext;
+    private transient Map<String, Invoker> invokers;
 
-    public SCInstance(final ModulaIOProcessor internalIOProcessor, /*final Evaluator evaluator,*/
-                         final ErrorReporter errorReporter) {
-        this.internalIOProcessor = internalIOProcessor;
-        this.errorReporter = errorReporter;
+    public SCInstance(final String sessionId) {
+        this.sessionId = sessionId;
         this.currentStatus = new Status();
     }
 
     /**
-     * 重新初始化状态机
+     * 重新初始化实例，清除所有状态与历史
      */
-    public void initialize() throws ModelException {
-        if (stateMachine == null) {
-            throw new ModelException(ERR_NO_STATE_MACHINE);
-        }
-        if (errorReporter == null) {
-            throw new ModelException(ERR_NO_ERROR_REPORTER);
-        }
-        systemContext = null;
+    public void initialize() {
         globalContext = null;
-        contexts.clear();
-        histories.clear();
+        histories = null;
         currentStatus.clear();
-
-        initialized = true;
     }
 
     /**
-     * 分离状态机，使能够序列化，分离errorReporte，eveluator等
+     * @return 实例id
      */
-    public void detach() {
-        this.errorReporter = null;
+    public String getSessionId() {
+        return sessionId;
     }
 
     /**
-     * Sets the I/O Processor for the internal event queue
-     *
-     * @param internalIOProcessor
+     * @return Returns true if this instance is running
      */
-    public void setInternalIOProcessor(ModulaIOProcessor internalIOProcessor) {
-        this.internalIOProcessor = internalIOProcessor;
+    public boolean isRunning() {
+        return running;
     }
 
-    /**
-     * Set or re-attach the error reporter
-     *
-     * @param errorReporter The error reporter for this state machine instance.
-     * @throws ModelException if an attempt is made to set a null value for the error reporter
-     */
-    public void setErrorReporter(ErrorReporter errorReporter) throws ModelException {
-        if (errorReporter == null) {
-            throw new ModelException(ERR_NO_ERROR_REPORTER);
-        }
-        this.errorReporter = errorReporter;
+    public void setRunning(boolean running) {
+        this.running = running;
     }
 
-    /**
-     * @return Return the state machine for this instance
-     */
-    public Modula getStateMachine() {
-        return stateMachine;
+    public long getLastSequence() {
+        return lastSequence;
     }
 
-    /**
-     * Sets the state machine for this instance.
-     * <p>
-     * If this state machine instance has been initialized before, it will be initialized again, destroying all existing
-     * state!
-     * </p>
-     *
-     * @param stateMachine The state machine for this instance
-     * @throws ModelException if an attempt is made to set a null value for the state machine
-     */
-    public void setStateMachine(Modula stateMachine) throws ModelException {
-        if (stateMachine == null) {
-            throw new ModelException(ERR_NO_STATE_MACHINE);
-        }
-        if (this.stateMachine != null && initialized) {
-            this.stateMachine = stateMachine;
-            // change of state machine after initialization: re-initialize
-            initialize();
-        } else {
-            this.stateMachine = stateMachine;
-        }
+    public void setLastSequence(long lastSequence) {
+        this.lastSequence = lastSequence;
     }
 
     /**
@@ -195,7 +144,7 @@ public class SCInstance implements Serializable {
      */
     public Context getRootContext() {
         if (rootContext == null) {
-            rootContext = new SimpleContext(rootContext);
+            rootContext = new SimpleContext();
         }
         return rootContext;
     }
@@ -207,95 +156,17 @@ public class SCInstance implements Serializable {
      */
     public void setRootContext(final Context context) {
         this.rootContext = context;
-        // force initialization of rootContext
-        getRootContext();
-        if (systemContext != null) {
-            // re-parent the system context
-            systemContext.setSystemContext(new SimpleContext(rootContext));
-        }
-    }
-
-    /**
-     * Get the unwrapped (modifiable) system context.
-     *
-     * @return The unwrapped system context.
-     */
-    public Context getSystemContext() {
-        if (systemContext == null) {
-            // force initialization of rootContext
-            getRootContext();
-            if (rootContext != null) {
-                systemContext = new ModulaSystemContext(new SimpleContext(rootContext));
-                systemContext.getContext().set(ModulaSystemContext.SESSIONID_KEY, UUID.randomUUID().toString());
-                String _name = stateMachine != null && stateMachine.getName() != null ? stateMachine.getName() : "";
-                systemContext.getContext().set(ModulaSystemContext.SCXML_NAME_KEY, _name);
-            }
-        }
-        return systemContext != null ? systemContext.getContext() : null;
     }
 
     /**
-     * @return Returns the global context, which is the top context <em>within</em> the state machine.
+     * @return 全局context，未创建时返回null
      */
     public Context getGlobalContext() {
-        if (globalContext == null) {
-            // force initialization of systemContext
-            getSystemContext();
-            if (systemContext != null) {
-                globalContext = new SimpleContext(systemContext);
-            }
-        }
         return globalContext;
     }
 
-    /**
-     * Get the context for an EnterableState or create one if not created before.
-     *
-     * @param state The EnterableState.
-     * @return The context.
-     */
-    public Context getContext(final EnterableState state) {
-        Context context = contexts.get(state);
-        if (context == null) {
-            EnterableState parent = state.getParent();
-            if (parent == null) {
-                // docroot
-                //TODO
-                context = new SimpleContext(getGlobalContext());
-            } else {
-                context = new SimpleContext(getContext(parent));
-            }
-            if (state instanceof TransitionalState) {
-
-            }
-            contexts.put(state, context);
-        }
-        return context;
-    }
-
-    /**
-     * Get the context for an EnterableState if available.
-     * <p>
-     * <p>Note: used for testing purposes only</p>
-     *
-     * @param state The EnterableState
-     * @return The context or null if not created yet.
-     */
-    Context lookupContext(final EnterableState state) {
-        return contexts.get(state);
-    }
-
-    /**
-     * Set the context for an EnterableState
-     * <p>
-     * <p>Note: used for testing purposes only</p>
-     *
-     * @param state   The EnterableState.
-     * @param context The context.
-     */
-    void setContext(final EnterableState state,
-                    final Context context) {
-        contexts.put(state, context);
+    public void setGlobalContext(Context globalContext) {
+        this.globalContext = globalContext;
     }
 
     /**
@@ -305,6 +176,9 @@ public class SCInstance implements Serializable {
      * @return Returns the lastConfiguration.
      */
     public Set<EnterableState> getLastConfiguration(final History history) {
+        if (histories == null) {
+            histories = new HashMap<History, Set<EnterableState>>(4);
+        }
         Set<EnterableState> lastConfiguration = histories.get(history);
         if (lastConfiguration == null) {
             lastConfiguration = new HashSet<EnterableState>();
@@ -333,22 +207,46 @@ public class SCInstance implements Serializable {
      * @return Whether we have a non-empty last configuration
      */
     public boolean isEmpty(final History history) {
-        Set<EnterableState> lastConfiguration = histories.get(history);
+        Set<EnterableState> lastConfiguration = histories != null ? histories.get(history) : null;
         return lastConfiguration == null || lastConfiguration.isEmpty();
     }
 
     /**
      * Resets the history state.
-     * <p>
-     * <p>Note: used for testing purposes only</p>
      *
      * @param history The history.
      */
     public void reset(final History history) {
-        Set<EnterableState> lastConfiguration = histories.get(history);
+        Set<EnterableState> lastConfiguration = histories != null ? histories.get(history) : null;
         if (lastConfiguration != null) {
             lastConfiguration.clear();
         }
     }
-}
 
+    /**
+     * @return 是否有运行中的invoker
+     */
+    public boolean hasInvokers() {
+        return invokeIds != null && !invokeIds.isEmpty();
+    }
+
+    /**
+     * @return Returns the map of current active Invokes and their invokeId
+     */
+    public Map<Invoke, String> getInvokeIds() {
+        if (invokeIds == null) {
+            invokeIds = new HashMap<Invoke, String>(4);
+        }
+        return invokeIds;
+    }
+
+    /**
+     * @return key: invokeId
+     */
+    public Map<String, Invoker> getInvokers() {
+        if (invokers == null) {
+            invokers = new HashMap<String, Invoker>(4);
+        }
+        return invokers;
+    }
+}
@@ -0,0 +1,113 @@
+package modula.executor.core;
+
+/**
+ * @description: 状态位图工具，位下标为{@link modula.parser.model.EnterableState#getIndex()}
+ * 状态下标按文档顺序分配，按位从低到高遍历即文档顺序
+ * @author: gubing.gb
+ * @date: 2017/4/8.
+ */
+public final class StateBits {
+    private StateBits() {
+    }
+
+    /**
+     * @return 容纳n个状态需要的long个数
+     */
+    public static int words(int n) {
+        return (n + 63) >>> 6;
+    }
+
+    public static boolean get(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public static void set(long[] bits, int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    public static void clear(long[] bits, int index) {
+        bits[index >>> 6] &= ~(1L << index);
+    }
+
+    /**
+     * @return 从from开始（含）的下一个置位下标，没有返回-1
+     */
+    public static int next(long[] bits, int from) {
+        int u = from >>> 6;
+        if (u >= bits.length) {
+            return -1;
+        }
+        long word = bits[u] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (u << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++u == bits.length) {
+                return -1;
+            }
+            word = bits[u];
+        }
+    }
+
+    /**
+     * @return 从from开始（含）往前的上一个置位下标，没有返回-1
+     */
+    public static int previous(long[] bits, int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int u = from >>> 6;
+        if (u >= bits.length) {
+            u = bits.length - 1;
+            from = (bits.length << 6) - 1;
+        }
+        long word = bits[u] & (-1L >>> -(from + 1));
+        while (true) {
+            if (word != 0) {
+                return (u << 6) + 63 - Long.numberOfLeadingZeros(word);
+            }
+            if (u-- == 0) {
+                return -1;
+            }
+            word = bits[u];
+        }
+    }
+
+    public static int cardinality(long[] bits) {
+        int n = 0;
+        for (long word : bits) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+
+    public static boolean isEmpty(long[] bits) {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * target |= mask
+     */
+    public static void or(long[] target, long[] mask) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] |= mask[i];
+        }
+    }
+
+    /**
+     * @return a与b是否有交集
+     */
+    public static boolean intersects(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if ((a[i] & b[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
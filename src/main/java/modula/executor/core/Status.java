@@ -16,29 +16,106 @@
  */
 package modula.executor.core;
 
-import modula.parser.model.Final;
+import modula.executor.core.semantics.StateSet;
 import modula.parser.model.EnterableState;
+import modula.parser.model.Final;
 
 import java.io.Serializable;
+import java.util.AbstractSet;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 
 /**
  * 状态机当前状态包装器
- *
+ * <p>
+ * 活动原子状态保存为位图，位下标为{@link EnterableState#getIndex()}，完整配置通过各状态预先计算好的祖先位图
+ * 按位或得到。位图可以用{@link #snapshot()}/{@link #restore(long[])}保存恢复，状态表由执行器在绑定实例时设置
+ * </p>
+ * <p>
+ * 扁平状态机（见{@link modula.parser.model.FlatTable}）任一时刻只有一个活动状态，只用一个int保存当前状态下标
+ * </p>
  */
 public class Status implements Serializable {
 
     /**
      * Serial version UID.
      */
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    private static final long[] EMPTY = new long[0];
+
+    /**
+     * 活动原子状态位图
+     */
+    private long[] bits = EMPTY;
+
+    /**
+     * 扁平状态机只保存当前状态下标
+     */
+    private boolean flat;
+
+    /**
+     * 扁平状态机的当前状态下标，没有时为-1
+     */
+    private int current = -1;
+
+    /**
+     * 状态表，下标为{@link EnterableState#getIndex()}
+     */
+    private transient EnterableState[] table;
+
+    /**
+     * 设置状态表，执行器绑定实例时调用
+     *
+     * @param table 状态表，见{@link modula.parser.model.Modula#getStates()}
+     */
+    public void setStateTable(final EnterableState[] table) {
+        setStateTable(table, false);
+    }
+
+    /**
+     * 设置状态表，执行器绑定实例时调用
+     *
+     * @param table 状态表，见{@link modula.parser.model.Modula#getStates()}
+     * @param flat  是否扁平状态机，是的时候只用一个int保存当前状态
+     */
+    public void setStateTable(final EnterableState[] table, final boolean flat) {
+        this.table = table;
+        int words = StateBits.words(table.length);
+        if (bits.length < words) {
+            long[] resized = new long[words];
+            System.arraycopy(bits, 0, resized, 0, bits.length);
+            bits = resized;
+        }
+        if (flat != this.flat) {
+            // 切换保存方式时转换已有状态
+            if (flat) {
+                current = StateBits.next(bits, 0);
+                clearBits();
+            } else if (current >= 0) {
+                StateBits.set(bits, current);
+                current = -1;
+            }
+            this.flat = flat;
+        }
+    }
+
+    /**
+     * @return 绑定的状态表，实例还没有绑定到执行器时为null
+     */
+    public EnterableState[] getStateTable() {
+        return table;
+    }
 
     /**
-     * 活动状态
+     * @return 扁平状态机的当前状态下标，不是扁平状态机或没有活动状态时返回-1
      */
-    private final Set<EnterableState> states = new HashSet<EnterableState>();
+    public int getCurrentIndex() {
+        return flat ? current : -1;
+    }
 
     /**
      * @return 状态机是否终止或者达到Final状态
@@ -51,10 +128,11 @@ public class Status implements Serializable {
      * @return Returns the single top level final state in which the state machine terminated, or null otherwise
      */
     public Final getFinalState() {
-        if (states.size() == 1) {
-            EnterableState es = states.iterator().next();
+        int index = next(0);
+        if (index >= 0 && next(index + 1) < 0) {
+            EnterableState es = table[index];
             if (es instanceof Final && es.getParent() == null) {
-                return (Final)es;
+                return (Final) es;
             }
         }
         return null;
@@ -66,7 +144,42 @@ public class Status implements Serializable {
      * @return Returns the states configuration - simple (leaf) states only.
      */
     public Set<EnterableState> getStates() {
-        return states;
+        return new StatesView();
+    }
+
+    /**
+     * @return 是否有活动状态
+     */
+    public boolean isEmpty() {
+        return flat ? current < 0 : StateBits.isEmpty(bits);
+    }
+
+    /**
+     * @return 原子状态是否活动
+     */
+    public boolean contains(final EnterableState state) {
+        int index = state.getIndex();
+        return index < table.length && table[index] == state && (flat ? current == index : StateBits.get(bits, index));
+    }
+
+    /**
+     * 加入活动原子状态
+     */
+    public void add(final EnterableState state) {
+        if (flat) {
+            current = state.getIndex();
+        } else {
+            StateBits.set(bits, state.getIndex());
+        }
+    }
+
+    /**
+     * 移除活动原子状态
+     */
+    public void remove(final EnterableState state) {
+        if (contains(state)) {
+            unset(state.getIndex());
+        }
     }
 
     /**
@@ -76,21 +189,196 @@ public class Status implements Serializable {
      *         complex ancestors up to the root.
      */
     public Set<EnterableState> getAllStates() {
-        Set<EnterableState> allStates = new HashSet<EnterableState>(states.size() * 2);
-        for (EnterableState es : states) {
-            EnterableState state = es;
+        Set<EnterableState> allStates = new HashSet<EnterableState>();
+        getAllStates(allStates);
+        return allStates;
+    }
+
+    /**
+     * 把完整配置写入给定集合，集合先清空，用于复用集合避免分配
+     *
+     * @param allStates 目标集合
+     */
+    public void getAllStates(final Set<EnterableState> allStates) {
+        allStates.clear();
+        if (allStates instanceof StateSet) {
+            StateSet stateSet = (StateSet) allStates;
+            for (int i = next(0); i >= 0; i = next(i + 1)) {
+                stateSet.addAll(table[i].getAncestorMask());
+            }
+            return;
+        }
+        for (int i = next(0); i >= 0; i = next(i + 1)) {
+            EnterableState state = table[i];
             while (state != null && allStates.add(state)) {
                 state = state.getParent();
             }
         }
-        return allStates;
+    }
+
+    /**
+     * 把state的活动后代原子状态写入给定集合，用于计算deep history
+     *
+     * @param state  祖先状态
+     * @param result 目标集合
+     */
+    public void getActiveDescendants(final EnterableState state, final Set<EnterableState> result) {
+        long[] mask = state.getDescendantMask();
+        if (flat) {
+            if (current >= 0 && StateBits.get(mask, current)) {
+                result.add(table[current]);
+            }
+            return;
+        }
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w] & mask[w];
+            while (word != 0) {
+                result.add(table[(w << 6) + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * @return 活动原子状态位图的拷贝
+     */
+    public long[] snapshot() {
+        long[] snapshot = bits.clone();
+        if (flat && current >= 0) {
+            StateBits.set(snapshot, current);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 从{@link #snapshot()}恢复活动原子状态
+     */
+    public void restore(final long[] snapshot) {
+        if (flat) {
+            current = StateBits.next(snapshot, 0);
+            return;
+        }
+        if (snapshot.length > bits.length) {
+            bits = snapshot.clone();
+            return;
+        }
+        System.arraycopy(snapshot, 0, bits, 0, snapshot.length);
+        for (int i = snapshot.length; i < bits.length; i++) {
+            bits[i] = 0L;
+        }
     }
 
     /**
      * Clears the status
      */
     public void clear() {
-        states.clear();
+        current = -1;
+        clearBits();
     }
-}
 
+    private void clearBits() {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = 0L;
+        }
+    }
+
+    /**
+     * 下标不小于from的第一个活动原子状态，没有时返回-1
+     */
+    private int next(final int from) {
+        if (flat) {
+            return current >= from ? current : -1;
+        }
+        return StateBits.next(bits, from);
+    }
+
+    private void unset(final int index) {
+        if (flat) {
+            current = -1;
+        } else {
+            StateBits.clear(bits, index);
+        }
+    }
+
+    private int cardinality() {
+        if (flat) {
+            return current >= 0 ? 1 : 0;
+        }
+        return StateBits.cardinality(bits);
+    }
+
+    /**
+     * 活动原子状态的集合视图
+     */
+    private final class StatesView extends AbstractSet<EnterableState> {
+        @Override
+        public boolean add(EnterableState state) {
+            if (Status.this.contains(state)) {
+                return false;
+            }
+            Status.this.add(state);
+            return true;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof EnterableState) || !Status.this.contains((EnterableState) o)) {
+                return false;
+            }
+            Status.this.remove((EnterableState) o);
+            return true;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof EnterableState && Status.this.contains((EnterableState) o);
+        }
+
+        @Override
+        public int size() {
+            return cardinality();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return Status.this.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            Status.this.clear();
+        }
+
+        @Override
+        public Iterator<EnterableState> iterator() {
+            return new Iterator<EnterableState>() {
+                private int nextIndex = Status.this.next(0);
+                private int lastIndex = -1;
+
+                @Override
+                public boolean hasNext() {
+                    return nextIndex >= 0;
+                }
+
+                @Override
+                public EnterableState next() {
+                    if (nextIndex < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    lastIndex = nextIndex;
+                    nextIndex = Status.this.next(lastIndex + 1);
+                    return table[lastIndex];
+                }
+
+                @Override
+                public void remove() {
+                    if (lastIndex < 0) {
+                        throw new IllegalStateException();
+                    }
+                    unset(lastIndex);
+                    lastIndex = -1;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package modula.executor.core.action;
+
+import modula.executor.core.context.ActionExecutionContext;
+import modula.executor.core.event.TriggerEvent;
+import modula.parser.ModulaIOProcessor;
+import modula.parser.model.Action;
+import modula.parser.model.ModelException;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+/**
+ * @description: 异步action，发起调用后立即返回，不占用执行线程，实例停在当前状态；
+ * 调用完成时结果作为done事件（payload为结果）、失败时作为error事件（payload为异常）投递回实例
+ * <p>
+ * done和error可以在文档中用同名属性设置，例如&lt;gb:pay done="paid" error="payFailed"/&gt;，
+ * 默认分别为done.action.加id属性和error.execution
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/16.
+ */
+public abstract class AsyncAction extends Action {
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    private static final String ERROR_EXECUTION = "error.execution";
+
+    private String id;
+
+    private String done;
+
+    private String error;
+
+    /**
+     * 发起异步调用，不能阻塞
+     *
+     * @return 调用结果，返回null表示没有发起调用，不投递任何事件
+     */
+    protected abstract CompletionStage<?> executeAsync(ActionExecutionContext exctx) throws ModelException;
+
+    @Override
+    public final void execute(ActionExecutionContext exctx) throws ModelException {
+        final ModulaIOProcessor sink = exctx.newAsyncIOProcessor();
+        CompletionStage<?> stage;
+        try {
+            stage = executeAsync(exctx);
+        } catch (RuntimeException e) {
+            sink.addEvent(new TriggerEvent(getError(), TriggerEvent.ERROR_EVENT, e));
+            return;
+        }
+        if (stage == null) {
+            return;
+        }
+        stage.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable cause) {
+                if (cause == null) {
+                    sink.addEvent(new TriggerEvent(getDone(), TriggerEvent.SIGNAL_EVENT, result));
+                } else {
+                    sink.addEvent(new TriggerEvent(getError(), TriggerEvent.ERROR_EVENT, cause));
+                }
+            }
+        });
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getDone() {
+        return done != null ? done : "done.action." + id;
+    }
+
+    public void setDone(String done) {
+        this.done = done;
+    }
+
+    public String getError() {
+        return error != null ? error : ERROR_EXECUTION;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -34,14 +34,14 @@ public class ActionExecutionContext {
      * @return Returns the global context
      */
     public Context getGlobalContext() {
-        return exctx.getScInstance().getGlobalContext();
+        return exctx.getGlobalContext();
     }
 
     /**
      * @return Returns the context for an EnterableState
      */
     public Context getContext(EnterableState state) {
-        return exctx.getScInstance().getContext(state);
+        return exctx.getContext(state);
     }
 
     /** TODO
@@ -72,6 +72,13 @@ public class ActionExecutionContext {
         return exctx;
     }
 
+    /**
+     * @return 绑定到当前实例的IOProcessor，异步操作完成时可在任意线程上投递结果事件
+     */
+    public ModulaIOProcessor newAsyncIOProcessor() {
+        return exctx.newAsyncIOProcessor();
+    }
+
     /**
      * @return Returns the SCXML Execution Logger for the application
      */
@@ -1,18 +1,24 @@
 package modula.executor.core.context;
 
+import modula.executor.core.ModulaExecutor;
 import modula.executor.core.SCInstance;
 import modula.executor.core.reporter.ErrorReporter;
 import modula.executor.core.dispatcher.EventDispatcher;
+import modula.executor.core.dispatcher.EventSink;
 import modula.executor.core.event.TriggerEvent;
 import modula.executor.core.invoke.Invoker;
 import modula.listener.NotificationRegistry;
+import modula.parser.model.EnterableState;
 import modula.parser.model.Invoke;
 import modula.parser.model.ModelException;
 import modula.executor.core.dispatcher.SimpleDispatcher;
 import modula.executor.core.reporter.SimpleErrorReporter;
 import modula.executor.core.invoke.InvokerException;
+import modula.executor.core.invoke.ModulaInvoker;
+import modula.executor.core.semantics.StepScratch;
 import modula.parser.model.Modula;
 import modula.parser.ModulaIOProcessor;
+import modula.parser.io.ModulaDefinitionCache;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -23,6 +29,8 @@ import java.util.*;
  * ModulaExecutionContext提供Modula状态机执行期间需要的服务和数据
  */
 public class ModulaExecutionContext implements ModulaIOProcessor {
+    private static final String ERR_NO_STATE_MACHINE = "ModulaExecutionContext: State machine not set";
+
     private Log appLog = LogFactory.getLog(ModulaExecutionContext.class);
 
     /**
@@ -31,10 +39,25 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
     private final ActionExecutionContext actionExecutionContext;
 
     /**
-     * The SCInstance.
+     * 当前绑定的SCInstance
      */
     private SCInstance scInstance;
 
+    /**
+     * 状态机，同一执行器上的实例共享
+     */
+    private Modula stateMachine;
+
+    /**
+     * 系统context，执行器内共享，父context为当前绑定实例的根context
+     */
+    private ModulaSystemContext systemContext;
+
+    /**
+     * 单步计算的临时结构，按需创建
+     */
+    private StepScratch stepScratch;
+
     /**
      * 外部IOProcessor，用于invoker回调
      */
@@ -45,6 +68,11 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      */
     private EventDispatcher eventdispatcher;
 
+    /**
+     * 异步完成事件的出口，为空时回到externalIOProcessor
+     */
+    private EventSink eventSink;
+
     /**
      * errorReporter
      */
@@ -66,19 +94,9 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
     private final Map<String, Class<? extends Invoker>> invokerClasses = new HashMap<String, Class<? extends Invoker>>();
 
     /**
-     * invokeId列表
-     */
-    private final Map<Invoke, String> invokeIds = new HashMap<Invoke, String>();
-
-    /**
-     * key: invokeId
+     * 内置invoker的子执行器，按子状态机定义共享，按需创建
      */
-    private final Map<String, Invoker> invokers = new HashMap<String, Invoker>();
-
-    /**
-     * 运行状态
-     */
-    private boolean running;
+    private Map<Modula, ModulaExecutor> childExecutors;
 
     /**
      * Constructor
@@ -96,7 +114,7 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
         this.errorReporter = errorReporter != null ? errorReporter : new SimpleErrorReporter();
         this.notificationRegistry = new NotificationRegistry();
 
-        this.scInstance = new SCInstance(this, /*this.evaluator,*/ this.errorReporter);
+        this.scInstance = new SCInstance(UUID.randomUUID().toString());
         this.actionExecutionContext = new ActionExecutionContext(this);
     }
 
@@ -119,29 +137,33 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      * @return Returns true if this state machine is running
      */
     public boolean isRunning() {
-        return running;
+        return scInstance.isRunning();
     }
 
     /**
      * Stop a running state machine
      */
     public void stopRunning() {
-        this.running = false;
+        scInstance.setRunning(false);
     }
 
     /**
      * 清空Invoker, 清空内部实践队列，重启状态机实例
      */
     public void initialize() throws ModelException {
-        running = false;
-        if (!invokeIds.isEmpty()) {
-            for (Invoke invoke : new ArrayList<Invoke>(invokeIds.keySet())) {
+        if (stateMachine == null) {
+            throw new ModelException(ERR_NO_STATE_MACHINE);
+        }
+        scInstance.setRunning(false);
+        if (scInstance.hasInvokers()) {
+            for (Invoke invoke : new ArrayList<Invoke>(scInstance.getInvokeIds().keySet())) {
                 cancelInvoker(invoke);
             }
         }
         internalEventQueue.clear();
         scInstance.initialize();
-        running = true;
+        scInstance.getCurrentStatus().setStateTable(stateMachine.getStates(), stateMachine.getFlatTable() != null);
+        scInstance.setRunning(true);
     }
 
     /**
@@ -155,7 +177,7 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      * @return Returns the state machine
      */
     public Modula getStateMachine() {
-        return scInstance.getStateMachine();
+        return stateMachine;
     }
 
     /**
@@ -166,7 +188,17 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      * @throws ModelException if attempting to set a null value or the state machine instance failed to re-initialize
      */
     public void setStateMachine(Modula stateMachine) throws ModelException {
-        scInstance.setStateMachine(stateMachine);
+        if (stateMachine == null) {
+            throw new ModelException(ERR_NO_STATE_MACHINE);
+        }
+        boolean replace = this.stateMachine != null && scInstance.isRunning();
+        this.stateMachine = stateMachine;
+        systemContext = null;
+        stepScratch = null;
+        scInstance.getCurrentStatus().setStateTable(stateMachine.getStates(), stateMachine.getFlatTable() != null);
+        if (replace) {
+            initialize();
+        }
     }
 
     /**
@@ -176,6 +208,135 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
         return scInstance;
     }
 
+    /**
+     * 绑定实例，之后的执行都作用在该实例上，内部事件队列只在单次执行内有效
+     *
+     * @param instance 实例
+     */
+    public void bind(SCInstance instance) {
+        if (instance == null) {
+            throw new IllegalArgumentException("SCInstance is null");
+        }
+        if (scInstance != instance) {
+            scInstance = instance;
+            internalEventQueue.clear();
+            if (stateMachine != null) {
+                scInstance.getCurrentStatus().setStateTable(stateMachine.getStates(), stateMachine.getFlatTable() != null);
+            }
+        }
+        if (systemContext != null) {
+            bindSystemContext();
+        }
+        if (instance.hasInvokers()) {
+            bindInvokers();
+        }
+    }
+
+    /**
+     * 从快照恢复的子状态机invoker关联到本执行器的子执行器
+     */
+    private void bindInvokers() {
+        Iterator<Map.Entry<Invoke, String>> it = scInstance.getInvokeIds().entrySet().iterator();
+        while (it.hasNext()) {
+            String invokeId = it.next().getValue();
+            Invoker invoker = scInstance.getInvokers().get(invokeId);
+            if (invoker instanceof ModulaInvoker && !((ModulaInvoker) invoker).isBound()) {
+                ModulaInvoker restored = (ModulaInvoker) invoker;
+                try {
+                    restored.bind(childExecutorOf(restored.getDefinition()), getExternalIOProcessor());
+                } catch (ModelException e) {
+                    appLog.error("can not restore invoke " + invokeId + ": " + e.getMessage(), e);
+                    scInstance.getInvokers().remove(invokeId);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the unwrapped (modifiable) system context.
+     *
+     * @return The unwrapped system context.
+     */
+    public Context getSystemContext() {
+        return getProtectedSystemContext().getContext();
+    }
+
+    /**
+     * 设置当前事件，_event在第一次读取时才创建
+     *
+     * @param event     当前事件
+     * @param eventType 事件类型，见{@link modula.executor.core.semantics.EventVariable}
+     */
+    public void setCurrentEvent(TriggerEvent event, String eventType) {
+        getProtectedSystemContext().setEvent(event, eventType);
+    }
+
+    /**
+     * @return 当前事件名
+     */
+    public String getCurrentEventName() {
+        return systemContext != null ? systemContext.getEventName() : null;
+    }
+
+    /**
+     * @return 单步计算的临时结构
+     */
+    public StepScratch getStepScratch() {
+        if (stepScratch == null) {
+            stepScratch = new StepScratch(stateMachine);
+        }
+        return stepScratch;
+    }
+
+    private ModulaSystemContext getProtectedSystemContext() {
+        if (systemContext == null) {
+            systemContext = new ModulaSystemContext(new SimpleContext());
+            String _name = stateMachine != null && stateMachine.getName() != null ? stateMachine.getName() : "";
+            systemContext.getContext().set(ModulaSystemContext.SCXML_NAME_KEY, _name);
+            bindSystemContext();
+        }
+        return systemContext;
+    }
+
+    /**
+     * @return Returns the global context, which is the top context <em>within</em> the state machine.
+     */
+    public Context getGlobalContext() {
+        Context globalContext = scInstance.getGlobalContext();
+        if (globalContext == null) {
+            globalContext = new SlotContext(stateMachine != null ? stateMachine.getSlotLayout() : null,
+                    getProtectedSystemContext());
+            scInstance.setGlobalContext(globalContext);
+        }
+        return globalContext;
+    }
+
+    /**
+     * 获取状态的context，所有状态共用实例的数据模型，即{@link #getGlobalContext()}
+     *
+     * @param state The EnterableState.
+     * @return The context.
+     */
+    public Context getContext(final EnterableState state) {
+        return getGlobalContext();
+    }
+
+    /**
+     * 系统context指向当前实例，实例的全局context可能是在其他执行器上创建的，需要重新挂到本执行器
+     */
+    private void bindSystemContext() {
+        // 上一个实例的事件不带到当前实例
+        systemContext.setEvent(null, null);
+        SimpleContext context = (SimpleContext) systemContext.getContext();
+        context.setParent(scInstance.getRootContext());
+        context.setLocal(ModulaSystemContext.SESSIONID_KEY, scInstance.getSessionId());
+        Context globalContext = scInstance.getGlobalContext();
+        if (globalContext instanceof SlotContext && globalContext.getParent() != systemContext) {
+            ((SlotContext) globalContext).setParent(systemContext);
+        }
+    }
+
     /**
      * @return Returns The evaluator.
      */
@@ -212,12 +373,6 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      */
     public void setErrorReporter(ErrorReporter errorReporter) {
         this.errorReporter = errorReporter != null ? errorReporter : new SimpleErrorReporter();
-        try {
-            scInstance.setErrorReporter(errorReporter);
-        } catch (ModelException me) {
-            // won't happen
-            return;
-        }
     }
 
     /**
@@ -236,6 +391,32 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
         this.eventdispatcher = eventdispatcher != null ? eventdispatcher : new SimpleDispatcher();
     }
 
+    public EventSink getEventSink() {
+        return eventSink;
+    }
+
+    public void setEventSink(EventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    /**
+     * 创建绑定到当前实例的IOProcessor，供异步action和invoker在完成时从任意线程投递事件，
+     * 设置了{@link EventSink}时按实例id投递，否则回到执行器的外部事件队列
+     */
+    public ModulaIOProcessor newAsyncIOProcessor() {
+        final EventSink sink = eventSink;
+        if (sink == null) {
+            return externalIOProcessor;
+        }
+        final String sessionId = scInstance.getSessionId();
+        return new ModulaIOProcessor() {
+            @Override
+            public void addEvent(TriggerEvent event) {
+                sink.post(sessionId, event);
+            }
+        };
+    }
+
     /**
      * @return Returns the notification registry
      */
@@ -253,8 +434,11 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      */
     public SCInstance detachInstance() {
         SCInstance instance = scInstance;
-        scInstance.detach();
-        scInstance = null;
+        scInstance = new SCInstance(UUID.randomUUID().toString());
+        internalEventQueue.clear();
+        if (systemContext != null) {
+            bindSystemContext();
+        }
         return instance;
     }
 
@@ -267,20 +451,7 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      * @param instance An previously detached SCInstance
      */
     public void attachInstance(SCInstance instance) {
-        if (scInstance != null) {
-            scInstance.detach();
-        }
-        scInstance = instance;
-        if (scInstance != null) {
-            scInstance.detach();
-            try {
-                //scInstance.setEvaluator(evaluator);
-                scInstance.setErrorReporter(errorReporter);
-            } catch (ModelException me) {
-                // should not happen
-                return;
-            }
-        }
+        bind(instance);
     }
 
     /**
@@ -325,6 +496,44 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
         }
     }
 
+    /**
+     * 为invoke创建{@link Invoker}，内置类型（且没有为该类型注册invoker类时）直接创建{@link ModulaInvoker}，
+     * 运行在按定义共享的子执行器上，不反射实例化
+     *
+     * @param invoke invoke
+     * @param source 解析后的src
+     */
+    public Invoker newInvoker(final Invoke invoke, final String source) throws InvokerException {
+        if (!invoke.isBuiltinType() || invokerClasses.containsKey(invoke.getType())) {
+            return newInvoker(invoke.getType());
+        }
+        Modula definition = invoke.getDefinition();
+        try {
+            if (definition == null) {
+                definition = ModulaDefinitionCache.load(source);
+            }
+            return new ModulaInvoker(childExecutorOf(definition));
+        } catch (Exception e) {
+            throw new InvokerException("can not invoke " + source + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return 子状态机定义的共享执行器，不存在则创建
+     */
+    private ModulaExecutor childExecutorOf(Modula definition) throws ModelException {
+        if (childExecutors == null) {
+            childExecutors = new IdentityHashMap<Modula, ModulaExecutor>(4);
+        }
+        ModulaExecutor executor = childExecutors.get(definition);
+        if (executor == null) {
+            executor = new ModulaExecutor(eventdispatcher, errorReporter);
+            executor.setStateMachine(definition);
+            childExecutors.put(definition, executor);
+        }
+        return executor;
+    }
+
     /**
      * Get the {@link Invoker} for this {@link Invoke}.
      * May return <code>null</code>. A non-null {@link Invoker} will be
@@ -335,7 +544,10 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      * @return The Invoker.
      */
     public Invoker getInvoker(final Invoke invoke) {
-        return invokers.get(invokeIds.get(invoke));
+        if (!scInstance.hasInvokers()) {
+            return null;
+        }
+        return scInstance.getInvokers().get(scInstance.getInvokeIds().get(invoke));
     }
 
     /**
@@ -350,8 +562,8 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
         if (invokeId == null) {
             invokeId = UUID.randomUUID().toString();
         }
-        invokeIds.put(invoke, invokeId);
-        invokers.put(invokeId, invoker);
+        scInstance.getInvokeIds().put(invoke, invokeId);
+        scInstance.getInvokers().put(invokeId, invoker);
         return invokeId;
     }
 
@@ -361,14 +573,16 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      * @param invoke The Invoke for the Invoker to remove
      */
     public void removeInvoker(final Invoke invoke) {
-        invokers.remove(invokeIds.remove(invoke));
+        if (scInstance.hasInvokers()) {
+            scInstance.getInvokers().remove(scInstance.getInvokeIds().remove(invoke));
+        }
     }
 
     /**
      * @return Returns the map of current active Invokes and their invokeId
      */
     public Map<Invoke, String> getInvokeIds() {
-        return invokeIds;
+        return scInstance.hasInvokers() ? scInstance.getInvokeIds() : Collections.<Invoke, String>emptyMap();
     }
 
 
@@ -378,10 +592,10 @@ public class ModulaExecutionContext implements ModulaIOProcessor {
      * @param invoke The Invoke for the Invoker to cancel
      */
     public void cancelInvoker(Invoke invoke) {
-        String invokeId = invokeIds.get(invoke);
+        String invokeId = scInstance.hasInvokers() ? scInstance.getInvokeIds().get(invoke) : null;
         if (invokeId != null) {
             try {
-                invokers.get(invokeId).cancel();
+                scInstance.getInvokers().get(invokeId).cancel();
             } catch (InvokerException ie) {
                 TriggerEvent te = new TriggerEvent("failed.invoke.cancel." + invokeId, TriggerEvent.ERROR_EVENT);
                 addEvent(te);
@@ -1,5 +1,8 @@
 package modula.executor.core.context;
 
+import modula.executor.core.event.TriggerEvent;
+import modula.executor.core.semantics.EventVariable;
+
 import java.io.Serializable;
 import java.util.*;
 
@@ -39,6 +42,15 @@ public class ModulaSystemContext implements Context, Serializable {
 
     private Context systemContext;
 
+    /**
+     * 当前事件，_event在第一次读取时才创建
+     */
+    private transient TriggerEvent event;
+
+    private transient String eventType;
+
+    private transient boolean eventPending;
+
     /**
      * Initialize or replace systemContext
      *
@@ -78,21 +90,25 @@ public class ModulaSystemContext implements Context, Serializable {
 
     @Override
     public Object get(final String name) {
+        flushEvent(name);
         return systemContext.get(name);
     }
 
     @Override
     public boolean has(final String name) {
+        flushEvent(name);
         return systemContext.has(name);
     }
 
     @Override
     public boolean hasLocal(final String name) {
+        flushEvent(name);
         return systemContext.hasLocal(name);
     }
 
     @Override
     public Map<String, Object> getVars() {
+        flushEvent();
         return protectedVars;
     }
 
@@ -110,6 +126,55 @@ public class ModulaSystemContext implements Context, Serializable {
      * @return Returns the wrapped (modifiable) system context
      */
     public Context getContext() {
+        flushEvent();
         return systemContext;
     }
+
+    /**
+     * 设置当前事件，不立即创建{@link EventVariable}
+     *
+     * @param event     当前事件，可为null
+     * @param eventType 事件类型
+     */
+    public void setEvent(final TriggerEvent event, final String eventType) {
+        this.event = event;
+        this.eventType = eventType;
+        this.eventPending = true;
+    }
+
+    /**
+     * @return 当前事件名，不会创建_event
+     */
+    public String getEventName() {
+        if (eventPending) {
+            return event != null ? event.getName() : null;
+        }
+        EventVariable eventVar = (EventVariable) systemContext.getVars().get(EVENT_KEY);
+        return eventVar != null ? eventVar.getName() : null;
+    }
+
+    /**
+     * 只有读取_event时才创建，cond读取其他变量沿context链经过这里时不分配
+     */
+    private void flushEvent(final String name) {
+        if (EVENT_KEY.equals(name)) {
+            flushEvent();
+        }
+    }
+
+    /**
+     * 把待创建的_event写入系统变量
+     */
+    private void flushEvent() {
+        if (eventPending) {
+            eventPending = false;
+            EventVariable eventVar = null;
+            if (event != null) {
+                // TODO: determine sendid, origin, originType and invokeid based on context later.
+                eventVar = new EventVariable(event.getName(), eventType, null, null, null, null, event.getPayload());
+            }
+            event = null;
+            systemContext.setLocal(EVENT_KEY, eventVar);
+        }
+    }
 }
@@ -141,6 +141,15 @@ public class SimpleContext implements Context, Serializable {
         return parent;
     }
 
+    /**
+     * 重新设置父Context，共享的系统context绑定到不同实例时使用
+     *
+     * @param parent The parent Context
+     */
+    public void setParent(final Context parent) {
+        this.parent = parent;
+    }
+
     /**
      * Assigns a new value to an existing variable or creates a new one.
      * The method allows to shaddow a variable of the same name up the
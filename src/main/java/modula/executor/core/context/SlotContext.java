@@ -0,0 +1,198 @@
+package modula.executor.core.context;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @description: 按{@link SlotLayout}下标存取的实例数据模型，已登记的变量存放在Object[]中，
+ * 其余变量名存放在按需创建的map中；本地没有的变量沿父context查找，语义和{@link SimpleContext}一致
+ * @author: gubing.gb
+ * @date: 2017/4/9.
+ */
+public class SlotContext implements Context, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 区分"值为null"和"未设置"
+     */
+    private enum Null {
+        VALUE
+    }
+
+    private static final Object NULL = Null.VALUE;
+
+    private final SlotLayout layout;
+
+    /**
+     * 已登记变量的值，null表示未设置
+     */
+    private final Object[] slots;
+
+    /**
+     * 未登记的变量，按需创建
+     */
+    private Map<String, Object> vars;
+
+    private Context parent;
+
+    /**
+     * @param layout 槽位表，可以为null，此时所有变量都存放在map中
+     * @param parent 父context，可以为null
+     */
+    public SlotContext(final SlotLayout layout, final Context parent) {
+        this.layout = layout;
+        this.slots = new Object[layout != null ? layout.size() : 0];
+        this.parent = parent;
+    }
+
+    /**
+     * 按槽位下标取值，本地未设置时沿父context查找
+     *
+     * @param slot 槽位下标，见{@link SlotLayout#slotOf(String)}
+     */
+    public Object get(final int slot) {
+        if (slot >= slots.length) {
+            return get(layout.nameOf(slot));
+        }
+        Object value = slots[slot];
+        if (value != null) {
+            return value == NULL ? null : value;
+        }
+        return parent != null ? parent.get(layout.nameOf(slot)) : null;
+    }
+
+    /**
+     * 按槽位下标设置本地变量
+     */
+    public void setLocal(final int slot, final Object value) {
+        if (slot >= slots.length) {
+            setLocal(layout.nameOf(slot), value);
+            return;
+        }
+        slots[slot] = value == null ? NULL : value;
+    }
+
+    /**
+     * 按槽位下标取本地值，不查父context
+     *
+     * @return 值，未设置时返回null，用{@link #hasLocal(int)}区分
+     */
+    public Object getLocal(final int slot) {
+        Object value = slots[slot];
+        return value == NULL ? null : value;
+    }
+
+    /**
+     * @return 槽位下标对应的本地变量是否已设置
+     */
+    public boolean hasLocal(final int slot) {
+        return slots[slot] != null;
+    }
+
+    /**
+     * @return 槽位数，不含实例创建后登记的变量
+     */
+    public int getSlotCount() {
+        return slots.length;
+    }
+
+    /**
+     * @return 没有槽位的本地变量，调用方不要修改，没有时返回null
+     */
+    public Map<String, Object> getNamedVars() {
+        return vars;
+    }
+
+    public SlotLayout getLayout() {
+        return layout;
+    }
+
+    public void set(final String name, final Object value) {
+        if (hasLocal(name)) {
+            setLocal(name, value);
+        } else if (parent != null && parent.has(name)) {
+            parent.set(name, value);
+        } else {
+            setLocal(name, value);
+        }
+    }
+
+    public void setLocal(final String name, final Object value) {
+        int slot = slotOf(name);
+        if (slot >= 0) {
+            setLocal(slot, value);
+        } else {
+            if (vars == null) {
+                vars = new HashMap<String, Object>(4);
+            }
+            vars.put(name, value);
+        }
+    }
+
+    public Object get(final String name) {
+        int slot = slotOf(name);
+        if (slot >= 0) {
+            return get(slot);
+        }
+        if (vars != null && vars.containsKey(name)) {
+            return vars.get(name);
+        }
+        return parent != null ? parent.get(name) : null;
+    }
+
+    public boolean has(final String name) {
+        return hasLocal(name) || (parent != null && parent.has(name));
+    }
+
+    public boolean hasLocal(final String name) {
+        int slot = slotOf(name);
+        if (slot >= 0) {
+            return slots[slot] != null;
+        }
+        return vars != null && vars.containsKey(name);
+    }
+
+    /**
+     * @return 本地变量的拷贝
+     */
+    public Map<String, Object> getVars() {
+        Map<String, Object> result = new HashMap<String, Object>();
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                result.put(layout.nameOf(i), slots[i] == NULL ? null : slots[i]);
+            }
+        }
+        if (vars != null) {
+            result.putAll(vars);
+        }
+        return result;
+    }
+
+    public void reset() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = null;
+        }
+        vars = null;
+    }
+
+    public Context getParent() {
+        return parent;
+    }
+
+    /**
+     * 重新设置父Context，实例绑定到不同执行器时使用
+     */
+    public void setParent(final Context parent) {
+        this.parent = parent;
+    }
+
+    private int slotOf(final String name) {
+        if (layout == null) {
+            return -1;
+        }
+        int slot = layout.slotOf(name);
+        // 实例创建后登记的变量没有槽位，放在map中
+        return slot < slots.length ? slot : -1;
+    }
+}
@@ -0,0 +1,66 @@
+package modula.executor.core.context;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @description: 数据模型的变量槽位表，加载时把已知的变量名（cond中引用的变量等）登记为固定下标，
+ * 每个实例的{@link SlotContext}按下标存取；加载完成后冻结，之后只读，可在执行器间共享
+ * @author: gubing.gb
+ * @date: 2017/4/9.
+ */
+public final class SlotLayout implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, Integer> slots = new HashMap<String, Integer>();
+
+    private final List<String> names = new ArrayList<String>();
+
+    private boolean frozen;
+
+    /**
+     * 登记变量名，已登记时返回原下标
+     *
+     * @param name 变量名
+     * @return 槽位下标，冻结后登记新变量名返回-1
+     */
+    public synchronized int register(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        if (frozen) {
+            return -1;
+        }
+        slot = names.size();
+        slots.put(name, slot);
+        names.add(name);
+        return slot;
+    }
+
+    /**
+     * 加载完成后冻结，不再登记新变量
+     */
+    public synchronized void freeze() {
+        frozen = true;
+    }
+
+    /**
+     * @return 变量名对应的槽位下标，没有登记时返回-1
+     */
+    public int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    public String nameOf(int slot) {
+        return names.get(slot);
+    }
+
+    public int size() {
+        return names.size();
+    }
+}
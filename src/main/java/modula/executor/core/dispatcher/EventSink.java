@@ -0,0 +1,22 @@
+package modula.executor.core.dispatcher;
+
+import modula.executor.core.event.TriggerEvent;
+
+/**
+ * @description: 按实例投递事件的出口，异步action和invoker完成时在任意线程上调用，把结果事件送回实例
+ * <p>
+ * 引擎实现为投递到实例邮箱；执行器未设置时回到执行器自己的外部事件队列
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/16.
+ */
+public interface EventSink {
+
+    /**
+     * 投递事件，任意线程可调用，不能阻塞
+     *
+     * @param sessionId 实例id
+     * @param event     事件
+     */
+    void post(String sessionId, TriggerEvent event);
+}
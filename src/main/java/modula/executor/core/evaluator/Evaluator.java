@@ -0,0 +1,21 @@
+package modula.executor.core.evaluator;
+
+import modula.executor.core.context.SlotLayout;
+import modula.parser.model.ModelException;
+
+/**
+ * @description: cond表达式编译器，解析Modula时对每个cond调用一次，默认实现为{@link ExpressionEvaluator}
+ * @author: gubing.gb
+ * @date: 2017/4/9.
+ */
+public interface Evaluator {
+    /**
+     * 编译cond表达式
+     *
+     * @param expression cond表达式
+     * @param layout     数据模型槽位表，引用的变量名可登记为槽位，求值时按下标读取；可以为null
+     * @return 可重复求值的条件，线程安全
+     * @throws ModelException 表达式非法
+     */
+    Guard compile(String expression, SlotLayout layout) throws ModelException;
+}
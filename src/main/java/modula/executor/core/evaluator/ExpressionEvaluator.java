@@ -0,0 +1,542 @@
+package modula.executor.core.evaluator;
+
+import modula.executor.core.context.Context;
+import modula.executor.core.context.SlotContext;
+import modula.executor.core.context.SlotLayout;
+import modula.parser.model.ModelException;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @description: 内置的cond表达式编译器，表达式在加载时解析成语法树，求值时不再解析
+ * 支持：
+ * 字面量 123 1.5 'abc' "abc" true false null；
+ * 变量 a、a.b.c，从context取a，再按Map key或bean属性取b、c，a登记到{@link SlotLayout}，在{@link SlotContext}上按下标读取；
+ * 比较 == != &lt; &lt;= &gt; &gt;=，xml中可写作 eq ne lt le gt ge；
+ * 逻辑 ! &amp;&amp; ||，也可写作 not and or；括号；
+ * 按名字注册的{@link Guard}，以 name() 调用
+ * @author: gubing.gb
+ * @date: 2017/4/9.
+ */
+public class ExpressionEvaluator implements Evaluator {
+    /**
+     * 按名字注册的条件
+     */
+    private final Map<String, Guard> predicates;
+
+    public ExpressionEvaluator() {
+        this(null);
+    }
+
+    public ExpressionEvaluator(Map<String, Guard> predicates) {
+        this.predicates = predicates != null ? new HashMap<String, Guard>(predicates)
+                : Collections.<String, Guard>emptyMap();
+    }
+
+    @Override
+    public Guard compile(String expression, SlotLayout layout) throws ModelException {
+        Parser parser = new Parser(expression, predicates, layout);
+        Node node = parser.parseOr();
+        parser.expectEnd();
+        return new CompiledGuard(expression, node);
+    }
+
+    private static final class CompiledGuard implements Guard {
+        private final String expression;
+
+        private final Node node;
+
+        CompiledGuard(String expression, Node node) {
+            this.expression = expression;
+            this.node = node;
+        }
+
+        @Override
+        public boolean evaluate(Context context) throws ModelException {
+            return node.test(context);
+        }
+
+        @Override
+        public String toString() {
+            return expression;
+        }
+    }
+
+    //---------------------- 语法树 ----------------------//
+
+    private abstract static class Node {
+        abstract Object value(Context context) throws ModelException;
+
+        boolean test(Context context) throws ModelException {
+            return truth(value(context));
+        }
+    }
+
+    private static final class Literal extends Node {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object value(Context context) {
+            return value;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final String name;
+
+        /**
+         * 槽位下标，没有登记时为-1
+         */
+        private final int slot;
+
+        private final String[] path;
+
+        Variable(String name, int slot, String[] path) {
+            this.name = name;
+            this.slot = slot;
+            this.path = path;
+        }
+
+        @Override
+        Object value(Context context) throws ModelException {
+            Object value = slot >= 0 && context instanceof SlotContext ? ((SlotContext) context).get(slot)
+                    : context.get(name);
+            for (int i = 0; i < path.length && value != null; i++) {
+                value = property(value, path[i]);
+            }
+            return value;
+        }
+    }
+
+    private static final class Call extends Node {
+        private final Guard guard;
+
+        Call(Guard guard) {
+            this.guard = guard;
+        }
+
+        @Override
+        Object value(Context context) throws ModelException {
+            return test(context);
+        }
+
+        @Override
+        boolean test(Context context) throws ModelException {
+            return guard.evaluate(context);
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object value(Context context) throws ModelException {
+            return test(context);
+        }
+
+        @Override
+        boolean test(Context context) throws ModelException {
+            return !operand.test(context);
+        }
+    }
+
+    private static final class And extends Node {
+        private final Node left;
+
+        private final Node right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object value(Context context) throws ModelException {
+            return test(context);
+        }
+
+        @Override
+        boolean test(Context context) throws ModelException {
+            return left.test(context) && right.test(context);
+        }
+    }
+
+    private static final class Or extends Node {
+        private final Node left;
+
+        private final Node right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object value(Context context) throws ModelException {
+            return test(context);
+        }
+
+        @Override
+        boolean test(Context context) throws ModelException {
+            return left.test(context) || right.test(context);
+        }
+    }
+
+    private static final class Compare extends Node {
+        private final String op;
+
+        private final Node left;
+
+        private final Node right;
+
+        Compare(String op, Node left, Node right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object value(Context context) throws ModelException {
+            return test(context);
+        }
+
+        @Override
+        boolean test(Context context) throws ModelException {
+            Object l = left.value(context);
+            Object r = right.value(context);
+            if ("==".equals(op)) {
+                return same(l, r);
+            } else if ("!=".equals(op)) {
+                return !same(l, r);
+            }
+            if (l == null || r == null) {
+                return false;
+            }
+            int c = compare(l, r);
+            if ("<".equals(op)) {
+                return c < 0;
+            } else if ("<=".equals(op)) {
+                return c <= 0;
+            } else if (">".equals(op)) {
+                return c > 0;
+            }
+            return c >= 0;
+        }
+    }
+
+    //---------------------- 求值 ----------------------//
+
+    static boolean truth(Object value) {
+        if (value == null) {
+            return false;
+        } else if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue() != 0;
+        } else if (value instanceof String) {
+            String s = (String) value;
+            return !s.isEmpty() && !"false".equalsIgnoreCase(s);
+        }
+        return true;
+    }
+
+    static Object property(Object bean, String name) throws ModelException {
+        if (bean instanceof Map) {
+            return ((Map) bean).get(name);
+        }
+        try {
+            return PropertyUtils.getSimpleProperty(bean, name);
+        } catch (Exception e) {
+            throw new ModelException("Cannot read property '" + name + "' of " + bean.getClass().getName(), e);
+        }
+    }
+
+    static boolean same(Object l, Object r) throws ModelException {
+        if (l == null || r == null) {
+            return l == r;
+        }
+        if (l instanceof Number || r instanceof Number) {
+            Number ln = toNumber(l);
+            Number rn = toNumber(r);
+            return ln != null && rn != null && compareNumbers(ln, rn) == 0;
+        }
+        if (l instanceof Enum || r instanceof Enum) {
+            return l.toString().equals(r.toString());
+        }
+        return l.equals(r);
+    }
+
+    @SuppressWarnings("unchecked")
+    static int compare(Object l, Object r) throws ModelException {
+        if (l instanceof Number || r instanceof Number) {
+            Number ln = toNumber(l);
+            Number rn = toNumber(r);
+            if (ln != null && rn != null) {
+                return compareNumbers(ln, rn);
+            }
+        } else if (l instanceof Comparable && l.getClass().isInstance(r)) {
+            return ((Comparable<Object>) l).compareTo(r);
+        }
+        throw new ModelException("Cannot compare " + l.getClass().getName() + " with " + r.getClass().getName());
+    }
+
+    private static Number toNumber(Object value) {
+        if (value instanceof Number) {
+            return (Number) value;
+        }
+        if (value instanceof String) {
+            try {
+                return Double.valueOf((String) value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    private static int compareNumbers(Number l, Number r) {
+        if (isIntegral(l) && isIntegral(r)) {
+            long a = l.longValue();
+            long b = r.longValue();
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+        return Double.compare(l.doubleValue(), r.doubleValue());
+    }
+
+    //---------------------- 解析 ----------------------//
+
+    /**
+     * 递归下降解析：or := and (|| and)*，and := not (&amp;&amp; not)*，not := ! not | compare，
+     * compare := primary (op primary)?
+     */
+    private static final class Parser {
+        private final String expression;
+
+        private final Map<String, Guard> predicates;
+
+        private final SlotLayout layout;
+
+        private final List<String> tokens;
+
+        private int pos;
+
+        Parser(String expression, Map<String, Guard> predicates, SlotLayout layout) throws ModelException {
+            this.expression = expression;
+            this.predicates = predicates;
+            this.layout = layout;
+            this.tokens = tokenize(expression);
+        }
+
+        Node parseOr() throws ModelException {
+            Node node = parseAnd();
+            while (accept("||") || accept("or")) {
+                node = new Or(node, parseAnd());
+            }
+            return node;
+        }
+
+        Node parseAnd() throws ModelException {
+            Node node = parseNot();
+            while (accept("&&") || accept("and")) {
+                node = new And(node, parseNot());
+            }
+            return node;
+        }
+
+        Node parseNot() throws ModelException {
+            if (accept("!") || accept("not")) {
+                return new Not(parseNot());
+            }
+            return parseCompare();
+        }
+
+        Node parseCompare() throws ModelException {
+            Node left = parsePrimary();
+            String op = compareOp(peek());
+            if (op != null) {
+                pos++;
+                return new Compare(op, left, parsePrimary());
+            }
+            return left;
+        }
+
+        Node parsePrimary() throws ModelException {
+            String token = next();
+            if ("(".equals(token)) {
+                Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            char c = token.charAt(0);
+            if (c == '\'' || c == '"') {
+                return new Literal(token.substring(1, token.length() - 1));
+            }
+            if (Character.isDigit(c) || (c == '-' && token.length() > 1)) {
+                try {
+                    return new Literal(token.indexOf('.') >= 0 ? (Object) Double.valueOf(token) : (Object) Long.valueOf(token));
+                } catch (NumberFormatException e) {
+                    throw error("illegal number '" + token + "'");
+                }
+            }
+            if ("true".equals(token)) {
+                return new Literal(Boolean.TRUE);
+            } else if ("false".equals(token)) {
+                return new Literal(Boolean.FALSE);
+            } else if ("null".equals(token)) {
+                return new Literal(null);
+            }
+            if (!isIdentifierStart(c)) {
+                throw error("unexpected '" + token + "'");
+            }
+            List<String> path = new ArrayList<String>();
+            while (accept(".")) {
+                path.add(identifier());
+            }
+            if (accept("(")) {
+                expect(")");
+                StringBuilder name = new StringBuilder(token);
+                for (String p : path) {
+                    name.append('.').append(p);
+                }
+                Guard guard = predicates.get(name.toString());
+                if (guard == null) {
+                    throw error("unknown predicate '" + name + "'");
+                }
+                return new Call(guard);
+            }
+            int slot = layout != null ? layout.register(token) : -1;
+            return new Variable(token, slot, path.toArray(new String[path.size()]));
+        }
+
+        void expectEnd() throws ModelException {
+            if (pos < tokens.size()) {
+                throw error("unexpected '" + tokens.get(pos) + "'");
+            }
+        }
+
+        private String identifier() throws ModelException {
+            String token = next();
+            if (!isIdentifierStart(token.charAt(0))) {
+                throw error("identifier expected but '" + token + "' found");
+            }
+            return token;
+        }
+
+        private String peek() {
+            return pos < tokens.size() ? tokens.get(pos) : null;
+        }
+
+        private String next() throws ModelException {
+            if (pos >= tokens.size()) {
+                throw error("unexpected end");
+            }
+            return tokens.get(pos++);
+        }
+
+        private boolean accept(String token) {
+            if (token.equals(peek())) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) throws ModelException {
+            if (!accept(token)) {
+                throw error("'" + token + "' expected");
+            }
+        }
+
+        private ModelException error(String message) {
+            return new ModelException("Illegal cond expression [" + expression + "]: " + message);
+        }
+
+        private static String compareOp(String token) {
+            if (token == null) {
+                return null;
+            }
+            if ("==".equals(token) || "eq".equals(token)) {
+                return "==";
+            } else if ("!=".equals(token) || "ne".equals(token)) {
+                return "!=";
+            } else if ("<".equals(token) || "lt".equals(token)) {
+                return "<";
+            } else if ("<=".equals(token) || "le".equals(token)) {
+                return "<=";
+            } else if (">".equals(token) || "gt".equals(token)) {
+                return ">";
+            } else if (">=".equals(token) || "ge".equals(token)) {
+                return ">=";
+            }
+            return null;
+        }
+
+        private static boolean isIdentifierStart(char c) {
+            return Character.isLetter(c) || c == '_' || c == '$';
+        }
+
+        private List<String> tokenize(String expression) throws ModelException {
+            List<String> result = new ArrayList<String>();
+            int i = 0;
+            int n = expression.length();
+            while (i < n) {
+                char c = expression.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    int end = expression.indexOf(c, i + 1);
+                    if (end < 0) {
+                        throw error("unterminated string");
+                    }
+                    result.add(expression.substring(i, end + 1));
+                    i = end + 1;
+                } else if (Character.isDigit(c)
+                        || (c == '-' && i + 1 < n && Character.isDigit(expression.charAt(i + 1)))) {
+                    int start = i++;
+                    while (i < n && (Character.isDigit(expression.charAt(i)) || expression.charAt(i) == '.')) {
+                        i++;
+                    }
+                    result.add(expression.substring(start, i));
+                } else if (isIdentifierStart(c)) {
+                    int start = i++;
+                    while (i < n && (Character.isLetterOrDigit(expression.charAt(i)) || expression.charAt(i) == '_'
+                            || expression.charAt(i) == '$')) {
+                        i++;
+                    }
+                    result.add(expression.substring(start, i));
+                } else if (i + 1 < n && isTwoCharOperator(expression.substring(i, i + 2))) {
+                    result.add(expression.substring(i, i + 2));
+                    i += 2;
+                } else if ("()!<>.".indexOf(c) >= 0) {
+                    result.add(String.valueOf(c));
+                    i++;
+                } else {
+                    throw error("unexpected character '" + c + "'");
+                }
+            }
+            return result;
+        }
+
+        private static boolean isTwoCharOperator(String s) {
+            return "&&".equals(s) || "||".equals(s) || "==".equals(s) || "!=".equals(s) || "<=".equals(s)
+                    || ">=".equals(s);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package modula.executor.core.evaluator;
+
+import modula.executor.core.context.Context;
+import modula.parser.model.ModelException;
+
+/**
+ * @description: transition的cond条件，加载时由{@link Evaluator}编译一次，之后每个事件直接求值
+ * 也可以直接实现这个接口，按名字注册后在cond中以name()调用，见{@link ExpressionEvaluator}
+ * @author: gubing.gb
+ * @date: 2017/4/9.
+ */
+public interface Guard {
+    /**
+     * 求值
+     *
+     * @param context transition所在状态的context
+     * @return 条件是否满足
+     */
+    boolean evaluate(Context context) throws ModelException;
+}
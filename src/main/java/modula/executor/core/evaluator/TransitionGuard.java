@@ -0,0 +1,70 @@
+package modula.executor.core.evaluator;
+
+import modula.executor.core.context.Context;
+import modula.parser.model.ModelException;
+import modula.parser.model.Transition;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @description: 挂在{@link Transition}上的已编译cond，记录该transition的求值次数和耗时
+ * @author: gubing.gb
+ * @date: 2017/4/9.
+ */
+public final class TransitionGuard {
+    private final Transition transition;
+
+    private final Guard guard;
+
+    private final LongAdder evaluations = new LongAdder();
+
+    private final LongAdder nanos = new LongAdder();
+
+    public TransitionGuard(Transition transition, Guard guard) {
+        this.transition = transition;
+        this.guard = guard;
+    }
+
+    /**
+     * 求值并计时
+     */
+    public boolean evaluate(Context context) throws ModelException {
+        long start = System.nanoTime();
+        try {
+            return guard.evaluate(context);
+        } finally {
+            nanos.add(System.nanoTime() - start);
+            evaluations.increment();
+        }
+    }
+
+    public Transition getTransition() {
+        return transition;
+    }
+
+    public Guard getGuard() {
+        return guard;
+    }
+
+    /**
+     * @return 求值次数
+     */
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    /**
+     * @return 求值总耗时，纳秒
+     */
+    public long getTotalNanos() {
+        return nanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        long count = getEvaluations();
+        String source = transition.getParent() != null ? transition.getParent().getId() : null;
+        return source + " -[" + transition.getEvent() + "][" + transition.getCond() + "]-> " + transition.getNext()
+                + ": evaluations=" + count + ", avgNanos=" + (count == 0 ? 0 : getTotalNanos() / count);
+    }
+}
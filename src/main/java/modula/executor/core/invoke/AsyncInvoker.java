@@ -0,0 +1,84 @@
+package modula.executor.core.invoke;
+
+import modula.executor.core.event.TriggerEvent;
+import modula.parser.ModulaIOProcessor;
+
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+/**
+ * @description: 异步invoker，发起调用后立即返回，完成时向实例投递done.invoke.&lt;id&gt;（payload为结果），
+ * 失败时投递error.execution（payload为异常）；取消后完成的结果丢弃。
+ * 父IOProcessor由执行器绑定到实例，可以在任意线程上使用
+ * @author: gubing.gb
+ * @date: 2017/4/16.
+ */
+public abstract class AsyncInvoker implements Invoker {
+    private static final String ERROR_EXECUTION = "error.execution";
+
+    private String invokeId;
+
+    private ModulaIOProcessor parentIOProcessor;
+
+    private volatile boolean cancelled;
+
+    /**
+     * 发起异步调用，不能阻塞
+     */
+    protected abstract CompletionStage<?> invokeAsync(String source, Map<String, Object> params)
+            throws InvokerException;
+
+    @Override
+    public void setInvokeId(String invokeId) {
+        this.invokeId = invokeId;
+    }
+
+    @Override
+    public void setParentIOProcessor(ModulaIOProcessor parentIOProcessor) {
+        this.parentIOProcessor = parentIOProcessor;
+    }
+
+    @Override
+    public final void invoke(String source, Map<String, Object> params) throws InvokerException {
+        CompletionStage<?> stage = invokeAsync(source, params);
+        if (stage == null) {
+            return;
+        }
+        final ModulaIOProcessor parent = parentIOProcessor;
+        final String id = invokeId;
+        stage.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object result, Throwable cause) {
+                if (cancelled) {
+                    return;
+                }
+                if (cause == null) {
+                    parent.addEvent(new TriggerEvent("done.invoke." + id, TriggerEvent.SIGNAL_EVENT, result));
+                } else {
+                    parent.addEvent(new TriggerEvent(ERROR_EXECUTION, TriggerEvent.ERROR_EVENT, cause));
+                }
+            }
+        });
+    }
+
+    /**
+     * 默认不处理父状态机转发的事件
+     */
+    @Override
+    public void parentEvent(TriggerEvent event) throws InvokerException {
+    }
+
+    @Override
+    public void cancel() throws InvokerException {
+        cancelled = true;
+    }
+
+    public String getInvokeId() {
+        return invokeId;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
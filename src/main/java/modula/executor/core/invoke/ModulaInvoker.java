@@ -0,0 +1,152 @@
+package modula.executor.core.invoke;
+
+import modula.executor.core.ModulaExecutor;
+import modula.executor.core.SCInstance;
+import modula.executor.core.context.Context;
+import modula.executor.core.event.TriggerEvent;
+import modula.parser.ModulaIOProcessor;
+import modula.parser.model.ModelException;
+import modula.parser.model.Modula;
+
+import java.util.Map;
+
+/**
+ * @description: 内置的进程内子状态机invoker，对应type为modula或不设置type的&lt;invoke&gt;
+ * <p>
+ * 子状态机只是一个{@link SCInstance}，运行在父执行器按定义共享的子执行器上，不单独创建执行器；
+ * 参数写入子实例的根context。autoforward时父状态机的事件转发给子实例，子实例结束时向父状态机的事件队列发出done.invoke.&lt;id&gt;。
+ * 子实例和父实例在同一线程上运行，运行中的子实例由{@link modula.engine.store.SCInstanceCodec}写入父实例快照；
+ * 解码得到的invoker还没有执行器，父实例下次绑定到执行器时由{@link modula.executor.core.context.ModulaExecutionContext}关联
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/15.
+ */
+public class ModulaInvoker implements Invoker {
+    private final Modula definition;
+
+    private ModulaExecutor executor;
+
+    private String invokeId;
+
+    /**
+     * 解析后的src，解码时找不到内联定义就按它加载
+     */
+    private String source;
+
+    private ModulaIOProcessor parentIOProcessor;
+
+    private SCInstance child;
+
+    /**
+     * @param executor 子状态机定义的共享执行器
+     */
+    public ModulaInvoker(ModulaExecutor executor) {
+        this.definition = executor.getStateMachine();
+        this.executor = executor;
+    }
+
+    /**
+     * 从快照恢复运行中的子实例，使用前要{@link #bind(ModulaExecutor, ModulaIOProcessor)}
+     *
+     * @param definition 子状态机定义
+     * @param invokeId   invoke id
+     * @param source     解析后的src
+     * @param child      子实例
+     */
+    public ModulaInvoker(Modula definition, String invokeId, String source, SCInstance child) {
+        this.definition = definition;
+        this.invokeId = invokeId;
+        this.source = source;
+        this.child = child;
+    }
+
+    /**
+     * 关联子状态机定义的共享执行器和父状态机的事件队列
+     */
+    public void bind(ModulaExecutor executor, ModulaIOProcessor parentIOProcessor) {
+        this.executor = executor;
+        this.parentIOProcessor = parentIOProcessor;
+    }
+
+    /**
+     * @return 是否已关联执行器
+     */
+    public boolean isBound() {
+        return executor != null;
+    }
+
+    @Override
+    public void setInvokeId(String invokeId) {
+        this.invokeId = invokeId;
+    }
+
+    @Override
+    public void setParentIOProcessor(ModulaIOProcessor parentIOProcessor) {
+        this.parentIOProcessor = parentIOProcessor;
+    }
+
+    @Override
+    public void invoke(String source, Map<String, Object> params) throws InvokerException {
+        this.source = source;
+        SCInstance instance = executor.newInstance(invokeId);
+        if (params != null && !params.isEmpty()) {
+            Context root = instance.getRootContext();
+            for (Map.Entry<String, Object> entry : params.entrySet()) {
+                root.setLocal(entry.getKey(), entry.getValue());
+            }
+        }
+        child = instance;
+        try {
+            executor.go(instance);
+        } catch (ModelException e) {
+            child = null;
+            throw new InvokerException(e.getMessage(), e);
+        }
+        checkDone();
+    }
+
+    @Override
+    public void parentEvent(TriggerEvent event) throws InvokerException {
+        SCInstance instance = child;
+        if (instance == null) {
+            return;
+        }
+        try {
+            executor.triggerEvents(instance, new TriggerEvent[]{event});
+        } catch (ModelException e) {
+            throw new InvokerException(e.getMessage(), e);
+        }
+        checkDone();
+    }
+
+    @Override
+    public void cancel() throws InvokerException {
+        child = null;
+    }
+
+    public Modula getDefinition() {
+        return definition;
+    }
+
+    public String getInvokeId() {
+        return invokeId;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return 子实例，已结束或取消时返回null
+     */
+    public SCInstance getChild() {
+        return child;
+    }
+
+    private void checkDone() {
+        if (child != null && !child.isRunning()) {
+            child = null;
+            parentIOProcessor.addEvent(new TriggerEvent("done.invoke." + invokeId, TriggerEvent.SIGNAL_EVENT));
+        }
+    }
+}
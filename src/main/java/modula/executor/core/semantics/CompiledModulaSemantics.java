@@ -0,0 +1,252 @@
+package modula.executor.core.semantics;
+
+import modula.executor.core.Status;
+import modula.executor.core.context.ActionExecutionContext;
+import modula.executor.core.context.ModulaExecutionContext;
+import modula.executor.core.event.TriggerEvent;
+import modula.executor.core.reporter.ErrorReporter;
+import modula.parser.model.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * @description: 编译执行的语义实现，扁平状态机（见{@link FlatTable}）在加载时编译成按状态下标、transition下标
+ * 索引的数组，每个OnEntry/OnExit/Transition的Action列表用MethodHandle串成一个调用，单步只剩查表和直接调用，
+ * 不再遍历模型上的列表；不是扁平状态机时退回{@link ModulaSemanticsImpl}
+ * @author: gubing.gb
+ * @date: 2017/4/8.
+ */
+public class CompiledModulaSemantics extends ModulaSemanticsImpl {
+    private static final MethodHandle EXECUTE;
+
+    static {
+        try {
+            EXECUTE = MethodHandles.publicLookup().findVirtual(Action.class, "execute",
+                    MethodType.methodType(void.class, ActionExecutionContext.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * 当前状态机的编译结果，状态机不是扁平的时候为null
+     */
+    private Program program;
+
+    @Override
+    public Modula normalizeStateMachine(final Modula input, final ErrorReporter errRep) {
+        Modula modula = super.normalizeStateMachine(input, errRep);
+        program = modula != null && modula.getFlatTable() != null ? new Program(modula) : null;
+        return modula;
+    }
+
+    @Override
+    public void nextStep(final ModulaExecutionContext exctx, final TriggerEvent event) throws ModelException {
+        Program program = this.program;
+        if (program == null || program.modula != exctx.getStateMachine()) {
+            super.nextStep(exctx, event);
+            return;
+        }
+        if (!exctx.isRunning()) {
+            return;
+        }
+        if (isCancelEvent(event)) {
+            exctx.stopRunning();
+        } else {
+            setSystemEventVariable(exctx, event, false);
+            processInvokes(exctx, event);
+            if (fire(exctx, program, event.getName()) && exctx.isRunning()) {
+                macroStep(exctx, program);
+            }
+        }
+        if (!exctx.isRunning()) {
+            finalStep(exctx);
+        }
+    }
+
+    /**
+     * 执行无事件transition和内部事件，直到没有可执行的transition
+     */
+    private void macroStep(final ModulaExecutionContext exctx, final Program program) throws ModelException {
+        do {
+            boolean fired;
+            do {
+                fired = fire(exctx, program, null);
+                if (!fired) {
+                    TriggerEvent event = exctx.nextInternalEvent();
+                    if (event != null) {
+                        if (isCancelEvent(event)) {
+                            exctx.stopRunning();
+                        } else {
+                            setSystemEventVariable(exctx, event, true);
+                            fired = fire(exctx, program, event.getName());
+                        }
+                    }
+                }
+            } while (exctx.isRunning() && fired);
+        } while (exctx.isRunning() && exctx.hasPendingInternalEvent());
+    }
+
+    /**
+     * 查表执行一次transition
+     *
+     * @return 是否有transition执行
+     */
+    private boolean fire(final ModulaExecutionContext exctx, final Program program, final String eventName)
+            throws ModelException {
+        Status status = exctx.getScInstance().getCurrentStatus();
+        int current = status.getCurrentIndex();
+        if (current < 0) {
+            return false;
+        }
+        int t = program.table.lookupIndex(current, eventName);
+        if (t < 0) {
+            return false;
+        }
+        int target = program.targets[t];
+        if (target >= 0) {
+            exit(exctx, program, status, current);
+        }
+        Transition transition = program.table.getTransition(t);
+        invoke(exctx, program.transitionActions[t], transition);
+        notifyOnTransition(exctx, transition, target >= 0 ? program.states[target] : transition.getParent());
+        if (target >= 0) {
+            enter(exctx, program, status, target);
+        }
+        return true;
+    }
+
+    private void exit(final ModulaExecutionContext exctx, final Program program, final Status status, final int index)
+            throws ModelException {
+        EnterableState es = program.states[index];
+        MethodHandle[] onExits = program.onExits[index];
+        for (int i = 0; i < onExits.length; i++) {
+            invoke(exctx, onExits[i], es.getOnExits().get(i));
+        }
+        if (program.raiseExit[index]) {
+            exctx.getInternalIOProcessor().addEvent(new TriggerEvent("exit.state." + es.getId(), TriggerEvent.CHANGE_EVENT));
+        }
+        exctx.getNotificationRegistry().fireOnExit(es, es);
+        exctx.getNotificationRegistry().fireOnExit(program.modula, es);
+        status.remove(es);
+    }
+
+    private void enter(final ModulaExecutionContext exctx, final Program program, final Status status, final int index)
+            throws ModelException {
+        EnterableState es = program.states[index];
+        status.add(es);
+        MethodHandle[] onEntries = program.onEntries[index];
+        for (int i = 0; i < onEntries.length; i++) {
+            invoke(exctx, onEntries[i], es.getOnEntries().get(i));
+        }
+        if (program.raiseEntry[index]) {
+            exctx.getInternalIOProcessor().addEvent(new TriggerEvent("entry.state." + es.getId(), TriggerEvent.CHANGE_EVENT));
+        }
+        exctx.getNotificationRegistry().fireOnEntry(es, es);
+        exctx.getNotificationRegistry().fireOnEntry(program.modula, es);
+        if (es instanceof Final) {
+            exctx.stopRunning();
+        }
+    }
+
+    /**
+     * 执行编译好的Action调用，出错时和{@link #executeContent}一样发出error.execution事件
+     */
+    private void invoke(final ModulaExecutionContext exctx, final MethodHandle actions, final Executable exec)
+            throws ModelException {
+        if (actions == null) {
+            return;
+        }
+        try {
+            actions.invokeExact(exctx.getActionExecutionContext());
+        } catch (ModelException e) {
+            exctx.getInternalIOProcessor().addEvent(new TriggerEvent(TriggerEvent.ERROR_EXECUTION, TriggerEvent.ERROR_EVENT));
+            exctx.getErrorReporter().onError(ErrorConstants.EXPRESSION_ERROR, e.getMessage(), exec);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new ModelException(t);
+        }
+    }
+
+    /**
+     * 把Action列表串成一个(ActionExecutionContext)void调用，没有Action时返回null
+     */
+    static MethodHandle compile(final List<Action> actions) {
+        MethodHandle compiled = null;
+        for (int i = actions.size() - 1; i >= 0; i--) {
+            MethodHandle action = EXECUTE.bindTo(actions.get(i));
+            compiled = compiled == null ? action : MethodHandles.foldArguments(compiled, action);
+        }
+        return compiled;
+    }
+
+    /**
+     * 扁平状态机的编译结果，数组下标为状态下标或transition下标
+     */
+    private static final class Program {
+        private static final MethodHandle[] NONE = new MethodHandle[0];
+
+        final Modula modula;
+
+        final FlatTable table;
+
+        final EnterableState[] states;
+
+        final MethodHandle[][] onEntries;
+
+        final MethodHandle[][] onExits;
+
+        final boolean[] raiseEntry;
+
+        final boolean[] raiseExit;
+
+        final MethodHandle[] transitionActions;
+
+        /**
+         * transition的目标状态下标，没有目标时为-1
+         */
+        final int[] targets;
+
+        Program(final Modula modula) {
+            this.modula = modula;
+            this.table = modula.getFlatTable();
+            this.states = table.getStates();
+            int n = states.length;
+            onEntries = new MethodHandle[n][];
+            onExits = new MethodHandle[n][];
+            raiseEntry = new boolean[n];
+            raiseExit = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                List<OnEntry> entries = states[i].getOnEntries();
+                onEntries[i] = entries.isEmpty() ? NONE : new MethodHandle[entries.size()];
+                for (int j = 0; j < entries.size(); j++) {
+                    onEntries[i][j] = compile(entries.get(j).getActions());
+                    raiseEntry[i] |= entries.get(j).isRaiseEvent();
+                }
+                List<OnExit> exits = states[i].getOnExits();
+                onExits[i] = exits.isEmpty() ? NONE : new MethodHandle[exits.size()];
+                for (int j = 0; j < exits.size(); j++) {
+                    onExits[i][j] = compile(exits.get(j).getActions());
+                    raiseExit[i] |= exits.get(j).isRaiseEvent();
+                }
+            }
+            int m = table.getTransitionCount();
+            transitionActions = new MethodHandle[m];
+            targets = new int[m];
+            for (int t = 0; t < m; t++) {
+                Transition transition = table.getTransition(t);
+                transitionActions[t] = compile(transition.getActions());
+                targets[t] = -1;
+                for (TransitionTarget tt : transition.getTargets()) {
+                    targets[t] = ((EnterableState) tt).getIndex();
+                }
+            }
+        }
+    }
+}
@@ -1,10 +1,11 @@
 package modula.executor.core.semantics;
 
 
-import modula.executor.core.SCInstance;
 import modula.executor.core.Status;
 import modula.executor.core.context.*;
+import modula.executor.core.evaluator.TransitionGuard;
 import modula.executor.core.event.TriggerEvent;
+import modula.executor.core.invoke.AsyncInvoker;
 import modula.executor.core.invoke.Invoker;
 import modula.executor.core.reporter.ErrorReporter;
 import modula.parser.model.*;
@@ -24,9 +25,12 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
     public static final String ERR_ILLEGAL_ALLOC = ".error.illegalalloc";
 
     /**
-     * 暂时不用
+     * 冻结模型，扁平状态机同时编译转移表，见{@link Modula#freeze()}。从文档读入的模型已经冻结过
      */
     public Modula normalizeStateMachine(final Modula input, final ErrorReporter errRep) {
+        if (input != null && input.getStates() != null) {
+            input.freeze();
+        }
         return input;
     }
 
@@ -34,12 +38,15 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
         // 初始化上下文与状态机
         exctx.initialize();
         // 初始state
-        HashSet<TransitionalState> statesToInvoke = new HashSet<TransitionalState>();
-        Step step = new Step(null);
+        StepScratch scratch = exctx.getStepScratch();
+        Set<TransitionalState> statesToInvoke = scratch.getStatesToInvoke();
+        statesToInvoke.clear();
+        Step step = scratch.getStep();
+        step.reset(null);
         step.getTransitList().add(exctx.getStateMachine().getInitialTransition());
         microStep(exctx, step, statesToInvoke);
         // AssignCurrentStatus
-        setSystemAllStatesVariable(exctx.getScInstance());
+        setSystemAllStatesVariable(exctx);
         // Execute Immediate Transitions
 
         if (exctx.isRunning()) {
@@ -58,14 +65,17 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
         if (isCancelEvent(event)) {
             exctx.stopRunning();
         } else {
-            setSystemEventVariable(exctx.getScInstance(), event, false);
+            setSystemEventVariable(exctx, event, false);
             processInvokes(exctx, event);
-            Step step = new Step(event);
-            selectTransitions(exctx, step);
+            StepScratch scratch = exctx.getStepScratch();
+            Step step = scratch.getStep();
+            step.reset(event);
+            selectStep(exctx, step);
             if (!step.getTransitList().isEmpty()) {
-                HashSet<TransitionalState> statesToInvoke = new HashSet<TransitionalState>();
+                Set<TransitionalState> statesToInvoke = scratch.getStatesToInvoke();
+                statesToInvoke.clear();
                 microStep(exctx, step, statesToInvoke);
-                setSystemAllStatesVariable(exctx.getScInstance());
+                setSystemAllStatesVariable(exctx);
                 if (exctx.isRunning()) {
                     macroStep(exctx, statesToInvoke);
                 }
@@ -80,22 +90,25 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
         if (exctx.isRunning()) {
             return;
         }
-        ArrayList<EnterableState> configuration = new ArrayList<EnterableState>(exctx.getScInstance().getCurrentStatus().getAllStates());
-        Collections.sort(configuration, DocumentOrder.reverseDocumentOrderComparator);
-        for (EnterableState es : configuration) {
-            for (OnExit onexit : es.getOnExits()) {
-                executeContent(exctx, onexit);
+        StateSet configuration = exctx.getStepScratch().getConfiguration();
+        exctx.getScInstance().getCurrentStatus().getAllStates(configuration);
+        // 逆文档顺序退出
+        for (int i = configuration.last(); i >= 0; i = configuration.previous(i)) {
+            EnterableState es = configuration.get(i);
+            List<OnExit> onexits = es.getOnExits();
+            for (int j = 0; j < onexits.size(); j++) {
+                executeContent(exctx, onexits.get(j));
             }
             if (es instanceof TransitionalState) {
                 // check if invokers are active in this state
-                for (Invoke inv : ((TransitionalState) es).getInvokes()) {
+                for (Invoke inv : ((TransitionalState) es).getInvokeArray()) {
                     exctx.cancelInvoker(inv);
                 }
             }
             exctx.getNotificationRegistry().fireOnExit(es, es);
             exctx.getNotificationRegistry().fireOnExit(exctx.getStateMachine(), es);
             if (!(es instanceof Final && es.getParent() == null)) {
-                exctx.getScInstance().getCurrentStatus().getStates().remove(es);
+                exctx.getScInstance().getCurrentStatus().remove(es);
             }
             // else: keep final Final
             // TODO: returnDoneEvent(s.donedata)?
@@ -118,26 +131,72 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
      * buildStep：exitSet，entrySet，transitionList
      */
     public void buildStep(final ModulaExecutionContext exctx, final Step step) throws ModelException {
+        if (step.isPlanned()) {
+            return;
+        }
         step.getExitSet().clear();
         step.getEntrySet().clear();
         step.getDefaultEntrySet().clear();
-        step.getDefaultHistoryTransitionEntryMap().clear();
+        if (!step.getDefaultHistoryTransitionEntryMap().isEmpty()) {
+            step.getDefaultHistoryTransitionEntryMap().clear();
+        }
 
         // 计算出口集合
-        if (!exctx.getScInstance().getCurrentStatus().getStates().isEmpty()) {
-            computeExitSet(step, exctx.getScInstance().getCurrentStatus().getAllStates());
+        if (!exctx.getScInstance().getCurrentStatus().isEmpty()) {
+            StateSet configuration = exctx.getStepScratch().getConfiguration();
+            exctx.getScInstance().getCurrentStatus().getAllStates(configuration);
+            computeExitSet(step, configuration);
         }
         // 计算入口集合
         computeEntrySet(exctx, step);
+        if (step.isCacheable() && step.getDefaultHistoryTransitionEntryMap().isEmpty()) {
+            exctx.getStepScratch().getPlanCache().put(new StepPlan(step));
+        }
+    }
+
+    /**
+     * 选择transition，(当前配置, 事件名)相同时直接回放缓存的单步计划，
+     * 未命中时走{@link #selectTransitions}，结果不依赖cond和history时由{@link #buildStep}缓存
+     */
+    public void selectStep(final ModulaExecutionContext exctx, final Step step) throws ModelException {
+        FlatTable flatTable = exctx.getStateMachine().getFlatTable();
+        if (flatTable != null) {
+            selectFlatStep(exctx, step, flatTable);
+            return;
+        }
+        StepScratch scratch = exctx.getStepScratch();
+        StateSet configuration = scratch.getConfiguration();
+        exctx.getScInstance().getCurrentStatus().getAllStates(configuration);
+        String eventName = step.getEvent() != null ? step.getEvent().getName() : null;
+        StepPlan plan = scratch.getPlanCache().get(configuration.bits(), eventName);
+        if (plan != null) {
+            plan.applyTo(step);
+            return;
+        }
+        step.setCacheable(true);
+        selectTransitions(exctx, step);
+        if (step.getTransitList().isEmpty() && step.isCacheable()) {
+            scratch.getPlanCache().put(new StepPlan(step));
+        }
+    }
 
-        // default result states to entrySet
-        Set<EnterableState> states = step.getEntrySet();
-        if (!step.getExitSet().isEmpty()) {
-            // calculate result states by taking current states, subtracting exitSet and adding entrySet
-            states = new HashSet<EnterableState>(exctx.getScInstance().getCurrentStatus().getStates());
-            states.removeAll(step.getExitSet());
-            states.addAll(step.getEntrySet());
+    /**
+     * 扁平状态机查表得到transition，出入口都只有一个状态
+     */
+    public void selectFlatStep(final ModulaExecutionContext exctx, final Step step, final FlatTable flatTable) {
+        int current = exctx.getScInstance().getCurrentStatus().getCurrentIndex();
+        if (current >= 0) {
+            String eventName = step.getEvent() != null ? step.getEvent().getName() : null;
+            Transition transition = flatTable.lookup(current, eventName);
+            if (transition != null) {
+                step.getTransitList().add(transition);
+                for (TransitionTarget tt : transition.getTargetArray()) {
+                    step.getExitSet().add(exctx.getStateMachine().getStates()[current]);
+                    step.getEntrySet().add((EnterableState) tt);
+                }
+            }
         }
+        step.setPlanned(true);
     }
 
     /**
@@ -148,17 +207,18 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
         do {
             boolean macroStepDone = false;
             do {
-                Step step = new Step(null);
-                selectTransitions(exctx, step);
+                Step step = exctx.getStepScratch().getStep();
+                step.reset(null);
+                selectStep(exctx, step);
                 if (step.getTransitList().isEmpty()) {
                     TriggerEvent event = exctx.nextInternalEvent();
                     if (event != null) {
                         if (isCancelEvent(event)) {
                             exctx.stopRunning();
                         } else {
-                            setSystemEventVariable(exctx.getScInstance(), event, true);
-                            step = new Step(event);
-                            selectTransitions(exctx, step);
+                            setSystemEventVariable(exctx, event, true);
+                            step.reset(event);
+                            selectStep(exctx, step);
                         }
                     }
                 }
@@ -166,7 +226,7 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
                     macroStepDone = true;
                 } else {
                     microStep(exctx, step, statesToInvoke);
-                    setSystemAllStatesVariable(exctx.getScInstance());
+                    setSystemAllStatesVariable(exctx);
                 }
 
             } while (exctx.isRunning() && !macroStepDone);
@@ -178,9 +238,18 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
         } while (exctx.isRunning() && exctx.hasPendingInternalEvent());
     }
 
-    public void computeExitSet(final Step step, final Set<EnterableState> configuration) {
-        for (SimpleTransition st : step.getTransitList()) {
-            computeExitSet(st, step.getExitSet(), configuration);
+    public void computeExitSet(final Step step, final StateSet configuration) {
+        List<SimpleTransition> transitList = step.getTransitList();
+        for (int i = 0; i < transitList.size(); i++) {
+            computeExitSet(transitList.get(i), step.getExitSet(), configuration);
+        }
+    }
+
+    public void computeExitSet(SimpleTransition transition, StateSet exitSet, StateSet configuration) {
+        // 转移域是Modula文档本身时退出掩码包含所有状态
+        long[] exitMask = transition.getExitMask();
+        if (exitMask != null) {
+            exitSet.addIntersection(configuration.bits(), exitMask);
         }
     }
 
@@ -201,27 +270,34 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
     }
 
     public void computeEntrySet(final ModulaExecutionContext exctx, final Step step) {
-        Set<History> historyTargets = new HashSet<History>();
-        Set<EnterableState> entrySet = new HashSet<EnterableState>();
-        for (SimpleTransition st : step.getTransitList()) {
-            for (TransitionTarget tt : st.getTargets()) {
+        StepScratch scratch = exctx.getStepScratch();
+        List<History> historyTargets = scratch.getHistoryTargets();
+        historyTargets.clear();
+        StateSet entrySet = scratch.getEntryTargets();
+        entrySet.clear();
+        List<SimpleTransition> transitList = step.getTransitList();
+        for (int t = 0; t < transitList.size(); t++) {
+            for (TransitionTarget tt : transitList.get(t).getTargetArray()) {
                 if (tt instanceof EnterableState) {
                     entrySet.add((EnterableState) tt);
-                } else {
+                } else if (!historyTargets.contains(tt)) {
+                    // 入口取决于history记录，不缓存
+                    step.setCacheable(false);
                     // History
                     historyTargets.add((History) tt);
                 }
             }
         }
-        for (EnterableState es : entrySet) {
-            addDescendantStatesToEnter(exctx, step, es);
+        for (int i = entrySet.first(); i >= 0; i = entrySet.next(i)) {
+            addDescendantStatesToEnter(exctx, step, entrySet.get(i));
         }
-        for (History h : historyTargets) {
-            addDescendantStatesToEnter(exctx, step, h);
+        for (int i = 0; i < historyTargets.size(); i++) {
+            addDescendantStatesToEnter(exctx, step, historyTargets.get(i));
         }
-        for (SimpleTransition st : step.getTransitList()) {
+        for (int t = 0; t < transitList.size(); t++) {
+            SimpleTransition st = transitList.get(t);
             TransitionalState ancestor = st.getTransitionDomain();
-            for (TransitionTarget tt : st.getTargets()) {
+            for (TransitionTarget tt : st.getTargetArray()) {
                 addAncestorStatesToEnter(exctx, step, tt, ancestor);
             }
         }
@@ -233,7 +309,7 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
             History h = (History) tt;
             if (exctx.getScInstance().isEmpty(h)) {
                 step.getDefaultHistoryTransitionEntryMap().put(h.getParent(), h.getTransition());
-                for (TransitionTarget dtt : h.getTransition().getTargets()) {
+                for (TransitionTarget dtt : h.getTransition().getTargetArray()) {
                     addDescendantStatesToEnter(exctx, step, dtt);
                     addAncestorStatesToEnter(exctx, step, dtt, tt.getParent());
                 }
@@ -293,15 +369,19 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
 
     public void selectTransitions(final ModulaExecutionContext exctx, final Step step) throws ModelException {
         step.getTransitList().clear();
-        ArrayList<Transition> enabledTransitions = new ArrayList<Transition>();
+        StepScratch scratch = exctx.getStepScratch();
+        List<Transition> enabledTransitions = scratch.getEnabledTransitions();
+        enabledTransitions.clear();
 
-        ArrayList<EnterableState> configuration = new ArrayList<EnterableState>(exctx.getScInstance().getCurrentStatus().getAllStates());
-        Collections.sort(configuration, DocumentOrder.documentOrderComparator);
+        StateSet configuration = scratch.getConfiguration();
+        exctx.getScInstance().getCurrentStatus().getAllStates(configuration);
 
-        HashSet<EnterableState> visited = new HashSet<EnterableState>();
+        StateSet visited = scratch.getVisited();
+        visited.clear();
 
         String eventName = step.getEvent() != null ? step.getEvent().getName() : null;
-        for (EnterableState es : configuration) {
+        for (int i = configuration.first(); i >= 0; i = configuration.next(i)) {
+            EnterableState es = configuration.get(i);
             if (es.isAtomicState()) {
                 if (es instanceof Final) {
                     // Final states don't have transitions, skip to parent
@@ -318,8 +398,12 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
                 int ancestorIndex = state.getNumberOfAncestors() - 1;
                 boolean transitionMatched = false;
                 do {
-                    for (Transition transition : current.getTransitionsList()) {
-                        if (transitionMatched = matchTransition(exctx, transition, eventName)) {
+                    for (Transition transition : current.getEventDispatch().candidates(eventName)) {
+                        if (transition.getCond() != null) {
+                            // 结果取决于cond求值，不缓存
+                            step.setCacheable(false);
+                        }
+                        if (transitionMatched = isTransitionEnabled(exctx, transition)) {
                             enabledTransitions.add(transition);
                             break;
                         }
@@ -333,11 +417,19 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
 
     public void removeConflictingTransitions(final ModulaExecutionContext exctx, final Step step,
                                              final List<Transition> enabledTransitions) {
+        if (enabledTransitions.size() <= 1) {
+            // 只有一个transition时不存在冲突
+            if (!enabledTransitions.isEmpty()) {
+                step.getTransitList().add(enabledTransitions.get(0));
+            }
+            return;
+        }
         LinkedHashSet<Transition> filteredTransitions = new LinkedHashSet<Transition>();
         LinkedHashSet<Transition> preemptedTransitions = new LinkedHashSet<Transition>();
         Map<Transition, Set<EnterableState>> exitSets = new HashMap<Transition, Set<EnterableState>>();
 
-        Set<EnterableState> configuration = exctx.getScInstance().getCurrentStatus().getAllStates();
+        StateSet configuration = exctx.getStepScratch().getConfiguration();
+        exctx.getScInstance().getCurrentStatus().getAllStates(configuration);
         Collections.sort(enabledTransitions, DocumentOrder.documentOrderComparator);
 
         for (Transition t1 : enabledTransitions) {
@@ -391,9 +483,9 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
             if (!(transition.isNoEventsTransition() || transition.isAllEventsTransition())) {
                 boolean eventMatch = false;
                 for (String event : transition.getEvents()) {
-                    if (eventName.startsWith(event)) {
-                        if (eventName.length() == event.length() || eventName.charAt(event.length()) == '.')
-                            eventMatch = true;
+                    if (eventName.startsWith(event)
+                            && (eventName.length() == event.length() || eventName.charAt(event.length()) == '.')) {
+                        eventMatch = true;
                         break;
                     }
                 }
@@ -404,13 +496,29 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
         } else if (!transition.isNoEventsTransition()) {
             return false;
         }
-        //暂时不支持transition的cond条件
-        return true;
+        return isTransitionEnabled(exctx, transition);
+    }
+
+    /**
+     * 事件已匹配的候选transition是否可用，cond在所在状态的context上求值，求值出错视为不满足并发出error.execution事件
+     */
+    public boolean isTransitionEnabled(final ModulaExecutionContext exctx, final Transition transition) {
+        TransitionGuard guard = transition.getGuard();
+        if (guard == null) {
+            return true;
+        }
+        try {
+            return guard.evaluate(exctx.getContext(transition.getParent()));
+        } catch (ModelException e) {
+            exctx.getInternalIOProcessor().addEvent(new TriggerEvent(TriggerEvent.ERROR_EXECUTION, TriggerEvent.ERROR_EVENT));
+            exctx.getErrorReporter().onError(ErrorConstants.EXPRESSION_ERROR, e.getMessage(), transition);
+            return false;
+        }
     }
 
     public boolean isInFinalState(final EnterableState es, final Set<EnterableState> configuration) {
         if (es instanceof State) {
-            for (EnterableState child : ((State) es).getChildren()) {
+            for (EnterableState child : ((State) es).getChildArray()) {
                 if (child instanceof Final && configuration.contains(child)) {
                     return true;
                 }
@@ -428,30 +536,27 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
         return (event.getType() == TriggerEvent.CANCEL_EVENT);
     }
 
-    public void setSystemAllStatesVariable(final SCInstance scInstance) {
-        Status currentStatus = scInstance.getCurrentStatus();
+    public void setSystemAllStatesVariable(final ModulaExecutionContext exctx) {
+        Status currentStatus = exctx.getScInstance().getCurrentStatus();
         //TODO
-        //scInstance.getSystemContext().setLocal(ModulaSystemContext.ALL_STATES_KEY, currentStatus.getAllStates());
+        //exctx.getSystemContext().setLocal(ModulaSystemContext.ALL_STATES_KEY, currentStatus.getAllStates());
     }
 
     /**
      * 存储event到systemContext
      */
-    public void setSystemEventVariable(final SCInstance scInstance, final TriggerEvent event, boolean internal) {
-        Context systemContext = scInstance.getSystemContext();
-        EventVariable eventVar = null;
+    public void setSystemEventVariable(final ModulaExecutionContext exctx, final TriggerEvent event, boolean internal) {
+        String eventType = null;
         if (event != null) {
-            String eventType = internal ? EventVariable.TYPE_INTERNAL : EventVariable.TYPE_EXTERNAL;
+            eventType = internal ? EventVariable.TYPE_INTERNAL : EventVariable.TYPE_EXTERNAL;
 
             final int triggerEventType = event.getType();
             if (triggerEventType == TriggerEvent.ERROR_EVENT || triggerEventType == TriggerEvent.CHANGE_EVENT) {
                 eventType = EventVariable.TYPE_PLATFORM;
             }
-
-            // TODO: determine sendid, origin, originType and invokeid based on context later.
-            eventVar = new EventVariable(event.getName(), eventType, null, null, null, null, event.getPayload());
         }
-        systemContext.setLocal(ModulaSystemContext.EVENT_KEY, eventVar);
+        // EventVariable在读取_event时才创建
+        exctx.setCurrentEvent(event, eventType);
     }
 
     public void exitStates(final ModulaExecutionContext exctx, final Step step,
@@ -461,43 +566,45 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
             return;
         }
         Set<EnterableState> configuration = null;
-        ArrayList<EnterableState> exitList = new ArrayList<EnterableState>(step.getExitSet());
-        Collections.sort(exitList, DocumentOrder.reverseDocumentOrderComparator);
+        StateSet exitSet = step.getExitSet();
 
-        for (EnterableState es : exitList) {
+        for (int i = exitSet.last(); i >= 0; i = exitSet.previous(i)) {
+            EnterableState es = exitSet.get(i);
 
             if (es instanceof TransitionalState && ((TransitionalState) es).hasHistory()) {
                 TransitionalState ts = (TransitionalState) es;
                 Set<EnterableState> shallow = null;
                 Set<EnterableState> deep = null;
-                for (History h : ts.getHistory()) {
-                    if (h.isDeep()) {
+                List<History> histories = ts.getHistory();
+                for (int h = 0; h < histories.size(); h++) {
+                    History history = histories.get(h);
+                    if (history.isDeep()) {
                         if (deep == null) {
                             //calculate deep history for a given state once
                             deep = new HashSet<EnterableState>();
-                            for (EnterableState ott : exctx.getScInstance().getCurrentStatus().getStates()) {
-                                if (ott.isDescendantOf(es)) {
-                                    deep.add(ott);
-                                }
-                            }
+                            exctx.getScInstance().getCurrentStatus().getActiveDescendants(es, deep);
                         }
-                        exctx.getScInstance().setLastConfiguration(h, deep);
+                        exctx.getScInstance().setLastConfiguration(history, deep);
                     } else {
                         if (shallow == null) {
                             //calculate shallow history for a given state once
                             if (configuration == null) {
-                                configuration = exctx.getScInstance().getCurrentStatus().getAllStates();
+                                StateSet allStates = exctx.getStepScratch().getConfiguration();
+                                exctx.getScInstance().getCurrentStatus().getAllStates(allStates);
+                                configuration = allStates;
                             }
                             shallow = new HashSet<EnterableState>(ts.getChildren());
                             shallow.retainAll(configuration);
                         }
-                        exctx.getScInstance().setLastConfiguration(h, shallow);
+                        exctx.getScInstance().setLastConfiguration(history, shallow);
                     }
                 }
             }
 
             boolean onexitEventRaised = false;
-            for (OnExit onexit : es.getOnExits()) {
+            List<OnExit> onexits = es.getOnExits();
+            for (int j = 0; j < onexits.size(); j++) {
+                OnExit onexit = onexits.get(j);
                 executeContent(exctx, onexit);
                 if (!onexitEventRaised && onexit.isRaiseEvent()) {
                     onexitEventRaised = true;
@@ -509,25 +616,30 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
 
             if (es instanceof TransitionalState && !statesToInvoke.remove(es)) {
                 // check if invokers are active in this state
-                for (Invoke inv : ((TransitionalState) es).getInvokes()) {
+                for (Invoke inv : ((TransitionalState) es).getInvokeArray()) {
                     exctx.cancelInvoker(inv);
                 }
             }
 
         }
-        exctx.getScInstance().getCurrentStatus().getStates().removeAll(exitList);
+        Status status = exctx.getScInstance().getCurrentStatus();
+        for (int i = exitSet.first(); i >= 0; i = exitSet.next(i)) {
+            status.remove(exitSet.get(i));
+        }
     }
 
     public void executeTransitionContent(final ModulaExecutionContext exctx, final Step step) throws ModelException {
-        for (SimpleTransition transition : step.getTransitList()) {
-            executeContent(exctx, transition);
+        List<SimpleTransition> transitList = step.getTransitList();
+        for (int i = 0; i < transitList.size(); i++) {
+            executeContent(exctx, transitList.get(i));
         }
     }
 
     public void executeContent(ModulaExecutionContext exctx, Executable exec) throws ModelException {
         try {
-            for (Action action : exec.getActions()) {
-                action.execute(exctx.getActionExecutionContext());
+            List<Action> actions = exec.getActions();
+            for (int i = 0; i < actions.size(); i++) {
+                actions.get(i).execute(exctx.getActionExecutionContext());
             }
         } catch (ModelException e) {
             exctx.getInternalIOProcessor().addEvent(new TriggerEvent(TriggerEvent.ERROR_EXECUTION, TriggerEvent.ERROR_EVENT));
@@ -535,10 +647,11 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
         }
         if (exec instanceof Transition) {
             Transition t = (Transition) exec;
-            if (t.getTargets().isEmpty()) {
+            TransitionTarget[] targets = t.getTargetArray();
+            if (targets.length == 0) {
                 notifyOnTransition(exctx, t, t.getParent());
             } else {
-                for (TransitionTarget tt : t.getTargets()) {
+                for (TransitionTarget tt : targets) {
                     notifyOnTransition(exctx, t, tt);
                 }
             }
@@ -547,8 +660,7 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
 
     public void notifyOnTransition(final ModulaExecutionContext exctx, final Transition t,
                                    final TransitionTarget target) {
-        EventVariable event = (EventVariable) exctx.getScInstance().getSystemContext().getVars().get(ModulaSystemContext.EVENT_KEY);
-        String eventName = event != null ? event.getName() : null;
+        String eventName = exctx.getCurrentEventName();
         exctx.getNotificationRegistry().fireOnTransition(t, t.getParent(), target, t, eventName);
         exctx.getNotificationRegistry().fireOnTransition(exctx.getStateMachine(), t.getParent(), target, t, eventName);
     }
@@ -569,20 +681,21 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
         if (step.getEntrySet().isEmpty()) {
             return;
         }
-        Set<EnterableState> configuration = null;
-        ArrayList<EnterableState> entryList = new ArrayList<EnterableState>(step.getEntrySet());
-        Collections.sort(entryList, DocumentOrder.documentOrderComparator);
-        for (EnterableState es : entryList) {
+        StateSet entrySet = step.getEntrySet();
+        for (int i = entrySet.first(); i >= 0; i = entrySet.next(i)) {
+            EnterableState es = entrySet.get(i);
             if (es.isAtomicState()) {
                 // only track actomic active states in Status
-                exctx.getScInstance().getCurrentStatus().getStates().add(es);
+                exctx.getScInstance().getCurrentStatus().add(es);
             }
             if (es instanceof TransitionalState && !((TransitionalState) es).getInvokes().isEmpty()) {
                 statesToInvoke.add((TransitionalState) es);
             }
 
             boolean onentryEventRaised = false;
-            for (OnEntry onentry : es.getOnEntries()) {
+            List<OnEntry> onentries = es.getOnEntries();
+            for (int j = 0; j < onentries.size(); j++) {
+                OnEntry onentry = onentries.get(j);
                 executeContent(exctx, onentry);
                 if (!onentryEventRaised && onentry.isRaiseEvent()) {
                     onentryEventRaised = true;
@@ -612,17 +725,17 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
     }
 
     /**
-     * 暂时不支持
+     * 启动进入的状态上的invoke，内置类型的子状态机见{@link modula.executor.core.invoke.ModulaInvoker}
      */
     public void initiateInvokes(final ModulaExecutionContext exctx,
                                 final Set<TransitionalState> statesToInvoke) {
-        SCInstance scInstance = exctx.getScInstance();
         for (TransitionalState ts : statesToInvoke) {
-            if (ts.getInvokes().isEmpty()) {
+            Invoke[] invokes = ts.getInvokeArray();
+            if (invokes.length == 0) {
                 continue;
             }
-            Context context = scInstance.getContext(ts);
-            for (Invoke i : ts.getInvokes()) {
+            Context context = exctx.getContext(ts);
+            for (Invoke i : invokes) {
                 String src = i.getSrc();
                 if (src == null) {
                     String srcexpr = i.getSrcexpr();
@@ -640,7 +753,7 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
                 }
                 Invoker inv;
                 try {
-                    inv = exctx.newInvoker(i.getType());
+                    inv = exctx.newInvoker(i, source);
                 } catch (InvokerException ie) {
                     exctx.getInternalIOProcessor().addEvent(new TriggerEvent("failed.invoke." + ts.getId(), TriggerEvent.ERROR_EVENT));
                     continue;
@@ -669,7 +782,9 @@ public class ModulaSemanticsImpl implements ModulaSemantics {
                 }
                 String invokeId = exctx.setInvoker(i, inv);
                 inv.setInvokeId(invokeId);
-                inv.setParentIOProcessor(exctx.getExternalIOProcessor());
+                // 异步invoker在其他线程上完成，结果按实例投递
+                inv.setParentIOProcessor(inv instanceof AsyncInvoker
+                        ? exctx.newAsyncIOProcessor() : exctx.getExternalIOProcessor());
 
                 try {
                     inv.invoke(source, args);
@@ -0,0 +1,166 @@
+package modula.executor.core.semantics;
+
+import modula.executor.core.StateBits;
+import modula.parser.model.EnterableState;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * @description: 按状态下标保存的状态集合，用于单步计算中可复用的临时集合
+ * 增删查都是位操作，不分配内存；状态下标按文档顺序分配，用{@link #first()}/{@link #next(int)}、
+ * {@link #last()}/{@link #previous(int)}按文档顺序或逆序遍历，不需要排序
+ * @author: gubing.gb
+ * @date: 2017/4/7.
+ */
+public final class StateSet extends AbstractSet<EnterableState> {
+    /**
+     * 状态表，下标为{@link EnterableState#getIndex()}
+     */
+    private final EnterableState[] table;
+
+    private final long[] bits;
+
+    public StateSet(EnterableState[] table) {
+        this.table = table;
+        this.bits = new long[StateBits.words(table.length)];
+    }
+
+    @Override
+    public boolean add(EnterableState state) {
+        int index = state.getIndex();
+        if (StateBits.get(bits, index)) {
+            return false;
+        }
+        StateBits.set(bits, index);
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!contains(o)) {
+            return false;
+        }
+        StateBits.clear(bits, ((EnterableState) o).getIndex());
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof EnterableState)) {
+            return false;
+        }
+        int index = ((EnterableState) o).getIndex();
+        return index < table.length && table[index] == o && StateBits.get(bits, index);
+    }
+
+    @Override
+    public int size() {
+        return StateBits.cardinality(bits);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return StateBits.isEmpty(bits);
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = 0L;
+        }
+    }
+
+    /**
+     * 加入位图中的所有状态
+     *
+     * @param mask 状态位图，如{@link EnterableState#getAncestorMask()}
+     */
+    public void addAll(long[] mask) {
+        StateBits.or(bits, mask);
+    }
+
+    /**
+     * 加入同时在a和b中的状态
+     */
+    public void addIntersection(long[] a, long[] b) {
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= a[i] & b[i];
+        }
+    }
+
+    /**
+     * @return 内部位图，只读
+     */
+    public long[] bits() {
+        return bits;
+    }
+
+    /**
+     * @return 文档顺序第一个状态的下标，没有返回-1
+     */
+    public int first() {
+        return StateBits.next(bits, 0);
+    }
+
+    /**
+     * @return 下一个状态的下标，没有返回-1
+     */
+    public int next(int index) {
+        return StateBits.next(bits, index + 1);
+    }
+
+    /**
+     * @return 文档顺序最后一个状态的下标，没有返回-1
+     */
+    public int last() {
+        return StateBits.previous(bits, table.length - 1);
+    }
+
+    /**
+     * @return 上一个状态的下标，没有返回-1
+     */
+    public int previous(int index) {
+        return StateBits.previous(bits, index - 1);
+    }
+
+    /**
+     * @return 下标对应的状态
+     */
+    public EnterableState get(int index) {
+        return table[index];
+    }
+
+    @Override
+    public Iterator<EnterableState> iterator() {
+        return new Iterator<EnterableState>() {
+            private int next = first();
+            private int current = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public EnterableState next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next = StateSet.this.next(current);
+                return table[current];
+            }
+
+            @Override
+            public void remove() {
+                if (current < 0) {
+                    throw new IllegalStateException();
+                }
+                StateBits.clear(bits, current);
+                current = -1;
+            }
+        };
+    }
+}
@@ -37,42 +37,69 @@ public class Step {
     /**
      * 出口State
      */
-    private Set<EnterableState> exitSet;
+    private final StateSet exitSet;
 
     /**
      * 入口State
      */
-    private Set<EnterableState> entrySet;
+    private final StateSet entrySet;
 
     /**
      * 默认入口State
      */
-    private Set<EnterableState> defaultEntrySet;
+    private final StateSet defaultEntrySet;
 
-    private Map<TransitionalState, SimpleTransition> defaultHistoryTransitionEntryMap;
+    private final Map<TransitionalState, SimpleTransition> defaultHistoryTransitionEntryMap;
     /**
      * 转移集合
      */
-    private List<SimpleTransition> transitList;
+    private final List<SimpleTransition> transitList;
 
     /**
-     * @param event 收到事件
+     * 出入口集合已由缓存的{@link StepPlan}填好
      */
-    public Step(TriggerEvent event) {
-        this.event = event;
-        this.exitSet = new HashSet<EnterableState>();
-        this.entrySet = new HashSet<EnterableState>();
-        this.defaultEntrySet = new HashSet<EnterableState>();
+    private boolean planned;
+
+    /**
+     * 由{@link StepPlanCache}未命中后选出，且计算过程没有用到cond和history，结果可以缓存
+     */
+    private boolean cacheable;
+
+    /**
+     * @param table 状态表，见{@link modula.parser.model.Modula#getStates()}
+     */
+    public Step(EnterableState[] table) {
+        this.exitSet = new StateSet(table);
+        this.entrySet = new StateSet(table);
+        this.defaultEntrySet = new StateSet(table);
         this.defaultHistoryTransitionEntryMap = new HashMap<TransitionalState, SimpleTransition>();
         this.transitList = new ArrayList<SimpleTransition>();
     }
 
+    /**
+     * 复用前清空上一次的计算结果
+     *
+     * @param event 收到事件
+     */
+    public void reset(TriggerEvent event) {
+        this.event = event;
+        exitSet.clear();
+        entrySet.clear();
+        defaultEntrySet.clear();
+        if (!defaultHistoryTransitionEntryMap.isEmpty()) {
+            defaultHistoryTransitionEntryMap.clear();
+        }
+        transitList.clear();
+        planned = false;
+        cacheable = false;
+    }
+
 
-    public Set<EnterableState> getEntrySet() {
+    public StateSet getEntrySet() {
         return entrySet;
     }
 
-    public Set<EnterableState> getDefaultEntrySet() {
+    public StateSet getDefaultEntrySet() {
         return defaultEntrySet;
     }
 
@@ -80,7 +107,7 @@ public class Step {
         return defaultHistoryTransitionEntryMap;
     }
 
-    public Set<EnterableState> getExitSet() {
+    public StateSet getExitSet() {
         return exitSet;
     }
 
@@ -91,5 +118,21 @@ public class Step {
     public List<SimpleTransition> getTransitList() {
         return transitList;
     }
+
+    public boolean isPlanned() {
+        return planned;
+    }
+
+    public void setPlanned(boolean planned) {
+        this.planned = planned;
+    }
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public void setCacheable(boolean cacheable) {
+        this.cacheable = cacheable;
+    }
 }
 
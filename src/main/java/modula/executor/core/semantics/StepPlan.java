@@ -0,0 +1,59 @@
+package modula.executor.core.semantics;
+
+import modula.parser.model.SimpleTransition;
+
+import java.util.List;
+
+/**
+ * @description: 已解析好的单步计划：选中的transition、出口/入口/默认入口状态
+ * 出入口集合以状态位图保存，按下标遍历即为文档顺序（出口逆序），回放时直接拷进{@link Step}
+ * 只缓存不依赖cond和history的结果，见{@link StepPlanCache}
+ * @author: gubing.gb
+ * @date: 2017/4/8.
+ */
+public final class StepPlan {
+    private static final SimpleTransition[] NO_TRANSITIONS = new SimpleTransition[0];
+
+    private final SimpleTransition[] transitions;
+
+    private final long[] exitBits;
+
+    private final long[] entryBits;
+
+    private final long[] defaultEntryBits;
+
+    /**
+     * 记录已计算好出入口集合的step
+     */
+    StepPlan(final Step step) {
+        List<SimpleTransition> transitList = step.getTransitList();
+        this.transitions = transitList.isEmpty() ? NO_TRANSITIONS
+                : transitList.toArray(new SimpleTransition[transitList.size()]);
+        this.exitBits = step.getExitSet().bits().clone();
+        this.entryBits = step.getEntrySet().bits().clone();
+        this.defaultEntryBits = step.getDefaultEntrySet().bits().clone();
+    }
+
+    /**
+     * 没有transition可用
+     */
+    public boolean isEmpty() {
+        return transitions.length == 0;
+    }
+
+    /**
+     * 回放到step，step需已{@link Step#reset}
+     */
+    public void applyTo(final Step step) {
+        List<SimpleTransition> transitList = step.getTransitList();
+        for (int i = 0; i < transitions.length; i++) {
+            transitList.add(transitions[i]);
+        }
+        if (transitions.length > 0) {
+            step.getExitSet().addAll(exitBits);
+            step.getEntrySet().addAll(entryBits);
+            step.getDefaultEntrySet().addAll(defaultEntryBits);
+        }
+        step.setPlanned(true);
+    }
+}
@@ -0,0 +1,111 @@
+package modula.executor.core.semantics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @description: 单步计划缓存，按(当前配置, 事件名)缓存{@link StepPlan}，LRU淘汰
+ * 每个执行上下文一份，单线程使用；查找时复用同一个探测key，命中时不分配内存
+ * @author: gubing.gb
+ * @date: 2017/4/8.
+ */
+public final class StepPlanCache {
+    public static final int DEFAULT_CAPACITY = 512;
+
+    private final int capacity;
+
+    private final Map<Key, StepPlan> plans;
+
+    /**
+     * 最近一次{@link #get}的key，{@link #put}以它为准
+     */
+    private final Key probe;
+
+    public StepPlanCache(final int words, final int capacity) {
+        this.capacity = capacity;
+        this.probe = new Key(new long[words]);
+        this.plans = new LinkedHashMap<Key, StepPlan>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, StepPlan> eldest) {
+                return size() > StepPlanCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * 查找计划，同时记下key供之后的{@link #put}使用
+     *
+     * @param configuration 当前完整配置的位图
+     * @param eventName     事件名，null为无事件transition
+     */
+    public StepPlan get(final long[] configuration, final String eventName) {
+        probe.set(configuration, eventName);
+        if (capacity <= 0) {
+            return null;
+        }
+        return plans.get(probe);
+    }
+
+    /**
+     * 以最近一次{@link #get}的key缓存计划
+     */
+    public void put(final StepPlan plan) {
+        if (capacity > 0) {
+            plans.put(probe.copy(), plan);
+        }
+    }
+
+    public int size() {
+        return plans.size();
+    }
+
+    public void clear() {
+        plans.clear();
+    }
+
+    private static final class Key {
+        private final long[] bits;
+
+        private String eventName;
+
+        private int hash;
+
+        Key(final long[] bits) {
+            this.bits = bits;
+        }
+
+        void set(final long[] configuration, final String eventName) {
+            System.arraycopy(configuration, 0, bits, 0, bits.length);
+            this.eventName = eventName;
+            this.hash = Arrays.hashCode(bits) * 31 + (eventName == null ? 0 : eventName.hashCode());
+        }
+
+        Key copy() {
+            Key key = new Key(bits.clone());
+            key.eventName = eventName;
+            key.hash = hash;
+            return key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && Arrays.equals(bits, other.bits)
+                    && (eventName == null ? other.eventName == null : eventName.equals(other.eventName));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package modula.executor.core.semantics;
+
+import modula.executor.core.StateBits;
+import modula.parser.model.EnterableState;
+import modula.parser.model.History;
+import modula.parser.model.Modula;
+import modula.parser.model.Transition;
+import modula.parser.model.TransitionalState;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * @description: 单步计算用的临时结构，每个执行上下文一份，每步清空复用
+ * 执行器单线程使用，稳定状态下处理一个事件不再分配Step、集合和排序用的列表
+ * @author: gubing.gb
+ * @date: 2017/4/7.
+ */
+public class StepScratch {
+    private final Step step;
+
+    /**
+     * 当前完整配置（含祖先），按文档顺序
+     */
+    private final StateSet configuration;
+
+    /**
+     * selectTransitions中已检查过的祖先
+     */
+    private final StateSet visited;
+
+    /**
+     * computeEntrySet的目标状态
+     */
+    private final StateSet entryTargets;
+
+    private final List<History> historyTargets = new ArrayList<History>();
+
+    private final List<Transition> enabledTransitions = new ArrayList<Transition>();
+
+    private final Set<TransitionalState> statesToInvoke = new HashSet<TransitionalState>();
+
+    private final StepPlanCache planCache;
+
+    public StepScratch(Modula modula) {
+        EnterableState[] table = modula.getStates();
+        this.step = new Step(table);
+        this.configuration = new StateSet(table);
+        this.visited = new StateSet(table);
+        this.entryTargets = new StateSet(table);
+        this.planCache = new StepPlanCache(StateBits.words(table.length), StepPlanCache.DEFAULT_CAPACITY);
+    }
+
+    public Step getStep() {
+        return step;
+    }
+
+    public StateSet getConfiguration() {
+        return configuration;
+    }
+
+    public StateSet getVisited() {
+        return visited;
+    }
+
+    public StateSet getEntryTargets() {
+        return entryTargets;
+    }
+
+    public List<History> getHistoryTargets() {
+        return historyTargets;
+    }
+
+    public List<Transition> getEnabledTransitions() {
+        return enabledTransitions;
+    }
+
+    public Set<TransitionalState> getStatesToInvoke() {
+        return statesToInvoke;
+    }
+
+    public StepPlanCache getPlanCache() {
+        return planCache;
+    }
+}
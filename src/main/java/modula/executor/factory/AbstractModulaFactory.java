@@ -1,5 +1,6 @@
 package modula.executor.factory;
 
+import modula.executor.core.evaluator.Evaluator;
 import modula.parser.io.ModulaReader;
 import modula.parser.model.Action;
 import modula.parser.model.CustomAction;
@@ -15,20 +16,35 @@ import java.util.Map;
  * @date: 2017/1/1.
  */
 public abstract class AbstractModulaFactory implements ModulaFactory {
+    /**
+     * cond编译器，为null时使用默认的表达式编译器
+     */
+    private Evaluator evaluator;
+
     protected ModulaReader.Configuration getConfiguration(Map<String, Class> actionMap) {
-        if (actionMap == null || actionMap.isEmpty()) {
-            return new ModulaReader.Configuration(null, null, Configuration.BUILTIN_ACTIONS);
-        }
-        List<CustomAction> customActions = new ArrayList<CustomAction>();
-        customActions.addAll(Configuration.BUILTIN_ACTIONS);
-        for (Map.Entry<String, Class> entry : actionMap.entrySet()) {
-            if (entry.getKey() != null && entry.getValue() != null) {
-                Class actionClass = entry.getValue();
+        List<CustomAction> customActions = Configuration.BUILTIN_ACTIONS;
+        if (actionMap != null && !actionMap.isEmpty()) {
+            customActions = new ArrayList<CustomAction>();
+            customActions.addAll(Configuration.BUILTIN_ACTIONS);
+            for (Map.Entry<String, Class> entry : actionMap.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    Class actionClass = entry.getValue();
 
-                customActions.add(new CustomAction(Configuration.DEFAULT_NAMESAPCE, entry.getKey(), actionClass));
+                    customActions.add(new CustomAction(Configuration.DEFAULT_NAMESAPCE, entry.getKey(), actionClass));
+                }
             }
         }
-        return new ModulaReader.Configuration(null, null, customActions);
+        ModulaReader.Configuration configuration = new ModulaReader.Configuration(null, null, customActions);
+        configuration.setEvaluator(evaluator);
+        return configuration;
+    }
+
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    public void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
     }
 
 
@@ -1,6 +1,7 @@
 package modula.executor.factory;
 
 import modula.parser.model.ModelException;
+import modula.parser.io.CompiledModulaCache;
 import modula.parser.io.ModulaReader;
 import modula.parser.model.Modula;
 
@@ -17,13 +18,29 @@ import java.util.Map;
 public class URLModulaFactory extends AbstractModulaFactory {
     private final URL modulaURL;
 
+    /**
+     * 预编译模型缓存，为null时每次都解析文档
+     */
+    private CompiledModulaCache modelCache;
+
     public URLModulaFactory(URL modulaURL) {
         this.modulaURL = modulaURL;
     }
 
     @Override
     public Modula createModula(Map<String, Class> actionMap) throws ModelException, XMLStreamException, IOException {
+        if (modelCache != null) {
+            return modelCache.read(modulaURL, getConfiguration(actionMap));
+        }
         Modula modula = ModulaReader.read(modulaURL, getConfiguration(actionMap));
         return modula;
     }
+
+    public CompiledModulaCache getModelCache() {
+        return modelCache;
+    }
+
+    public void setModelCache(CompiledModulaCache modelCache) {
+        this.modelCache = modelCache;
+    }
 }
@@ -1,10 +1,14 @@
 package modula.executor.factory;
 
 import modula.engine.context.StateMachineBuildContext;
+import modula.executor.core.evaluator.Evaluator;
+import modula.executor.core.evaluator.Guard;
 import modula.listener.DefaultWorkflowListener;
+import modula.parser.io.CompiledModulaCache;
 import org.springframework.beans.factory.config.AbstractFactoryBean;
 import org.springframework.util.ClassUtils;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -40,6 +44,27 @@ public class WorkflowSpringFactoryBean extends AbstractFactoryBean {
         this.buildContext.setActions(actionMap);
     }
 
+    /**
+     * 按名字注册cond条件，类需实现{@link Guard}
+     */
+    public void setGuard(Map<String, Class<? extends Guard>> guardMap) {
+        this.buildContext.setGuards(guardMap);
+    }
+
+    /**
+     * 替换默认的cond编译器
+     */
+    public void setEvaluator(Evaluator evaluator) {
+        this.buildContext.setEvaluator(evaluator);
+    }
+
+    /**
+     * 预编译模型的缓存目录，设置后解析结果写入该目录，下次启动时直接加载
+     */
+    public void setCacheDirectory(String cacheDirectory) {
+        this.buildContext.setModelCache(new CompiledModulaCache(new File(cacheDirectory)));
+    }
+
     public void setListeners(List<DefaultWorkflowListener> listeners) {
         this.buildContext.setListeners(listeners);
     }
@@ -1,7 +1,12 @@
 package modula.executor.statemachine;
 
 
+import modula.executor.core.evaluator.Evaluator;
+import modula.executor.core.evaluator.ExpressionEvaluator;
+import modula.executor.core.evaluator.Guard;
+import modula.executor.factory.AbstractModulaFactory;
 import modula.listener.DefaultWorkflowListener;
+import modula.parser.io.CompiledModulaCache;
 import modula.parser.model.ModelException;
 import modula.parser.model.Modula;
 import modula.executor.factory.ModulaFactory;
@@ -27,6 +32,21 @@ public class StateMachineBuilder {
      */
     private Map<String, Class> actions = null;
 
+    /**
+     * 按名字注册的cond条件，在cond中以name()调用
+     */
+    private Map<String, Class<? extends Guard>> guards = null;
+
+    /**
+     * cond编译器，为null时使用{@link ExpressionEvaluator}
+     */
+    private Evaluator evaluator = null;
+
+    /**
+     * 预编译模型缓存，为null时每次都解析文档
+     */
+    private CompiledModulaCache modelCache = null;
+
     /**
      * 状态机监听器
      */
@@ -45,12 +65,7 @@ public class StateMachineBuilder {
     public StateMachine build() throws ModelException, XMLStreamException, IOException {
         verify();
 
-        Modula modula = modulaCache.get();
-        if (modula == null) {
-            int version = modulaCache.version.get();
-            modula = modulaFactory.createModula(actions);
-            modulaCache.set(version, modula);
-        }
+        Modula modula = getModula();
 
         DefaultStateMachine stateMachine = new DefaultStateMachine(modula);
         stateMachine.addListener(listeners.toArray(new DefaultWorkflowListener[listeners.size()]));
@@ -58,9 +73,90 @@ public class StateMachineBuilder {
         return stateMachine;
     }
 
+    /**
+     * 创建共享定义，执行器和实例由调用方按需创建
+     */
+    public StateMachineDefinition buildDefinition() throws ModelException, XMLStreamException, IOException {
+        verify();
+
+        return new StateMachineDefinition(getModula(), listeners);
+    }
+
+    /**
+     * 重新解析文档创建新定义，之后{@link #build()}和{@link #buildDefinition()}都使用新模型，
+     * 已创建的状态机和定义不受影响
+     */
+    public StateMachineDefinition reloadDefinition() throws ModelException, XMLStreamException, IOException {
+        verify();
+
+        Modula modula = createModula();
+        modulaCache.set(modula);
+        return new StateMachineDefinition(modula, listeners);
+    }
+
+    /**
+     * @return 模型版本，每次创建或重新加载加一
+     */
+    public int getVersion() {
+        return modulaCache.version.get();
+    }
+
+    private Modula getModula() throws ModelException, XMLStreamException, IOException {
+        Modula modula = modulaCache.get();
+        if (modula == null) {
+            int version = modulaCache.version.get();
+            Modula created = createModula();
+            // 并发创建时以先写入的为准
+            if (modulaCache.set(version, created)) {
+                return created;
+            }
+            modula = modulaCache.get();
+            if (modula == null) {
+                modula = created;
+            }
+        }
+        return modula;
+    }
+
+    private Modula createModula() throws ModelException, XMLStreamException, IOException {
+        if (modulaFactory instanceof AbstractModulaFactory) {
+            ((AbstractModulaFactory) modulaFactory).setEvaluator(getEvaluator());
+        }
+        if (modulaFactory instanceof URLModulaFactory) {
+            ((URLModulaFactory) modulaFactory).setModelCache(modelCache);
+        }
+        return modulaFactory.createModula(actions);
+    }
+
     private void verify() {
     }
 
+    /**
+     * 未设置evaluator时用注册的guard创建默认的表达式编译器
+     */
+    private Evaluator getEvaluator() throws ModelException {
+        if (evaluator != null) {
+            return evaluator;
+        }
+        Map<String, Guard> predicates = new HashMap<String, Guard>();
+        if (guards != null) {
+            for (Map.Entry<String, Class<? extends Guard>> entry : guards.entrySet()) {
+                Object guard;
+                try {
+                    guard = entry.getValue().getDeclaredConstructor().newInstance();
+                } catch (Exception e) {
+                    throw new ModelException("Cannot instantiate guard class:" + entry.getValue().getName(), e);
+                }
+                if (!(guard instanceof Guard)) {
+                    throw new ModelException("Guard class must implement " + Guard.class.getName() + ":"
+                            + entry.getValue().getName());
+                }
+                predicates.put(entry.getKey(), (Guard) guard);
+            }
+        }
+        return new ExpressionEvaluator(predicates);
+    }
+
     public StateMachineBuilder url(URL modulaURL) {
         this.modulaFactory = new URLModulaFactory(modulaURL);
         return this;
@@ -79,6 +175,29 @@ public class StateMachineBuilder {
         return this;
     }
 
+    public StateMachineBuilder setGuards(Map<String, Class<? extends Guard>> guards) {
+        this.guards = guards;
+        return this;
+    }
+
+    public StateMachineBuilder addGuard(String name, Class<? extends Guard> clazz) {
+        if (guards == null) {
+            guards = new HashMap<String, Class<? extends Guard>>();
+        }
+        guards.put(name, clazz);
+        return this;
+    }
+
+    public StateMachineBuilder setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+        return this;
+    }
+
+    public StateMachineBuilder setModelCache(CompiledModulaCache modelCache) {
+        this.modelCache = modelCache;
+        return this;
+    }
+
     public StateMachineBuilder setListeners(List<DefaultWorkflowListener> listeners) {
         this.listeners = listeners;
         return this;
@@ -98,11 +217,18 @@ public class StateMachineBuilder {
             return modula;
         }
 
-        public int set(int current, Modula modula) {
-            if (version.compareAndSet(current, current + 1)) {
-                this.modula = modula;
+        /**
+         * 版本没有变化时写入，先写模型再加版本，读到新版本的线程一定能读到模型
+         *
+         * @return 是否写入
+         */
+        public synchronized boolean set(int current, Modula modula) {
+            if (version.get() != current) {
+                return false;
             }
-            return version.get();
+            this.modula = modula;
+            version.incrementAndGet();
+            return true;
         }
 
         public synchronized int set(Modula modula) {
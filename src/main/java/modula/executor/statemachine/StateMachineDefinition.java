@@ -0,0 +1,100 @@
+package modula.executor.statemachine;
+
+import modula.executor.core.ModulaExecutor;
+import modula.executor.core.SCInstance;
+import modula.executor.core.evaluator.TransitionGuard;
+import modula.executor.core.semantics.CompiledModulaSemantics;
+import modula.listener.DefaultWorkflowListener;
+import modula.parser.model.ModelException;
+import modula.parser.model.Modula;
+import modula.parser.model.EnterableState;
+import modula.parser.model.Observable;
+import modula.parser.model.Transition;
+import modula.parser.model.TransitionalState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @description: 状态机定义，解析后的Modula和监听器在所有实例间共享
+ * 执行器按线程创建（{@link ModulaExecutor}非线程安全），实例只保存自身状态，执行时绑定到执行器
+ * @author: gubing.gb
+ * @date: 2017/4/6.
+ */
+public class StateMachineDefinition {
+    private final Modula modula;
+    private final List<DefaultWorkflowListener> listeners;
+
+    /**
+     * 是否用编译执行的语义实现，见{@link CompiledModulaSemantics}
+     */
+    private boolean compiled;
+
+    public StateMachineDefinition(Modula modula, List<DefaultWorkflowListener> listeners) {
+        this.modula = modula;
+        this.listeners = listeners != null ? listeners : Collections.<DefaultWorkflowListener>emptyList();
+    }
+
+    /**
+     * 创建执行器，注册定义上的监听器
+     */
+    public ModulaExecutor newExecutor() throws ModelException {
+        ModulaExecutor executor = new ModulaExecutor(null, null, compiled ? new CompiledModulaSemantics() : null);
+        executor.setStateMachine(modula);
+        for (DefaultWorkflowListener listener : listeners) {
+            Observable observable;
+            if (listener.getId() == null || "modula".equals(listener.getId())) {
+                observable = modula;
+            } else {
+                observable = modula.getTargets().get(listener.getId());
+            }
+            if (observable != null) {
+                executor.addListener(observable, listener);
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 创建实例
+     *
+     * @param key 流程key，作为实例id
+     */
+    public SCInstance newInstance(String key) {
+        return new SCInstance(key);
+    }
+
+    public Modula getModula() {
+        return modula;
+    }
+
+    public List<DefaultWorkflowListener> getListeners() {
+        return listeners;
+    }
+
+    /**
+     * 获取所有带cond的transition，可以从中读取每个transition的求值次数和耗时
+     */
+    public List<TransitionGuard> getGuards() {
+        List<TransitionGuard> guards = new ArrayList<TransitionGuard>();
+        for (EnterableState es : modula.getStates()) {
+            if (es instanceof TransitionalState) {
+                for (Transition t : ((TransitionalState) es).getTransitionsList()) {
+                    if (t.getGuard() != null) {
+                        guards.add(t.getGuard());
+                    }
+                }
+            }
+        }
+        return guards;
+    }
+
+    public boolean isCompiled() {
+        return compiled;
+    }
+
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+}
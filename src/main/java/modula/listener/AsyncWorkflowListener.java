@@ -0,0 +1,388 @@
+package modula.listener;
+
+import modula.parser.model.EnterableState;
+import modula.parser.model.Transition;
+import modula.parser.model.TransitionTarget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @description: 异步listener，执行线程只把通知写入预分配的环形缓冲区，由单独的线程批量转发给delegate，
+ * 慢的日志输出不再拖慢状态机单步；缓冲区满时按{@link OverflowPolicy}处理
+ * @author: gubing.gb
+ * @date: 2017/4/9.
+ */
+public class AsyncWorkflowListener extends DefaultWorkflowListener implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncWorkflowListener.class);
+
+    private static final int ENTRY = 0;
+
+    private static final int EXIT = 1;
+
+    private static final int TRANSITION = 2;
+
+    /**
+     * 消费线程空闲时park的最长时间
+     */
+    private static final long PARK_NANOS = 1000000L;
+
+    /**
+     * 消费线程退出时写入{@link #claimed}，之后不能再分配序号
+     */
+    private static final long SHUTDOWN = Long.MAX_VALUE;
+
+    /**
+     * {@link #claim()}的返回值：按策略丢弃
+     */
+    private static final long DROPPED = -1;
+
+    /**
+     * {@link #claim()}的返回值：消费线程已退出
+     */
+    private static final long CLOSED = -2;
+
+    /**
+     * 缓冲区满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /**
+         * 等待消费线程腾出空间
+         */
+        BLOCK,
+        /**
+         * 丢弃当前通知
+         */
+        DROP,
+        /**
+         * 每sampleRate个溢出的通知等待一次，其余丢弃
+         */
+        SAMPLE
+    }
+
+    /**
+     * 实际处理通知的listener
+     */
+    private ModulaListener delegate = new DefaultWorkflowListener();
+
+    /**
+     * 缓冲区大小，向上取整为2的幂
+     */
+    private int bufferSize = 4096;
+
+    /**
+     * 消费线程一次最多转发的通知数
+     */
+    private int batchSize = 256;
+
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    private int sampleRate = 16;
+
+    private Record[] ring;
+
+    private int mask;
+
+    /**
+     * 最后分配的序号
+     */
+    private final AtomicLong claimed = new AtomicLong(-1);
+
+    /**
+     * 最后转发完的序号，只由消费线程写
+     */
+    private volatile long consumed = -1;
+
+    private final AtomicLong overflows = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * 通知从写入到转发的最大延迟，只由消费线程写
+     */
+    private volatile long maxLagNanos;
+
+    private Thread consumer;
+
+    private volatile boolean running;
+
+    /**
+     * 已关闭，之后的通知直接同步转发
+     */
+    private volatile boolean closed;
+
+    /**
+     * 消费线程是否准备park
+     */
+    private volatile boolean waiting;
+
+    @Override
+    public void onEntry(EnterableState state) {
+        publish(ENTRY, state, null, null, null, null);
+    }
+
+    @Override
+    public void onExit(EnterableState state) {
+        publish(EXIT, state, null, null, null, null);
+    }
+
+    @Override
+    public void onTransition(TransitionTarget from, TransitionTarget to, Transition transition, String event) {
+        publish(TRANSITION, null, from, to, transition, event);
+    }
+
+    /**
+     * 启动消费线程，第一次通知时自动调用
+     */
+    public synchronized void start() {
+        if (consumer != null || closed) {
+            return;
+        }
+        int size = Integer.highestOneBit(Math.max(bufferSize, 2) - 1) << 1;
+        ring = new Record[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Record();
+        }
+        mask = size - 1;
+        running = true;
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        }, "modula-listener-" + getId());
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * 停止消费线程，已写入的通知转发完后返回
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            running = false;
+            thread = consumer;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join();
+        }
+    }
+
+    private void publish(int kind, EnterableState state, TransitionTarget from, TransitionTarget to,
+                         Transition transition, String event) {
+        if (!running) {
+            start();
+            if (closed) {
+                dispatch(kind, state, from, to, transition, event);
+                return;
+            }
+        }
+        long seq = claim();
+        if (seq == CLOSED) {
+            // 看到running之后消费线程才退出，直接同步转发
+            dispatch(kind, state, from, to, transition, event);
+            return;
+        }
+        if (seq == DROPPED) {
+            return;
+        }
+        Record record = ring[(int) seq & mask];
+        record.kind = kind;
+        record.state = state;
+        record.from = from;
+        record.to = to;
+        record.transition = transition;
+        record.event = event;
+        record.timestamp = System.nanoTime();
+        record.sequence = seq;
+        if (waiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * 分配序号，缓冲区满且按策略丢弃时返回{@link #DROPPED}，消费线程已退出时返回{@link #CLOSED}
+     */
+    private long claim() {
+        boolean block = false;
+        boolean overflowed = false;
+        while (true) {
+            long current = claimed.get();
+            if (current == SHUTDOWN) {
+                return CLOSED;
+            }
+            long next = current + 1;
+            if (next - consumed <= ring.length) {
+                if (claimed.compareAndSet(current, next)) {
+                    return next;
+                }
+                continue;
+            }
+            if (!overflowed) {
+                overflowed = true;
+                long n = overflows.incrementAndGet();
+                block = overflowPolicy == OverflowPolicy.BLOCK
+                        || (overflowPolicy == OverflowPolicy.SAMPLE && n % sampleRate == 0);
+            }
+            if (!block) {
+                dropped.incrementAndGet();
+                return DROPPED;
+            }
+            LockSupport.unpark(consumer);
+            Thread.yield();
+        }
+    }
+
+    private void consume() {
+        long next = consumed + 1;
+        while (true) {
+            int n = 0;
+            Record record = ring[(int) next & mask];
+            while (n < batchSize && record.sequence == next) {
+                long lag = System.nanoTime() - record.timestamp;
+                if (lag > maxLagNanos) {
+                    maxLagNanos = lag;
+                }
+                dispatch(record.kind, record.state, record.from, record.to, record.transition, record.event);
+                record.clear();
+                next++;
+                n++;
+                record = ring[(int) next & mask];
+            }
+            if (n > 0) {
+                consumed = next - 1;
+                continue;
+            }
+            if (!running) {
+                // 所有已分配的序号都转发完后把claimed换成SHUTDOWN，和发布线程的分配互斥，不会丢通知
+                long last = next - 1;
+                if (claimed.get() == last && claimed.compareAndSet(last, SHUTDOWN)) {
+                    return;
+                }
+                // 已分配还没写入，让出cpu等发布线程写完
+                Thread.yield();
+                continue;
+            }
+            waiting = true;
+            if (record.sequence != next && running) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            waiting = false;
+        }
+    }
+
+    private void dispatch(int kind, EnterableState state, TransitionTarget from, TransitionTarget to,
+                          Transition transition, String event) {
+        try {
+            switch (kind) {
+                case ENTRY:
+                    delegate.onEntry(state);
+                    break;
+                case EXIT:
+                    delegate.onExit(state);
+                    break;
+                default:
+                    delegate.onTransition(from, to, transition, event);
+            }
+        } catch (Throwable t) {
+            logger.error("listener dispatch error", t);
+        }
+    }
+
+    public ModulaListener getDelegate() {
+        return delegate;
+    }
+
+    public void setDelegate(ModulaListener delegate) {
+        this.delegate = delegate;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return 缓冲区满的次数
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    /**
+     * @return 丢弃的通知数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return 通知从写入到转发的最大延迟，单位纳秒
+     */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    /**
+     * 缓冲区槽位，预分配并循环使用，sequence写入后对消费线程可见
+     */
+    private static final class Record {
+        volatile long sequence = -1;
+
+        int kind;
+
+        EnterableState state;
+
+        TransitionTarget from;
+
+        TransitionTarget to;
+
+        Transition transition;
+
+        String event;
+
+        long timestamp;
+
+        void clear() {
+            state = null;
+            from = null;
+            to = null;
+            transition = null;
+            event = null;
+        }
+    }
+}
@@ -5,28 +5,49 @@ import modula.parser.model.Observable;
 import modula.parser.model.Transition;
 import modula.parser.model.TransitionTarget;
 
-import java.util.HashMap;
-import java.util.LinkedHashSet;
-import java.util.Map;
-import java.util.Set;
-
 /**
  * listener注册感兴趣的节点例如：Modula root, states, transitions
  * 监控三种事件：onentry,onexit,ontransition
+ * <p>
+ * 注册表按{@link Observable#getObservableId()}（ModelUpdater分配的连续id）下标存放，每个节点按事件类型各保存一个listener数组，
+ * 注册/注销时整体复制替换，通知时不加锁、不装箱、不创建迭代器；注册时可以指定只关心的事件类型，其余类型不会通知到
+ * </p>
  */
 public final class NotificationRegistry {
 
     /**
-     * key:{@link Observable#getObservableId()}.
+     * 事件类型：进入状态
      */
-    private final Map<Integer, Set<ModulaListener>> regs;
+    public static final int ON_ENTRY = 1;
 
     /**
-     * Constructor.
+     * 事件类型：退出状态
      */
-    public NotificationRegistry() {
-        this.regs = new HashMap<Integer, Set<ModulaListener>>();
-    }
+    public static final int ON_EXIT = 1 << 1;
+
+    /**
+     * 事件类型：transition
+     */
+    public static final int ON_TRANSITION = 1 << 2;
+
+    /**
+     * 所有事件类型
+     */
+    public static final int ALL = ON_ENTRY | ON_EXIT | ON_TRANSITION;
+
+    private static final ModulaListener[] NONE = new ModulaListener[0];
+
+    private static final Registration[] EMPTY = new Registration[0];
+
+    /**
+     * 下标:{@link Observable#getObservableId()}，只整体替换
+     */
+    private volatile Registration[] regs = EMPTY;
+
+    /**
+     * 所有已注册listener关心的事件类型
+     */
+    private volatile int mask;
 
     /**
      * Register this ModulaListener for this Observable.
@@ -34,14 +55,27 @@ public final class NotificationRegistry {
      * @param source The observable this listener wants to listen to
      * @param lst    The listener
      */
-    public synchronized void addListener(final Observable source, final ModulaListener lst) {
-        if (source != null && source.getObservableId() != null) {
-            Set<ModulaListener> entries = regs.get(source.getObservableId());
-            if (entries == null) {
-                entries = new LinkedHashSet<ModulaListener>();
-                regs.put(source.getObservableId(), entries);
-            }
-            entries.add(lst);
+    public void addListener(final Observable source, final ModulaListener lst) {
+        addListener(source, lst, ALL);
+    }
+
+    /**
+     * 注册listener，只通知指定类型的事件
+     *
+     * @param source The observable this listener wants to listen to
+     * @param lst    The listener
+     * @param kinds  事件类型，{@link #ON_ENTRY}、{@link #ON_EXIT}、{@link #ON_TRANSITION}的组合
+     */
+    public synchronized void addListener(final Observable source, final ModulaListener lst, final int kinds) {
+        if (source != null && source.getObservableId() != null && lst != null) {
+            int id = source.getObservableId();
+            Registration[] current = regs;
+            Registration[] next = new Registration[Math.max(current.length, id + 1)];
+            System.arraycopy(current, 0, next, 0, current.length);
+            Registration reg = current.length > id ? current[id] : null;
+            next[id] = reg == null ? new Registration(new ModulaListener[]{lst}, new int[]{kinds & ALL})
+                    : reg.with(lst, kinds & ALL);
+            publish(next);
         }
     }
 
@@ -53,12 +87,12 @@ public final class NotificationRegistry {
      */
     public synchronized void removeListener(final Observable source, final ModulaListener lst) {
         if (source != null && source.getObservableId() != null) {
-            Set<ModulaListener> entries = regs.get(source.getObservableId());
-            if (entries != null) {
-                entries.remove(lst);
-                if (entries.size() == 0) {
-                    regs.remove(source.getObservableId());
-                }
+            int id = source.getObservableId();
+            Registration[] current = regs;
+            if (id < current.length && current[id] != null) {
+                Registration[] next = current.clone();
+                next[id] = current[id].without(lst);
+                publish(next);
             }
         }
     }
@@ -70,13 +104,14 @@ public final class NotificationRegistry {
      * @param source The Observable
      * @param state  The EnterableState that was entered
      */
-    public synchronized void fireOnEntry(final Observable source,
-                                         final EnterableState state) {
-        if (source != null && source.getObservableId() != null) {
-            Set<ModulaListener> entries = regs.get(source.getObservableId());
-            if (entries != null) {
-                for (ModulaListener lst : entries) {
-                    lst.onEntry(state);
+    public void fireOnEntry(final Observable source,
+                            final EnterableState state) {
+        if ((mask & ON_ENTRY) != 0) {
+            Registration reg = lookup(source);
+            if (reg != null) {
+                ModulaListener[] listeners = reg.onEntry;
+                for (int i = 0; i < listeners.length; i++) {
+                    listeners[i].onEntry(state);
                 }
             }
         }
@@ -89,13 +124,14 @@ public final class NotificationRegistry {
      * @param source The Observable
      * @param state  The EnterableState that was exited
      */
-    public synchronized void fireOnExit(final Observable source,
-                                        final EnterableState state) {
-        if (source != null && source.getObservableId() != null) {
-            Set<ModulaListener> entries = regs.get(source.getObservableId());
-            if (entries != null) {
-                for (ModulaListener lst : entries) {
-                    lst.onExit(state);
+    public void fireOnExit(final Observable source,
+                           final EnterableState state) {
+        if ((mask & ON_EXIT) != 0) {
+            Registration reg = lookup(source);
+            if (reg != null) {
+                ModulaListener[] listeners = reg.onExit;
+                for (int i = 0; i < listeners.length; i++) {
+                    listeners[i].onExit(state);
                 }
             }
         }
@@ -110,17 +146,128 @@ public final class NotificationRegistry {
      * @param transition The Transition that was taken
      * @param event      The event name triggering the transition
      */
-    public synchronized void fireOnTransition(final Observable source,
-                                              final TransitionTarget from, final TransitionTarget to,
-                                              final Transition transition, final String event) {
-        if (source != null && source.getObservableId() != null) {
-            Set<ModulaListener> entries = regs.get(source.getObservableId());
-            if (entries != null) {
-                for (ModulaListener lst : entries) {
-                    lst.onTransition(from, to, transition, event);
+    public void fireOnTransition(final Observable source,
+                                 final TransitionTarget from, final TransitionTarget to,
+                                 final Transition transition, final String event) {
+        if ((mask & ON_TRANSITION) != 0) {
+            Registration reg = lookup(source);
+            if (reg != null) {
+                ModulaListener[] listeners = reg.onTransition;
+                for (int i = 0; i < listeners.length; i++) {
+                    listeners[i].onTransition(from, to, transition, event);
                 }
             }
         }
     }
-}
 
+    private Registration lookup(final Observable source) {
+        if (source == null) {
+            return null;
+        }
+        Integer id = source.getObservableId();
+        if (id == null) {
+            return null;
+        }
+        Registration[] current = regs;
+        return id < current.length ? current[id] : null;
+    }
+
+    private void publish(final Registration[] next) {
+        int m = 0;
+        for (Registration reg : next) {
+            if (reg != null) {
+                m |= reg.mask;
+            }
+        }
+        regs = next;
+        mask = m;
+    }
+
+    /**
+     * 单个节点的listener，按注册顺序，同一listener只保留一次
+     */
+    private static final class Registration {
+        final ModulaListener[] listeners;
+
+        final int[] kinds;
+
+        final ModulaListener[] onEntry;
+
+        final ModulaListener[] onExit;
+
+        final ModulaListener[] onTransition;
+
+        final int mask;
+
+        Registration(final ModulaListener[] listeners, final int[] kinds) {
+            this.listeners = listeners;
+            this.kinds = kinds;
+            this.onEntry = select(ON_ENTRY);
+            this.onExit = select(ON_EXIT);
+            this.onTransition = select(ON_TRANSITION);
+            int m = 0;
+            for (int k : kinds) {
+                m |= k;
+            }
+            this.mask = m;
+        }
+
+        Registration with(final ModulaListener lst, final int kind) {
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i].equals(lst)) {
+                    int[] k = kinds.clone();
+                    k[i] |= kind;
+                    return new Registration(listeners, k);
+                }
+            }
+            ModulaListener[] l = new ModulaListener[listeners.length + 1];
+            System.arraycopy(listeners, 0, l, 0, listeners.length);
+            l[listeners.length] = lst;
+            int[] k = new int[kinds.length + 1];
+            System.arraycopy(kinds, 0, k, 0, kinds.length);
+            k[kinds.length] = kind;
+            return new Registration(l, k);
+        }
+
+        /**
+         * @return 移除后的注册，没有listener时返回null
+         */
+        Registration without(final ModulaListener lst) {
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i].equals(lst)) {
+                    if (listeners.length == 1) {
+                        return null;
+                    }
+                    ModulaListener[] l = new ModulaListener[listeners.length - 1];
+                    int[] k = new int[kinds.length - 1];
+                    System.arraycopy(listeners, 0, l, 0, i);
+                    System.arraycopy(listeners, i + 1, l, i, l.length - i);
+                    System.arraycopy(kinds, 0, k, 0, i);
+                    System.arraycopy(kinds, i + 1, k, i, k.length - i);
+                    return new Registration(l, k);
+                }
+            }
+            return this;
+        }
+
+        private ModulaListener[] select(final int kind) {
+            int count = 0;
+            for (int k : kinds) {
+                if ((k & kind) != 0) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return NONE;
+            }
+            ModulaListener[] result = new ModulaListener[count];
+            int j = 0;
+            for (int i = 0; i < listeners.length; i++) {
+                if ((kinds[i] & kind) != 0) {
+                    result[j++] = listeners[i];
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -35,9 +35,9 @@ public class URLResolver implements PathResolver, Serializable {
     private static final long serialVersionUID = 1L;
 
     /**
-     * log
+     * log，不随模型序列化
      */
-    private Log log = LogFactory.getLog(PathResolver.class);
+    private static final Log log = LogFactory.getLog(PathResolver.class);
 
     /**
      * baseURL
@@ -0,0 +1,225 @@
+package modula.parser.io;
+
+import modula.parser.model.Action;
+
+import javax.xml.stream.XMLStreamException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @description: 自定义action的属性绑定器，每个action类只生成一次：无参构造器和所有setXxx方法转换成MethodHandle，
+ * 解析文档时按属性名查表直接调用，不再逐个属性拼setter名、getMethod再反射调用
+ * <p>
+ * setter参数除String外支持基本类型及其包装类型和枚举，同名setter有String重载时优先使用。
+ * 类不能实例化、属性没有setter这类错误在生成绑定器时就确定，同一个类只检查一次
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/18.
+ */
+final class ActionBinder {
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final ClassValue<ActionBinder> BINDERS = new ClassValue<ActionBinder>() {
+        @Override
+        protected ActionBinder computeValue(Class<?> type) {
+            return new ActionBinder(type);
+        }
+    };
+
+    private final String className;
+
+    /**
+     * ()Object，类不能实例化时为null
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * 类不能实例化的原因
+     */
+    private final String error;
+
+    private final Throwable cause;
+
+    /**
+     * 属性名到setter的表
+     */
+    private final Map<String, Setter> setters = new HashMap<String, Setter>();
+
+    private ActionBinder(Class<?> clazz) {
+        this.className = clazz.getName();
+        MethodHandle handle = null;
+        String message = null;
+        Throwable throwable = null;
+        if (!Action.class.isAssignableFrom(clazz)) {
+            message = ModulaReader.ERR_CUSTOM_ACTION_TYPE + className;
+        } else if (Modifier.isAbstract(clazz.getModifiers())) {
+            message = "Cannot instantiate custom action class:" + className;
+            throwable = new InstantiationException(className);
+        } else {
+            try {
+                handle = MethodHandles.publicLookup().findConstructor(clazz, MethodType.methodType(void.class))
+                        .asType(CONSTRUCTOR_TYPE);
+            } catch (NoSuchMethodException e) {
+                message = "Cannot instantiate custom action class:" + className;
+                throwable = e;
+            } catch (IllegalAccessException e) {
+                message = "Cannot access custom action class:" + className;
+                throwable = e;
+            }
+        }
+        this.constructor = handle;
+        this.error = message;
+        this.cause = throwable;
+        if (handle != null) {
+            for (Method method : clazz.getMethods()) {
+                addSetter(method);
+            }
+        }
+    }
+
+    /**
+     * @return 类对应的绑定器，每个类只创建一次
+     */
+    static ActionBinder of(Class<?> clazz) {
+        return BINDERS.get(clazz);
+    }
+
+    /**
+     * 创建action实例
+     */
+    Action newInstance() throws XMLStreamException {
+        if (constructor == null) {
+            if (cause == null) {
+                throw new IllegalArgumentException(error);
+            }
+            throw new XMLStreamException(error, cause);
+        }
+        try {
+            return (Action) (Object) constructor.invokeExact();
+        } catch (RuntimeException e) {
+            throw new XMLStreamException("Cannot instantiate custom action class:" + className, e);
+        } catch (Throwable t) {
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new XMLStreamException("Cannot instantiate custom action class:" + className, t);
+        }
+    }
+
+    /**
+     * 把属性值设置到action上
+     */
+    void bind(Action action, String name, String value) throws XMLStreamException {
+        Setter setter = setters.get(name);
+        if (setter == null) {
+            throw new XMLStreamException("No setter in class:" + className + ", for string property:" + name);
+        }
+        Object converted;
+        try {
+            converted = convert(setter.type, value);
+        } catch (IllegalArgumentException e) {
+            throw new XMLStreamException("Cannot convert value:" + value + " of property:" + name + " to "
+                    + setter.type.getName() + " in class:" + className, e);
+        }
+        try {
+            setter.handle.invokeExact((Object) action, converted);
+        } catch (RuntimeException e) {
+            throw new XMLStreamException("Exception calling setter for string property:" + name + " in class:"
+                    + className, e);
+        } catch (Throwable t) {
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new XMLStreamException("Exception calling setter for string property:" + name + " in class:"
+                    + className, t);
+        }
+    }
+
+    private void addSetter(Method method) {
+        String methodName = method.getName();
+        if (methodName.length() <= 3 || !methodName.startsWith("set") || method.getParameterTypes().length != 1
+                || Modifier.isStatic(method.getModifiers())) {
+            return;
+        }
+        Class<?> type = method.getParameterTypes()[0];
+        if (!isConvertible(type)) {
+            return;
+        }
+        // 属性名首字母大写后加set前缀得到方法名，所以setExpr对应expr和Expr两个属性名
+        String name = methodName.substring(3);
+        Setter existing = setters.get(name);
+        if (existing != null && existing.type == String.class) {
+            return;
+        }
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method).asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            return;
+        }
+        Setter setter = new Setter(type, handle);
+        setters.put(name, setter);
+        if (Character.isUpperCase(name.charAt(0))) {
+            setters.put(Character.toLowerCase(name.charAt(0)) + name.substring(1), setter);
+        }
+    }
+
+    private static boolean isConvertible(Class<?> type) {
+        return type == String.class || type.isPrimitive() && type != void.class && type != char.class
+                || type == Integer.class || type == Long.class || type == Boolean.class || type == Double.class
+                || type == Float.class || type == Short.class || type == Byte.class || type.isEnum();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object convert(Class<?> type, String value) {
+        if (type == String.class) {
+            return value;
+        }
+        String s = value.trim();
+        if (type == int.class || type == Integer.class) {
+            return Integer.valueOf(s);
+        } else if (type == long.class || type == Long.class) {
+            return Long.valueOf(s);
+        } else if (type == boolean.class || type == Boolean.class) {
+            if ("true".equals(s)) {
+                return Boolean.TRUE;
+            } else if ("false".equals(s)) {
+                return Boolean.FALSE;
+            }
+            throw new IllegalArgumentException("not a boolean: " + value);
+        } else if (type == double.class || type == Double.class) {
+            return Double.valueOf(s);
+        } else if (type == float.class || type == Float.class) {
+            return Float.valueOf(s);
+        } else if (type == short.class || type == Short.class) {
+            return Short.valueOf(s);
+        } else if (type == byte.class || type == Byte.class) {
+            return Byte.valueOf(s);
+        }
+        return Enum.valueOf((Class<Enum>) type, s);
+    }
+
+    private static final class Setter {
+        /**
+         * 参数类型
+         */
+        final Class<?> type;
+
+        /**
+         * (Object, Object)void
+         */
+        final MethodHandle handle;
+
+        Setter(Class<?> type, MethodHandle handle) {
+            this.type = type;
+            this.handle = handle;
+        }
+    }
+}
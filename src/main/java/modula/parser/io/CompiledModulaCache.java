@@ -0,0 +1,411 @@
+package modula.parser.io;
+
+import modula.executor.core.evaluator.ExpressionEvaluator;
+import modula.parser.env.URLResolver;
+import modula.parser.model.CustomAction;
+import modula.parser.model.EnterableState;
+import modula.parser.model.Invoke;
+import modula.parser.model.ModelException;
+import modula.parser.model.Modula;
+import modula.parser.model.TransitionalState;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * @description: 预编译模型的本地缓存，把解析、链接后的{@link Modula}（状态、transition、target、文档顺序、观察者id、
+ * 自定义action及其属性）以二进制写入缓存目录，下次启动时一次mmap读入，跳过StAX解析和{@link ModelUpdater}
+ * <p>
+ * 缓存文件名是文档内容和自定义action表的SHA-1，文档或action绑定变化时自然失效。内置invoke引用的子文档记录在文件头中，
+ * 加载时逐个校验内容，不一致则重新解析。cond编译结果不写入缓存，加载后按当前的{@link modula.executor.core.evaluator.Evaluator}重新编译
+ * </p>
+ * <p>
+ * 格式：int 魔数 | int 格式版本 | 子文档数 | (url | 内容SHA-1)... | Java序列化的{@link Modula}，
+ * 写入的是冻结后的模型，转移域、退出掩码等预计算结果随模型一起读入。
+ * 反序列化只接受modula包下的类、自定义action类及其父类和JDK的基本类型、集合，缓存文件被替换也不能构造其他类
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/17.
+ */
+public class CompiledModulaCache {
+    private static final Log log = LogFactory.getLog(CompiledModulaCache.class);
+
+    private static final int MAGIC = 0x4d444c43;
+
+    private static final int FORMAT = 4;
+
+    private static final String SUFFIX = ".mdl";
+
+    /**
+     * 模型中可能出现的JDK类
+     */
+    private static final Set<String> JDK_CLASSES = new HashSet<String>(Arrays.asList(
+            "java.lang.Object", "java.lang.String", "java.lang.Enum", "java.lang.Number", "java.lang.Boolean",
+            "java.lang.Character", "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long",
+            "java.lang.Float", "java.lang.Double",
+            "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap",
+            "java.util.TreeMap", "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet",
+            "java.util.Arrays$ArrayList",
+            "java.util.Collections$UnmodifiableCollection", "java.util.Collections$UnmodifiableList",
+            "java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableSet",
+            "java.util.Collections$UnmodifiableMap", "java.util.Collections$EmptyList",
+            "java.util.Collections$EmptySet", "java.util.Collections$EmptyMap",
+            "java.util.Collections$SingletonList", "java.util.Collections$SingletonSet",
+            "java.util.Collections$SingletonMap",
+            "java.util.concurrent.ConcurrentHashMap", "java.util.concurrent.ConcurrentHashMap$Segment",
+            "java.util.concurrent.locks.ReentrantLock", "java.util.concurrent.locks.ReentrantLock$Sync",
+            "java.util.concurrent.locks.ReentrantLock$NonfairSync",
+            "java.util.concurrent.locks.AbstractQueuedSynchronizer",
+            "java.util.concurrent.locks.AbstractOwnableSynchronizer",
+            "java.util.concurrent.atomic.AtomicInteger", "java.util.concurrent.atomic.AtomicLong",
+            "java.net.URL"));
+
+    private final File directory;
+
+    private volatile long hits;
+
+    private volatile long misses;
+
+    public CompiledModulaCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 读取文档，缓存命中时直接加载，否则解析后写入缓存
+     *
+     * @param modulaURL     文档地址
+     * @param configuration 解析配置，自定义action参与缓存key
+     */
+    public Modula read(final URL modulaURL, final ModulaReader.Configuration configuration)
+            throws IOException, ModelException, XMLStreamException {
+        if (modulaURL == null) {
+            throw new IllegalArgumentException(ModulaReader.ERR_NULL_URL);
+        }
+        File file = new File(directory, key(modulaURL, configuration) + SUFFIX);
+        if (file.isFile()) {
+            try {
+                Modula modula = load(file, modulaURL, configuration);
+                if (modula != null) {
+                    hits++;
+                    return modula;
+                }
+            } catch (Exception e) {
+                log.warn("Discard compiled model " + file + " of " + modulaURL, e);
+            }
+            if (!file.delete()) {
+                log.warn("Can not delete compiled model " + file);
+            }
+        }
+        misses++;
+        Modula modula = ModulaReader.read(modulaURL, configuration);
+        try {
+            store(file, modulaURL, modula);
+        } catch (IOException e) {
+            log.warn("Can not write compiled model " + file + " of " + modulaURL, e);
+        }
+        return modula;
+    }
+
+    /**
+     * @return 从缓存加载的次数
+     */
+    public long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return 重新解析的次数
+     */
+    public long getMissCount() {
+        return misses;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return 缓存文件，子文档变化时为null
+     */
+    private Modula load(File file, URL modulaURL, ModulaReader.Configuration configuration) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            DataInputStream header = new DataInputStream(new BufferInputStream(buffer));
+            if (header.readInt() != MAGIC || header.readInt() != FORMAT) {
+                throw new IOException("unknown compiled model format");
+            }
+            for (int n = header.readInt(); n > 0; n--) {
+                String url = header.readUTF();
+                String digest = header.readUTF();
+                if (!digest.equals(hex(digest(new URL(url))))) {
+                    return null;
+                }
+            }
+            ObjectInputStream in = new ContextObjectInputStream(new BufferInputStream(buffer), allowedClasses(configuration));
+            Modula modula = (Modula) in.readObject();
+            link(modula, modulaURL.toString(), configuration);
+            return modula;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 重新编译cond，子状态机定义在进程内已加载时共用已有的实例，否则登记到{@link ModulaDefinitionCache}
+     */
+    private static void link(Modula modula, String base, ModulaReader.Configuration configuration)
+            throws ModelException, IOException {
+        ModelUpdater.compileGuards(modula, configuration.evaluator != null ? configuration.evaluator
+                : new ExpressionEvaluator());
+        URLResolver resolver = new URLResolver(new URL(base));
+        for (EnterableState es : modula.getStates()) {
+            if (!(es instanceof TransitionalState)) {
+                continue;
+            }
+            for (Invoke invoke : ((TransitionalState) es).getInvokes()) {
+                if (invoke.getDefinition() == null) {
+                    continue;
+                }
+                String url = resolver.resolvePath(invoke.getSrc());
+                Modula existing = ModulaDefinitionCache.get(url);
+                if (existing != null) {
+                    invoke.setDefinition(existing);
+                } else {
+                    link(invoke.getDefinition(), url, configuration);
+                    ModulaDefinitionCache.put(url, invoke.getDefinition());
+                }
+            }
+        }
+        modula.freeze();
+    }
+
+    private void store(File file, URL modulaURL, Modula modula) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create directory " + directory);
+        }
+        Set<String> children = new TreeSet<String>();
+        collect(modula, modulaURL.toString(), children, new IdentityHashMap<Modula, Boolean>());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT);
+        header.writeInt(children.size());
+        for (String url : children) {
+            header.writeUTF(url);
+            header.writeUTF(hex(digest(new URL(url))));
+        }
+        header.flush();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(modula);
+        out.close();
+
+        // 先写临时文件再改名，并发启动的进程不会读到写了一半的文件
+        File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            bytes.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * 收集内置invoke引用的子文档，记录解析后的url
+     */
+    private static void collect(Modula modula, String base, Set<String> children,
+                                Map<Modula, Boolean> visited) throws IOException {
+        if (visited.put(modula, Boolean.TRUE) != null) {
+            return;
+        }
+        URLResolver resolver = new URLResolver(new URL(base));
+        for (EnterableState es : modula.getStates()) {
+            if (!(es instanceof TransitionalState)) {
+                continue;
+            }
+            for (Invoke invoke : ((TransitionalState) es).getInvokes()) {
+                if (invoke.isBuiltinType() && invoke.getSrc() != null) {
+                    String url = resolver.resolvePath(invoke.getSrc());
+                    children.add(url);
+                    if (invoke.getDefinition() != null) {
+                        collect(invoke.getDefinition(), url, children, visited);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 文档内容和自定义action表的SHA-1
+     */
+    private static String key(URL modulaURL, ModulaReader.Configuration configuration) throws IOException {
+        MessageDigest md = sha1();
+        md.update(digest(modulaURL));
+        StringBuilder actions = new StringBuilder().append(FORMAT);
+        List<String> names = new ArrayList<String>();
+        for (CustomAction ca : configuration.customActions) {
+            names.add(ca.getNamespaceURI() + '#' + ca.getLocalName() + '=' + ca.getActionClass().getName());
+        }
+        Collections.sort(names);
+        for (String name : names) {
+            actions.append('\n').append(name);
+        }
+        md.update(actions.toString().getBytes("UTF-8"));
+        return hex(md.digest());
+    }
+
+    /**
+     * @return 自定义action类及其父类的类名
+     */
+    private static Set<String> allowedClasses(ModulaReader.Configuration configuration) {
+        Set<String> names = new HashSet<String>();
+        for (CustomAction ca : configuration.customActions) {
+            for (Class<?> c = ca.getActionClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+                names.add(c.getName());
+            }
+        }
+        return names;
+    }
+
+    private static byte[] digest(URL url) throws IOException {
+        MessageDigest md = sha1();
+        InputStream in = url.openStream();
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 直接读映射缓冲区，不再复制一份字节数组
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * 自定义action类用线程上下文类加载器解析，和spring加载action类的方式一致
+     */
+    private static final class ContextObjectInputStream extends ObjectInputStream {
+        private final Set<String> actionClasses;
+
+        ContextObjectInputStream(InputStream in, Set<String> actionClasses) throws IOException {
+            super(in);
+            this.actionClasses = actionClasses;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!allowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "class not allowed in compiled model");
+            }
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, loader);
+                } catch (ClassNotFoundException ignored) {
+                    // 回退到默认方式，处理基本类型等
+                }
+            }
+            return super.resolveClass(desc);
+        }
+
+        /**
+         * 数组按元素类型检查，基本类型数组允许
+         */
+        private boolean allowed(String name) {
+            int dims = 0;
+            while (dims < name.length() && name.charAt(dims) == '[') {
+                dims++;
+            }
+            if (dims > 0) {
+                if (name.charAt(dims) != 'L') {
+                    return true;
+                }
+                name = name.substring(dims + 1, name.length() - 1);
+            }
+            return name.startsWith("modula.") || JDK_CLASSES.contains(name) || actionClasses.contains(name);
+        }
+    }
+}
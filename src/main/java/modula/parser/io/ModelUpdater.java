@@ -16,6 +16,9 @@
  */
 package modula.parser.io;
 
+import modula.executor.core.context.SlotLayout;
+import modula.executor.core.evaluator.Evaluator;
+import modula.executor.core.evaluator.TransitionGuard;
 import modula.parser.model.*;
 import org.apache.commons.logging.LogFactory;
 
@@ -158,6 +161,29 @@ final class ModelUpdater {
 
         modula.getInitialTransition().setObservableId(1);
         initObservables(modula.getChildren(), 2);
+        initEventDispatch(modula.getChildren());
+        initStateIndex(modula);
+    }
+
+    /**
+     * 用evaluator编译所有transition的cond，每个cond只解析一次，cond引用的变量登记为数据模型槽位
+     */
+    static void compileGuards(final Modula modula, final Evaluator evaluator) throws ModelException {
+        SlotLayout layout = new SlotLayout();
+        for (EnterableState es : modula.getStates()) {
+            if (es instanceof TransitionalState) {
+                for (Transition t : ((TransitionalState) es).getTransitionsList()) {
+                    String cond = t.getCond();
+                    if (cond != null && cond.trim().length() > 0) {
+                        t.setGuard(new TransitionGuard(t, evaluator.compile(cond, layout)));
+                    } else {
+                        t.setGuard(null);
+                    }
+                }
+            }
+        }
+        layout.freeze();
+        modula.setSlotLayout(layout);
     }
 
     /**
@@ -206,6 +232,53 @@ final class ModelUpdater {
         return nextObservableId;
     }
 
+    /**
+     * 按文档顺序分配连续的状态下标，计算祖先/后代位图
+     */
+    private static void initStateIndex(final Modula modula) {
+        List<EnterableState> states = new ArrayList<EnterableState>();
+        collectStates(modula.getChildren(), states);
+        int words = (states.size() + 63) >>> 6;
+        for (int i = 0; i < states.size(); i++) {
+            EnterableState es = states.get(i);
+            es.setIndex(i);
+            es.setAncestorMask(new long[words]);
+            es.setDescendantMask(new long[words]);
+        }
+        for (EnterableState es : states) {
+            int index = es.getIndex();
+            for (EnterableState anc = es; anc != null; anc = anc.getParent()) {
+                es.getAncestorMask()[anc.getIndex() >>> 6] |= 1L << anc.getIndex();
+                if (anc != es) {
+                    anc.getDescendantMask()[index >>> 6] |= 1L << index;
+                }
+            }
+        }
+        modula.setStates(states.toArray(new EnterableState[states.size()]));
+    }
+
+    private static void collectStates(final List<EnterableState> states, final List<EnterableState> result) {
+        for (EnterableState es : states) {
+            result.add(es);
+            if (es instanceof TransitionalState) {
+                collectStates(((TransitionalState) es).getChildren(), result);
+            }
+        }
+    }
+
+    /**
+     * 预编译各状态的事件分发索引，依赖文档排序
+     */
+    private static void initEventDispatch(final List<EnterableState> states) {
+        for (EnterableState es : states) {
+            if (es instanceof TransitionalState) {
+                TransitionalState ts = (TransitionalState) es;
+                ts.updateEventDispatch();
+                initEventDispatch(ts.getChildren());
+            }
+        }
+    }
+
     /**
      * 更新state
      */
@@ -0,0 +1,90 @@
+package modula.parser.io;
+
+import modula.parser.model.ModelException;
+import modula.parser.model.Modula;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @description: &lt;invoke&gt;引用的子状态机定义缓存，按解析后的url共享，同一文档在进程内只解析一次，
+ * 所有父状态机、所有子实例共用同一个{@link Modula}
+ * @author: gubing.gb
+ * @date: 2017/4/15.
+ */
+public final class ModulaDefinitionCache {
+    private static final ConcurrentHashMap<String, Modula> DEFINITIONS = new ConcurrentHashMap<String, Modula>();
+
+    /**
+     * 当前线程正在解析的url，防止文档直接或间接invoke自己时无限递归
+     */
+    private static final ThreadLocal<Set<String>> LOADING = new ThreadLocal<Set<String>>() {
+        @Override
+        protected Set<String> initialValue() {
+            return new HashSet<String>();
+        }
+    };
+
+    private ModulaDefinitionCache() {
+    }
+
+    /**
+     * @return 已缓存的定义，没有时返回null
+     */
+    public static Modula get(String url) {
+        return DEFINITIONS.get(url);
+    }
+
+    /**
+     * 获取定义，没有缓存时使用默认配置解析
+     */
+    public static Modula load(String url) throws IOException, ModelException, XMLStreamException {
+        Modula modula = DEFINITIONS.get(url);
+        if (modula != null) {
+            return modula;
+        }
+        return load(url, new ModulaReader.Configuration(null, null));
+    }
+
+    /**
+     * 登记已解析的定义
+     */
+    public static void put(String url, Modula modula) {
+        DEFINITIONS.put(url, modula);
+    }
+
+    public static void clear() {
+        DEFINITIONS.clear();
+    }
+
+    /**
+     * 获取定义，没有缓存时沿用父文档的自定义action和表达式配置解析
+     *
+     * @return 定义，递归引用正在解析的文档时返回null，调用时再从缓存获取
+     */
+    static Modula load(String url, ModulaReader.Configuration parent)
+            throws IOException, ModelException, XMLStreamException {
+        Modula modula = DEFINITIONS.get(url);
+        if (modula != null) {
+            return modula;
+        }
+        Set<String> loading = LOADING.get();
+        if (!loading.add(url)) {
+            return null;
+        }
+        try {
+            ModulaReader.Configuration configuration = new ModulaReader.Configuration(parent);
+            configuration.pathResolver = null;
+            configuration.parent = null;
+            modula = ModulaReader.read(new URL(url), configuration);
+            Modula existing = DEFINITIONS.putIfAbsent(url, modula);
+            return existing != null ? existing : modula;
+        } finally {
+            loading.remove(url);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package modula.parser.io;
 
+import modula.executor.core.evaluator.Evaluator;
+import modula.executor.core.evaluator.ExpressionEvaluator;
 import modula.parser.env.URLResolver;
 import modula.parser.model.*;
 import modula.parser.PathResolver;
@@ -19,8 +21,6 @@ import javax.xml.validation.Validator;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLConnection;
 import java.text.MessageFormat;
@@ -49,7 +49,7 @@ public final class ModulaReader {
     /**
      * 空URL
      */
-    private static final String ERR_NULL_URL = "Cannot parse null URL";
+    static final String ERR_NULL_URL = "Cannot parse null URL";
 
     /**
      * 空PATH
@@ -74,7 +74,7 @@ public final class ModulaReader {
     /**
      * Action定义错误
      */
-    private static final String ERR_CUSTOM_ACTION_TYPE = "Custom actions list"
+    static final String ERR_CUSTOM_ACTION_TYPE = "Custom actions list"
             + " contained unknown object, class not a Commons Modula Action class subtype: ";
 
 //    /**
@@ -126,6 +126,13 @@ public final class ModulaReader {
     private static final String ERR_UNSUPPORTED_TRANSITION_TYPE = "Unsupported transition type "
             + "for <transition type=\"{0}\"> at {1}.";
 
+    /**
+     * 时长格式错误
+     */
+    private static final String ERR_ATTRIBUTE_NOT_DURATION = "Illegal value \"{0}\""
+            + " for attribute \"{1}\" in element <{2}> at {3}."
+            + " Expected a duration such as \"500ms\", \"30s\", \"30m\", \"2h\" or \"1d\".";
+
     /**
      * state Target不是state或final
      */
@@ -136,22 +143,29 @@ public final class ModulaReader {
     //---- ELEMENT NAMES ----//
     private static final String ELEM_FINAL = "final";
     private static final String ELEM_INITIAL = "initial";
+    private static final String ELEM_INVOKE = "invoke";
     private static final String ELEM_LOG = "log";
     private static final String ELEM_ONENTRY = "onentry";
     private static final String ELEM_ONEXIT = "onexit";
+    private static final String ELEM_PARAM = "param";
     private static final String ELEM_MODULA = "modula";
     private static final String ELEM_STATE = "state";
     private static final String ELEM_TRANSITION = "transition";
 
     //---- ATTRIBUTE NAMES ----//
+    private static final String ATTR_AUTOFORWARD = "autoforward";
     private static final String ATTR_COND = "cond";
     private static final String ATTR_EVENT = "event";
     private static final String ATTR_EXPR = "expr";
     private static final String ATTR_ID = "id";
     private static final String ATTR_INITIAL = "initial";
     private static final String ATTR_LABEL = "label";
-    //;private static final String ATTR_SRC = "src";
+    private static final String ATTR_NAME = "name";
+    private static final String ATTR_SRC = "src";
+    private static final String ATTR_SRCEXPR = "srcexpr";
     private static final String ATTR_TARGET = "target";
+    private static final String ATTR_TIMEOUT = "timeout";
+    private static final String ATTR_TIMEOUT_EVENT = "timeoutevent";
     private static final String ATTR_TYPE = "type";
     private static final String ATTR_VERSION = "version";
 
@@ -176,6 +190,9 @@ public final class ModulaReader {
         Modula modula = readInternal(configuration, modulaURL, null, null, null, null);
         if (modula != null) {
             ModelUpdater.updateModula(modula);
+            ModelUpdater.compileGuards(modula, configuration.evaluator != null ? configuration.evaluator
+                    : new ExpressionEvaluator());
+            modula.freeze();
         }
         return modula;
     }
@@ -292,6 +309,8 @@ public final class ModulaReader {
         if (initial != null) {
             state.setFirst(initial);
         }
+        state.setTimeout(readDurationAV(reader, ELEM_STATE, ATTR_TIMEOUT));
+        state.setTimeoutEvent(readAV(reader, ATTR_TIMEOUT_EVENT));
 
         if (parent == null) {
             modula.addChild(state);
@@ -324,6 +343,8 @@ public final class ModulaReader {
                             readOnEntry(reader, configuration, state);
                         } else if (ELEM_ONEXIT.equals(name)) {
                             readOnExit(reader, configuration, state);
+                        } else if (ELEM_INVOKE.equals(name)) {
+                            readInvoke(reader, configuration, state);
                         } else {
                             reportIgnoredElement(reader, configuration, ELEM_STATE, nsURI, name);
                         }
@@ -368,6 +389,61 @@ public final class ModulaReader {
         return transition;
     }
 
+    /**
+     * 解析invoke，内置类型的子状态机定义在这里通过{@link ModulaDefinitionCache}加载并关联
+     */
+    private static void readInvoke(final XMLStreamReader reader, final Configuration configuration,
+                                   final TransitionalState parent)
+            throws IOException, ModelException, XMLStreamException {
+
+        Invoke invoke = new Invoke();
+        invoke.setId(readAV(reader, ATTR_ID));
+        invoke.setSrc(readAV(reader, ATTR_SRC));
+        invoke.setSrcexpr(readAV(reader, ATTR_SRCEXPR));
+        String type = readAV(reader, ATTR_TYPE);
+        invoke.setType(type != null ? type : Invoke.TYPE_MODULA);
+        invoke.setAutoForward(readBooleanAV(reader, ELEM_INVOKE, ATTR_AUTOFORWARD));
+        invoke.setPathResolver(configuration.pathResolver);
+        readNamespaces(configuration, invoke);
+
+        loop:
+        while (reader.hasNext()) {
+            String name, nsURI;
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    pushNamespaces(reader, configuration);
+                    nsURI = reader.getNamespaceURI();
+                    name = reader.getLocalName();
+                    if (XMLNS_MODULA.equals(nsURI) && ELEM_PARAM.equals(name)) {
+                        Param param = new Param();
+                        param.setName(readRequiredAV(reader, ELEM_PARAM, ATTR_NAME));
+                        param.setExpr(readAV(reader, ATTR_EXPR));
+                        readNamespaces(configuration, param);
+                        invoke.addParam(param);
+                    } else {
+                        reportIgnoredElement(reader, configuration, ELEM_INVOKE, nsURI, name);
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    popNamespaces(reader, configuration);
+                    nsURI = reader.getNamespaceURI();
+                    name = reader.getLocalName();
+                    if (XMLNS_MODULA.equals(nsURI) && ELEM_INVOKE.equals(name)) {
+                        break loop;
+                    }
+                    break;
+                default:
+            }
+        }
+
+        if (invoke.isBuiltinType() && invoke.getSrc() != null) {
+            String url = configuration.pathResolver != null
+                    ? configuration.pathResolver.resolvePath(invoke.getSrc()) : invoke.getSrc();
+            invoke.setDefinition(ModulaDefinitionCache.load(url, configuration));
+        }
+        parent.addInvoke(invoke);
+    }
+
     private static void readInitial(final XMLStreamReader reader, final Configuration configuration,
                                     final State state)
             throws XMLStreamException, ModelException {
@@ -568,8 +644,7 @@ public final class ModulaReader {
             throws XMLStreamException {
 
         // Instantiate custom action
-        Object actionObject = null;
-        String className = customAction.getActionClass().getName();
+        Class<?> clazz = customAction.getActionClass();
         ClassLoader cl = configuration.customActionClassLoader;
         if (configuration.useContextClassLoaderForCustomActions) {
             cl = Thread.currentThread().getContextClassLoader();
@@ -577,44 +652,22 @@ public final class ModulaReader {
         if (cl == null) {
             cl = ModulaReader.class.getClassLoader();
         }
-        Class<?> clazz = null;
-        try {
-            clazz = cl.loadClass(className);
-            actionObject = clazz.newInstance();
-        } catch (ClassNotFoundException cnfe) {
-            throw new XMLStreamException("Cannot find custom action class:" + className, cnfe);
-        } catch (IllegalAccessException iae) {
-            throw new XMLStreamException("Cannot access custom action class:" + className, iae);
-        } catch (InstantiationException ie) {
-            throw new XMLStreamException("Cannot instantiate custom action class:" + className, ie);
-        }
-        if (!(actionObject instanceof Action)) {
-            throw new IllegalArgumentException(ERR_CUSTOM_ACTION_TYPE + className);
+        if (clazz.getClassLoader() != cl) {
+            try {
+                clazz = cl.loadClass(clazz.getName());
+            } catch (ClassNotFoundException cnfe) {
+                throw new XMLStreamException("Cannot find custom action class:" + clazz.getName(), cnfe);
+            }
         }
+        // 构造器和setter按类生成一次，见ActionBinder
+        ActionBinder binder = ActionBinder.of(clazz);
+        Action action = binder.newInstance();
 
         // Set the attribute values as properties
-        Action action = (Action) actionObject;
         for (int i = 0; i < reader.getAttributeCount(); i++) {
-            String name = reader.getAttributeLocalName(i);
-            String value = reader.getAttributeValue(i);
-            String setter = "set" + name.substring(0, 1).toUpperCase() + name.substring(1);
-            Method method = null;
-            try {
-                method = clazz.getMethod(setter, String.class);
-                method.invoke(action, value);
-            } catch (NoSuchMethodException nsme) {
-                throw new XMLStreamException("No setter in class:" + className + ", for string property:" + name,
-                        nsme);
-            } catch (InvocationTargetException ite) {
-                throw new XMLStreamException("Exception calling setter for string property:" + name + " in class:"
-                        + className, ite);
-            } catch (IllegalAccessException iae) {
-                throw new XMLStreamException("Cannot access setter for string property:" + name + " in class:"
-                        + className, iae);
-            }
+            binder.bind(action, reader.getAttributeLocalName(i), reader.getAttributeValue(i));
         }
 
-
         // Wire in the action and add to parent
         readNamespaces(configuration, action);
         action.setParent(executable);
@@ -659,6 +712,49 @@ public final class ModulaReader {
         return result;
     }
 
+    /**
+     * 读取时长属性，支持ms、s、m、h、d后缀，没有后缀时单位为毫秒
+     *
+     * @return 毫秒数，属性不存在时返回0
+     */
+    private static long readDurationAV(final XMLStreamReader reader, final String elementName,
+                                       final String attrLocalName)
+            throws ModelException {
+        String value = nullIfEmpty(reader.getAttributeValue(XMLNS_DEFAULT, attrLocalName));
+        if (value == null) {
+            return 0L;
+        }
+        String v = value.trim();
+        long unit = 1L;
+        int end = v.length();
+        if (v.endsWith("ms")) {
+            end -= 2;
+        } else if (v.endsWith("s")) {
+            unit = 1000L;
+            end--;
+        } else if (v.endsWith("m")) {
+            unit = 60 * 1000L;
+            end--;
+        } else if (v.endsWith("h")) {
+            unit = 60 * 60 * 1000L;
+            end--;
+        } else if (v.endsWith("d")) {
+            unit = 24 * 60 * 60 * 1000L;
+            end--;
+        }
+        try {
+            long amount = Long.parseLong(v.substring(0, end).trim());
+            if (amount >= 0) {
+                return amount * unit;
+            }
+        } catch (NumberFormatException e) {
+            // 下面统一报错
+        }
+        MessageFormat msgFormat = new MessageFormat(ERR_ATTRIBUTE_NOT_DURATION);
+        String errMsg = msgFormat.format(new Object[]{value, attrLocalName, elementName, reader.getLocation()});
+        throw new ModelException(errMsg);
+    }
+
     /**
      * 读取必填属性值
      */
@@ -965,6 +1061,11 @@ public final class ModulaReader {
          */
         boolean strict;
 
+        /**
+         * cond编译器，为null时使用{@link ExpressionEvaluator}
+         */
+        Evaluator evaluator;
+
         /*
          * Public 构造器
          */
@@ -993,6 +1094,7 @@ public final class ModulaReader {
                     source.reporter, source.encoding, source.systemId, source.validate, source.pathResolver,
                     source.parent, source.customActions, source.customActionClassLoader,
                     source.useContextClassLoaderForCustomActions, source.silent, source.strict);
+            this.evaluator = source.evaluator;
         }
 
         /**
@@ -1071,6 +1173,17 @@ public final class ModulaReader {
         public void setStrict(boolean strict) {
             this.strict = strict;
         }
+
+        /**
+         * cond编译器
+         */
+        public Evaluator getEvaluator() {
+            return evaluator;
+        }
+
+        public void setEvaluator(Evaluator evaluator) {
+            this.evaluator = evaluator;
+        }
     }
 }
 
@@ -14,6 +14,21 @@ public abstract class EnterableState extends TransitionTarget implements Documen
      */
     private int order;
 
+    /**
+     * 状态下标，同一状态机内从0开始连续分配，按文档顺序
+     */
+    private int index;
+
+    /**
+     * 自身及所有祖先的位图
+     */
+    private long[] ancestorMask;
+
+    /**
+     * 所有后代（不含自身）的位图
+     */
+    private long[] descendantMask;
+
     /**
      * 可选的OnEntry集合
      */
@@ -49,6 +64,39 @@ public abstract class EnterableState extends TransitionTarget implements Documen
         this.order = order;
     }
 
+    /**
+     * @return 状态下标
+     */
+    public final int getIndex() {
+        return index;
+    }
+
+    public final void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return 自身及所有祖先的位图，位下标为{@link #getIndex()}
+     */
+    public final long[] getAncestorMask() {
+        return ancestorMask;
+    }
+
+    public final void setAncestorMask(long[] ancestorMask) {
+        this.ancestorMask = ancestorMask;
+    }
+
+    /**
+     * @return 所有后代（不含自身）的位图，位下标为{@link #getIndex()}
+     */
+    public final long[] getDescendantMask() {
+        return descendantMask;
+    }
+
+    public final void setDescendantMask(long[] descendantMask) {
+        this.descendantMask = descendantMask;
+    }
+
     /**
      * Get the OnEntry elements.
      *
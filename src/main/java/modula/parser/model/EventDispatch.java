@@ -0,0 +1,196 @@
+package modula.parser.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @description: 单个状态的事件分发索引，由{@link TransitionalState}的transition预编译而成
+ * 事件描述符按'.'拆成token建成前缀树，"*"挂在根节点，查找时沿事件名的token走一遍即可得到所有命中的transition，
+ * 结果按文档顺序排列并按事件名缓存，之后同名事件只需一次hash查找
+ * <p>
+ * 和原来逐个transition匹配的语义一致，有名事件的候选也包括无事件transition
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/6.
+ */
+public final class EventDispatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Transition[] NONE = new Transition[0];
+
+    /**
+     * 非描述符中出现过的事件名最多缓存数，防止任意事件名撑大缓存
+     */
+    private static final int MAX_RESOLVED = 1024;
+
+    private static final Comparator<Transition> ORDER = new Comparator<Transition>() {
+        @Override
+        public int compare(Transition t1, Transition t2) {
+            return t1.getOrder() < t2.getOrder() ? -1 : (t1.getOrder() == t2.getOrder() ? 0 : 1);
+        }
+    };
+
+    /**
+     * 无事件transition
+     */
+    private final Transition[] eventless;
+
+    /**
+     * 前缀树根节点，根节点上的transition为"*"
+     */
+    private final Node root;
+
+    /**
+     * 事件名 -> 命中transition（文档顺序）
+     */
+    private final ConcurrentHashMap<String, Transition[]> resolved;
+
+    /**
+     * 事件名不在描述符中时额外缓存的个数，模型在各通道间共享，需要原子计数
+     */
+    private final AtomicInteger extraResolved = new AtomicInteger();
+
+    public EventDispatch(final List<Transition> transitions) {
+        List<Transition> noEvents = new ArrayList<Transition>();
+        root = new Node();
+        for (Transition t : transitions) {
+            if (t.isNoEventsTransition()) {
+                noEvents.add(t);
+            } else if (t.isAllEventsTransition()) {
+                root.add(t);
+            } else {
+                for (String descriptor : t.getEvents()) {
+                    Node node = root;
+                    for (String token : split(descriptor)) {
+                        node = node.child(token);
+                    }
+                    node.add(t);
+                }
+            }
+        }
+        eventless = noEvents.toArray(new Transition[noEvents.size()]);
+        Collections.sort(Arrays.asList(eventless), ORDER);
+
+        resolved = new ConcurrentHashMap<String, Transition[]>();
+        for (Transition t : transitions) {
+            for (String descriptor : t.getEvents()) {
+                if (!"*".equals(descriptor) && !resolved.containsKey(descriptor)) {
+                    resolved.put(descriptor, resolve(descriptor));
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取事件命中的候选transition，按文档顺序
+     *
+     * @param eventName 事件名，null表示查找无事件transition
+     * @return 候选transition，不可修改
+     */
+    public Transition[] candidates(final String eventName) {
+        if (eventName == null) {
+            return eventless;
+        }
+        Transition[] result = resolved.get(eventName);
+        if (result == null) {
+            result = resolve(eventName);
+            if (extraResolved.get() < MAX_RESOLVED && resolved.putIfAbsent(eventName, result) == null) {
+                extraResolved.incrementAndGet();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 沿事件名的token走前缀树，收集路径上所有节点的transition，再加上无事件transition
+     */
+    private Transition[] resolve(final String eventName) {
+        List<Transition> matched = null;
+        if (eventless.length > 0) {
+            matched = new ArrayList<Transition>(Arrays.asList(eventless));
+        }
+        Node node = root;
+        int start = 0;
+        while (true) {
+            if (node.transitions != null) {
+                if (matched == null) {
+                    matched = new ArrayList<Transition>();
+                }
+                for (Transition t : node.transitions) {
+                    if (!matched.contains(t)) {
+                        matched.add(t);
+                    }
+                }
+            }
+            if (start > eventName.length() || node.children == null) {
+                break;
+            }
+            int end = eventName.indexOf('.', start);
+            if (end < 0) {
+                end = eventName.length();
+            }
+            node = node.children.get(eventName.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            start = end + 1;
+        }
+        if (matched == null) {
+            return NONE;
+        }
+        Collections.sort(matched, ORDER);
+        return matched.toArray(new Transition[matched.size()]);
+    }
+
+    private static List<String> split(final String descriptor) {
+        List<String> tokens = new ArrayList<String>();
+        int start = 0;
+        int end;
+        while ((end = descriptor.indexOf('.', start)) >= 0) {
+            tokens.add(descriptor.substring(start, end));
+            start = end + 1;
+        }
+        tokens.add(descriptor.substring(start));
+        return tokens;
+    }
+
+    /**
+     * 前缀树节点
+     */
+    private static final class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Map<String, Node> children;
+
+        private List<Transition> transitions;
+
+        Node child(final String token) {
+            if (children == null) {
+                children = new HashMap<String, Node>(4);
+            }
+            Node node = children.get(token);
+            if (node == null) {
+                node = new Node();
+                children.put(token, node);
+            }
+            return node;
+        }
+
+        void add(final Transition transition) {
+            if (transitions == null) {
+                transitions = new ArrayList<Transition>(2);
+            }
+            if (!transitions.contains(transition)) {
+                transitions.add(transition);
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package modula.parser.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @description: 扁平状态机的转移表，状态下标 x 事件id -> transition
+ * 扁平指顶层只有原子&lt;state&gt;和&lt;final&gt;，没有嵌套、history、invoke和带cond的transition，
+ * 这类状态机任一时刻只有一个活动状态，单步只需查表，不需要祖先遍历、冲突消解和集合运算
+ * @author: gubing.gb
+ * @date: 2017/4/8.
+ */
+public final class FlatTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 无事件transition的事件id
+     */
+    private static final int EVENTLESS = 0;
+
+    private static final int NONE = -1;
+
+    /**
+     * 状态表，下标为{@link EnterableState#getIndex()}
+     */
+    private final EnterableState[] states;
+
+    /**
+     * 事件描述符 -> 事件id，id从1开始
+     */
+    private final Map<String, Integer> eventIds;
+
+    /**
+     * 所有状态的transition，按文档顺序
+     */
+    private final Transition[] transitions;
+
+    /**
+     * [状态下标][事件id] -> transitions下标，没有时为-1
+     */
+    private final int[][] table;
+
+    private FlatTable(final EnterableState[] states, final Map<String, Integer> eventIds,
+                      final Transition[] transitions, final int[][] table) {
+        this.states = states;
+        this.eventIds = eventIds;
+        this.transitions = transitions;
+        this.table = table;
+    }
+
+    /**
+     * 状态机是扁平的时候编译转移表
+     *
+     * @param modula 已由ModelUpdater建好状态表和事件索引的状态机
+     * @return 转移表，状态机不是扁平的时候返回null
+     */
+    public static FlatTable compile(final Modula modula) {
+        EnterableState[] states = modula.getStates();
+        if (states == null || !isFlat(modula)) {
+            return null;
+        }
+        Map<String, Integer> eventIds = new HashMap<String, Integer>();
+        List<String> events = new ArrayList<String>();
+        events.add(null);
+        List<Transition> transitions = new ArrayList<Transition>();
+        for (EnterableState es : states) {
+            if (es instanceof TransitionalState) {
+                for (Transition t : ((TransitionalState) es).getTransitionsList()) {
+                    transitions.add(t);
+                    for (String event : t.getEvents()) {
+                        if (!eventIds.containsKey(event)) {
+                            eventIds.put(event, events.size());
+                            events.add(event);
+                        }
+                    }
+                }
+            }
+        }
+
+        int[][] table = new int[states.length][];
+        for (int i = 0; i < states.length; i++) {
+            int[] row = new int[events.size()];
+            for (int e = 0; e < row.length; e++) {
+                row[e] = NONE;
+                if (states[i] instanceof TransitionalState) {
+                    Transition[] candidates = ((TransitionalState) states[i]).getEventDispatch().candidates(events.get(e));
+                    if (candidates.length > 0) {
+                        row[e] = transitions.indexOf(candidates[0]);
+                    }
+                }
+            }
+            table[i] = row;
+        }
+        return new FlatTable(states, eventIds, transitions.toArray(new Transition[transitions.size()]), table);
+    }
+
+    private static boolean isFlat(final Modula modula) {
+        for (EnterableState es : modula.getChildren()) {
+            if (es instanceof Final) {
+                continue;
+            }
+            if (!(es instanceof State)) {
+                return false;
+            }
+            State state = (State) es;
+            if (!state.isSimple() || state.hasHistory() || !state.getInvokes().isEmpty()) {
+                return false;
+            }
+            for (Transition t : state.getTransitionsList()) {
+                if (t.getCond() != null || t.getTargets().size() > 1) {
+                    return false;
+                }
+                for (TransitionTarget tt : t.getTargets()) {
+                    if (!(tt instanceof EnterableState)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return modula.getStates().length == modula.getChildren().size();
+    }
+
+    /**
+     * 查找当前状态收到事件时要执行的transition
+     *
+     * @param state     当前状态下标
+     * @param eventName 事件名，null表示无事件transition
+     * @return transition，没有时返回null
+     */
+    public Transition lookup(final int state, final String eventName) {
+        int index = lookupIndex(state, eventName);
+        return index == NONE ? null : transitions[index];
+    }
+
+    /**
+     * 查找当前状态收到事件时要执行的transition下标
+     *
+     * @param state     当前状态下标
+     * @param eventName 事件名，null表示无事件transition
+     * @return transition下标，见{@link #getTransition(int)}，没有时返回-1
+     */
+    public int lookupIndex(final int state, final String eventName) {
+        if (eventName == null) {
+            return table[state][EVENTLESS];
+        }
+        Integer id = eventIds.get(eventName);
+        if (id != null) {
+            return table[state][id];
+        }
+        // 不在描述符中的事件名，可能按前缀或"*"匹配，退回事件索引
+        EnterableState es = states[state];
+        if (!(es instanceof TransitionalState)) {
+            return NONE;
+        }
+        Transition[] candidates = ((TransitionalState) es).getEventDispatch().candidates(eventName);
+        if (candidates.length == 0) {
+            return NONE;
+        }
+        for (int i = 0; i < transitions.length; i++) {
+            if (transitions[i] == candidates[0]) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    public Transition getTransition(final int index) {
+        return transitions[index];
+    }
+
+    /**
+     * @return transition个数，下标从0开始
+     */
+    public int getTransitionCount() {
+        return transitions.length;
+    }
+
+    public EnterableState[] getStates() {
+        return states;
+    }
+
+    /**
+     * @return 事件描述符个数（不含无事件）
+     */
+    public int getEventCount() {
+        return eventIds.size();
+    }
+}
@@ -18,7 +18,12 @@ public class Invoke implements NamespacePrefixesHolder, PathResolverHolder,
     /**
      * Serial version UID.
      */
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    /**
+     * 内置的进程内子状态机类型，type属性不设置时也使用它
+     */
+    public static final String TYPE_MODULA = "modula";
 
     /**
      * id
@@ -48,9 +53,9 @@ public class Invoke implements NamespacePrefixesHolder, PathResolverHolder,
     private Boolean autoForward;
 
     /**
-     * 推送到执行过程中的参数列表
+     * 推送到执行过程中的参数列表，冻结后换成只读列表
      */
-    private final List<Param> paramsList;
+    private List<Param> paramsList;
 
     /**
      * finalize子节点，可空
@@ -68,6 +73,11 @@ public class Invoke implements NamespacePrefixesHolder, PathResolverHolder,
      */
     private Map<String, String> namespaces;
 
+    /**
+     * 内置类型的子状态机定义，解析时从共享缓存关联，src为表达式或递归引用时为空
+     */
+    private Modula definition;
+
     public Invoke() {
         paramsList = Collections.synchronizedList(new ArrayList<Param>());
     }
@@ -188,6 +198,28 @@ public class Invoke implements NamespacePrefixesHolder, PathResolverHolder,
         paramsList.add(param);
     }
 
+    /**
+     * 参数列表换成只读副本，执行时遍历不再经过同步包装
+     */
+    final void freeze() {
+        paramsList = Collections.unmodifiableList(new ArrayList<Param>(paramsList));
+    }
+
+    /**
+     * @return 是否内置的进程内子状态机类型
+     */
+    public final boolean isBuiltinType() {
+        return type == null || TYPE_MODULA.equals(type);
+    }
+
+    public final Modula getDefinition() {
+        return definition;
+    }
+
+    public final void setDefinition(final Modula definition) {
+        this.definition = definition;
+    }
+
     /**
      * Get the Finalize for this Invoke.
      *
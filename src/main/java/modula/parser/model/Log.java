@@ -78,7 +78,7 @@ public class Log extends Action {
     @Override
     public void execute(ActionExecutionContext exctx) throws ModelException {
         //TODO
-        Context ctx = exctx.getContext(getParentEnterableState());
+        //Context ctx = exctx.getContext(getParentEnterableState());
         //ctx.setLocal(getNamespacesKey(), getNamespaces());
         exctx.getAppLog().info(label + ": " + expr);
         //ctx.setLocal(getNamespacesKey(), null);
@@ -1,9 +1,11 @@
 package modula.parser.model;
 
+import modula.executor.core.context.SlotLayout;
 import modula.lifecycle.Lifecycle;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -64,6 +66,26 @@ public class Modula implements Serializable, Lifecycle, Observable, NamespacePre
      */
     private long ttNextId;
 
+    /**
+     * 状态表，下标为{@link EnterableState#getIndex()}
+     */
+    private EnterableState[] states;
+
+    /**
+     * 扁平状态机的转移表，不是扁平状态机时为null
+     */
+    private FlatTable flatTable;
+
+    /**
+     * 数据模型槽位表
+     */
+    private SlotLayout slotLayout;
+
+    /**
+     * 是否已冻结
+     */
+    private boolean frozen;
+
     public Modula() {
         this.children = new ArrayList<EnterableState>();
         this.targets = new HashMap<String, TransitionTarget>();
@@ -149,6 +171,45 @@ public class Modula implements Serializable, Lifecycle, Observable, NamespacePre
         return GENERATED_TT_ID_PREFIX + ttNextId++;
     }
 
+    /**
+     * 获取状态表，下标为{@link EnterableState#getIndex()}，即文档顺序，由ModelUpdater创建
+     *
+     * @return 状态表
+     */
+    public final EnterableState[] getStates() {
+        return states;
+    }
+
+    public final void setStates(EnterableState[] states) {
+        this.states = states;
+    }
+
+    /**
+     * 获取扁平状态机的转移表，冻结时编译，未冻结的模型由执行语义的normalizeStateMachine编译
+     *
+     * @return 转移表，不是扁平状态机时为null
+     */
+    public final FlatTable getFlatTable() {
+        return flatTable;
+    }
+
+    public final void setFlatTable(FlatTable flatTable) {
+        this.flatTable = flatTable;
+    }
+
+    /**
+     * 获取数据模型槽位表，加载时由ModelUpdater创建，实例的数据模型按它分配槽位
+     *
+     * @return 槽位表，可能为null
+     */
+    public final SlotLayout getSlotLayout() {
+        return slotLayout;
+    }
+
+    public final void setSlotLayout(SlotLayout slotLayout) {
+        this.slotLayout = slotLayout;
+    }
+
     public String getName() {
         return name;
     }
@@ -156,4 +217,32 @@ public class Modula implements Serializable, Lifecycle, Observable, NamespacePre
     public void setName(String name) {
         this.name = name;
     }
+
+    public final boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * 冻结模型：预先计算所有transition的转移类型、转移域、目标数组和退出掩码，各状态的子状态和transition数组，
+     * 编译扁平转移表，集合都换成只读的。之后执行路径上只读不写，不再有惰性计算，多个线程共用同一个模型时不需要同步
+     * <p>
+     * 需在ModelUpdater处理之后调用，重复调用无效
+     * </p>
+     */
+    public final void freeze() {
+        if (frozen) {
+            return;
+        }
+        int stateCount = states.length;
+        initialTransition.freeze(stateCount);
+        for (EnterableState es : states) {
+            if (es instanceof TransitionalState) {
+                ((TransitionalState) es).freeze(stateCount);
+            }
+        }
+        flatTable = FlatTable.compile(this);
+        children = Collections.unmodifiableList(children);
+        targets = Collections.unmodifiableMap(targets);
+        frozen = true;
+    }
 }
@@ -1,5 +1,6 @@
 package modula.parser.model;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -62,6 +63,21 @@ public class SimpleTransition extends Executable
      */
     private Map<String, String> namespaces;
 
+    /**
+     * 冻结后的转移目标，顺序和{@link #getTargets()}一致
+     */
+    private TransitionTarget[] targetArray;
+
+    /**
+     * 冻结后的退出掩码：转移域的后代位图，转移域是Modula文档本身时为全部状态，没有目标时为null
+     */
+    private long[] exitMask;
+
+    /**
+     * 是否已冻结
+     */
+    private boolean frozen;
+
     public SimpleTransition() {
         super();
         this.targets = new HashSet<TransitionTarget>();
@@ -138,6 +154,9 @@ public class SimpleTransition extends Executable
      * @return true 如果类型是 {@link TransitionType#internal}
      */
     public final boolean isTypeInternal() {
+        if (frozen) {
+            return typeInternal;
+        }
         if (typeInternal == null) {
 
             // derive typeInternal
@@ -166,6 +185,9 @@ public class SimpleTransition extends Executable
      */
     public TransitionalState getTransitionDomain() {
         TransitionalState ts = transitionDomain;
+        if (frozen) {
+            return ts;
+        }
         if (ts == null && targets.size() > 0 && !modulaTransitionDomain) {
 
             if (getParent() != null) {
@@ -251,4 +273,53 @@ public class SimpleTransition extends Executable
     public final void setNext(final String next) {
         this.next = next;
     }
+
+    /**
+     * 冻结后的转移目标，没有目标时为空数组
+     *
+     * @return 转移目标数组，调用方不能修改
+     */
+    public final TransitionTarget[] getTargetArray() {
+        return targetArray;
+    }
+
+    /**
+     * 冻结后的退出掩码，和当前配置求交即为退出集合
+     *
+     * @return 退出掩码，没有目标时为null
+     */
+    public final long[] getExitMask() {
+        return exitMask;
+    }
+
+    public final boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * 预先计算转移类型、转移域、目标数组和退出掩码，之后目标集合不能再修改，
+     * 依赖ModelUpdater建好的祖先数组和状态位图
+     *
+     * @param stateCount 状态表大小
+     */
+    final void freeze(final int stateCount) {
+        if (frozen) {
+            return;
+        }
+        isTypeInternal();
+        TransitionalState domain = getTransitionDomain();
+        targetArray = targets.toArray(new TransitionTarget[targets.size()]);
+        if (targetArray.length == 0) {
+            exitMask = null;
+        } else if (domain != null) {
+            exitMask = domain.getDescendantMask();
+        } else {
+            exitMask = new long[(stateCount + 63) >>> 6];
+            for (int i = 0; i < stateCount; i++) {
+                exitMask[i >>> 6] |= 1L << i;
+            }
+        }
+        targets = Collections.unmodifiableSet(targets);
+        frozen = true;
+    }
 }
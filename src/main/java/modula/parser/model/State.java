@@ -8,7 +8,7 @@ public class State extends TransitionalState {
     /**
      * Serial version UID.
      */
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
 
     /**
      * 初始子节点，对应initial属性
@@ -20,6 +20,15 @@ public class State extends TransitionalState {
      */
     private Initial initial;
 
+    /**
+     * 超时时间，单位毫秒，对应timeout属性，进入状态后超时未离开则发出timeoutEvent，不大于0表示不超时
+     */
+    private long timeout;
+
+    /**
+     * 超时事件名，对应timeoutevent属性
+     */
+    private String timeoutEvent;
 
     public State() {
     }
@@ -69,6 +78,25 @@ public class State extends TransitionalState {
         this.initial = ini;
     }
 
+    public final long getTimeout() {
+        return timeout;
+    }
+
+    public final void setTimeout(final long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return 超时事件名，未设置时为timeout.state.加状态id
+     */
+    public final String getTimeoutEvent() {
+        return timeoutEvent != null ? timeoutEvent : "timeout.state." + getId();
+    }
+
+    public final void setTimeoutEvent(final String timeoutEvent) {
+        this.timeoutEvent = timeoutEvent;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -116,5 +144,12 @@ public class State extends TransitionalState {
     public final void addChild(final EnterableState es) {
         super.addChild(es);
     }
-}
 
+    @Override
+    void freeze(final int stateCount) {
+        if (initial != null && initial.getTransition() != null) {
+            initial.getTransition().freeze(stateCount);
+        }
+        super.freeze(stateCount);
+    }
+}
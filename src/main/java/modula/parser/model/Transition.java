@@ -16,6 +16,8 @@
  */
 package modula.parser.model;
 
+import modula.executor.core.evaluator.TransitionGuard;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -57,6 +59,11 @@ public class Transition extends SimpleTransition implements DocumentOrder {
      */
     private String cond;
 
+    /**
+     * 编译后的cond，由ModelUpdater在加载时设置
+     */
+    private transient TransitionGuard guard;
+
 
     public Transition() {
         super();
@@ -100,6 +107,19 @@ public class Transition extends SimpleTransition implements DocumentOrder {
         this.cond = cond;
     }
 
+    /**
+     * 获取加载时编译好的cond，没有cond时为null
+     *
+     * @return Returns the guard.
+     */
+    public TransitionGuard getGuard() {
+        return guard;
+    }
+
+    public void setGuard(final TransitionGuard guard) {
+        this.guard = guard;
+    }
+
     /**
      * Get the event that will trigger this transition (pending
      * evaluation of the guard condition in favor).
@@ -17,6 +17,7 @@
 package modula.parser.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -48,6 +49,26 @@ public abstract class TransitionalState extends EnterableState {
      */
     private List<EnterableState> children;
 
+    /**
+     * 事件分发索引，transition不再变化后创建
+     */
+    private EventDispatch eventDispatch;
+
+    /**
+     * 冻结后的子状态数组
+     */
+    private EnterableState[] childArray;
+
+    /**
+     * 冻结后的transition数组，按文档顺序
+     */
+    private Transition[] transitionArray;
+
+    /**
+     * 冻结后的invoke数组
+     */
+    private Invoke[] invokeArray;
+
     public TransitionalState() {
         super();
         transitions = new ArrayList<Transition>();
@@ -122,6 +143,27 @@ public abstract class TransitionalState extends EnterableState {
         return matchingTransitions;
     }
 
+    /**
+     * 获取事件分发索引，模型未经ModelUpdater处理时按当前transition创建
+     *
+     * @return 事件分发索引
+     */
+    public final EventDispatch getEventDispatch() {
+        EventDispatch dispatch = eventDispatch;
+        if (dispatch == null) {
+            dispatch = new EventDispatch(transitions);
+            eventDispatch = dispatch;
+        }
+        return dispatch;
+    }
+
+    /**
+     * 根据当前transition重建事件分发索引
+     */
+    public final void updateEventDispatch() {
+        eventDispatch = new EventDispatch(transitions);
+    }
+
     /**
      * Add a transition to the map of all outgoing transitions for
      * this state.
@@ -130,6 +172,7 @@ public abstract class TransitionalState extends EnterableState {
      */
     public final void addTransition(final Transition transition) {
         transitions.add(transition);
+        eventDispatch = null;
         transition.setParent(this);
     }
 
@@ -212,4 +255,61 @@ public abstract class TransitionalState extends EnterableState {
         children.add(es);
         es.setParent(this);
     }
+
+    /**
+     * 冻结后的子状态数组，按文档顺序
+     *
+     * @return 子状态数组，调用方不能修改
+     */
+    public final EnterableState[] getChildArray() {
+        return childArray;
+    }
+
+    /**
+     * 冻结后的transition数组，按文档顺序
+     *
+     * @return transition数组，调用方不能修改
+     */
+    public final Transition[] getTransitionArray() {
+        return transitionArray;
+    }
+
+    /**
+     * 冻结后的invoke数组，按文档顺序
+     *
+     * @return invoke数组，调用方不能修改
+     */
+    public final Invoke[] getInvokeArray() {
+        return invokeArray;
+    }
+
+    /**
+     * 冻结transition、history和invoke，子状态、transition等集合换成只读的，事件分发索引和数组在这里一次建好
+     *
+     * @param stateCount 状态表大小
+     */
+    void freeze(final int stateCount) {
+        if (childArray != null) {
+            return;
+        }
+        for (Transition t : transitions) {
+            t.freeze(stateCount);
+        }
+        for (History h : history) {
+            if (h.getTransition() != null) {
+                h.getTransition().freeze(stateCount);
+            }
+        }
+        for (Invoke invoke : invokes) {
+            invoke.freeze();
+        }
+        getEventDispatch();
+        transitionArray = transitions.toArray(new Transition[transitions.size()]);
+        invokeArray = invokes.toArray(new Invoke[invokes.size()]);
+        childArray = children.toArray(new EnterableState[children.size()]);
+        transitions = Collections.unmodifiableList(transitions);
+        history = Collections.unmodifiableList(history);
+        invokes = Collections.unmodifiableList(invokes);
+        children = Collections.unmodifiableList(children);
+    }
 }
@@ -32,6 +32,22 @@ public class AbstractStateMachineRegistry {
         }
     }
 
+    /**
+     * 重新加载定义，之后获取的状态机使用新模型，已获取的状态机不受影响
+     */
+    public void reload(String id) {
+        StateMachineBuildContext createContext = configs.get(id);
+        if (createContext == null) {
+            return;
+        }
+        try {
+            createContext.reloadDefinition();
+            stateMachineCache.remove(id);
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
     public synchronized void register(StateMachineBuildContext createContext) {
         configs.put(createContext.getId(), createContext);
     }
@@ -1,22 +1,56 @@
 package modula.spring;
 
 import modula.engine.context.StateMachineBuildContext;
+import modula.executor.statemachine.StateMachineDefinition;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ApplicationContextException;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
- * @description:
+ * @description: 状态机定义注册表
+ * <p>
+ * 容器刷新完成时在fork-join池上并行预热所有定义：解析、链接、校验并创建一次执行器，记录每个定义的加载耗时。
+ * 任何一个定义出错时取消其余任务并让容器刷新失败，第一个真实事件不会再走到冷路径上
+ * </p>
  * @author: gubing.gb
  * @date: 2017/1/18.
  */
 public class DefaultStateMachineRegistry extends AbstractStateMachineRegistry implements ApplicationListener, BeanFactoryAware {
+    private static final Log log = LogFactory.getLog(DefaultStateMachineRegistry.class);
+
+    /**
+     * 是否在容器刷新时预热所有定义
+     */
+    private boolean warmUp = true;
+
+    /**
+     * 预热并行度，不大于0时使用cpu核数
+     */
+    private int warmUpParallelism = 0;
+
+    /**
+     * 每个定义的加载耗时，单位纳秒
+     */
+    private final Map<String, Long> loadNanos = new ConcurrentHashMap<String, Long>();
+
     @Override
     public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
         SpringHolder.setBeanFactory(beanFactory);
@@ -32,5 +66,113 @@ public class DefaultStateMachineRegistry extends AbstractStateMachineRegistry im
         for (Map.Entry<String, StateMachineBuildContext> entry : configs.entrySet()) {
             entry.getValue().setId(entry.getKey());
         }
+
+        if (event instanceof ContextRefreshedEvent && warmUp && !configs.isEmpty()) {
+            warmUp(new LinkedHashMap<String, StateMachineBuildContext>(configs));
+        }
+    }
+
+    /**
+     * 并行加载所有定义，第一个失败的定义会让预热立即结束并抛出异常
+     */
+    private void warmUp(Map<String, StateMachineBuildContext> contexts) {
+        int parallelism = warmUpParallelism > 0 ? warmUpParallelism : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, contexts.size()));
+        CompletionService<String> completion = new ExecutorCompletionService<String>(pool);
+        // 自定义action、guard类和模型缓存都按线程上下文类加载器加载，工作线程沿用容器线程的
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        long start = System.nanoTime();
+        try {
+            for (final Map.Entry<String, StateMachineBuildContext> entry : contexts.entrySet()) {
+                completion.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        Thread.currentThread().setContextClassLoader(classLoader);
+                        long begin = System.nanoTime();
+                        try {
+                            load(entry.getValue());
+                        } catch (Exception e) {
+                            throw new WarmUpException(entry.getKey(), e);
+                        }
+                        loadNanos.put(entry.getKey(), System.nanoTime() - begin);
+                        return entry.getKey();
+                    }
+                });
+            }
+            for (int i = 0; i < contexts.size(); i++) {
+                Future<String> done = completion.take();
+                String id;
+                try {
+                    id = done.get();
+                } catch (ExecutionException e) {
+                    // fork-join池会把任务抛出的受检异常包装成RuntimeException
+                    for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                        if (cause instanceof WarmUpException) {
+                            throw new ApplicationContextException("Failed to load state machine definition '"
+                                    + ((WarmUpException) cause).id + "'", cause.getCause());
+                        }
+                    }
+                    throw new ApplicationContextException("Failed to load state machine definitions", e.getCause());
+                }
+                if (log.isInfoEnabled()) {
+                    log.info("Loaded state machine definition '" + id + "' in "
+                            + loadNanos.get(id) / 1000000 + "ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApplicationContextException("Interrupted while loading state machine definitions", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        if (log.isInfoEnabled()) {
+            log.info("Loaded " + contexts.size() + " state machine definitions in "
+                    + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * 解析、链接并编译cond，创建一次执行器完成语义校验，结果缓存在构建上下文中
+     */
+    private static void load(StateMachineBuildContext context) throws Exception {
+        StateMachineDefinition definition = context.createDefinition();
+        definition.newExecutor();
+    }
+
+    /**
+     * @return 每个定义的加载耗时，单位纳秒
+     */
+    public Map<String, Long> getLoadNanos() {
+        return Collections.unmodifiableMap(loadNanos);
+    }
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    public int getWarmUpParallelism() {
+        return warmUpParallelism;
+    }
+
+    public void setWarmUpParallelism(int warmUpParallelism) {
+        this.warmUpParallelism = warmUpParallelism;
+    }
+
+    /**
+     * 带定义id的加载失败
+     */
+    private static final class WarmUpException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final String id;
+
+        WarmUpException(String id, Exception cause) {
+            super(cause);
+            this.id = id;
+        }
     }
 }
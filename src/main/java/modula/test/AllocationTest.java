@@ -0,0 +1,113 @@
+package modula.test;
+
+import modula.executor.core.ModulaExecutor;
+import modula.executor.core.SCInstance;
+import modula.executor.core.event.TriggerEvent;
+import modula.executor.factory.URLModulaFactory;
+import modula.executor.statemachine.StateMachineDefinition;
+import modula.parser.model.EnterableState;
+import modula.parser.model.Modula;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * @description: 单步内存分配计数，稳定状态下处理一个只触发一次转移的事件不应分配内存
+ * 用两个状态来回切换的状态机预热后统计当前线程分配的字节数，超出阈值时以非0退出
+ * <p>
+ * 默认是扁平状态机，只走转移表；参数hierarchical时两个状态放在复合状态里，transition带cond，
+ * 走一般的选择、冲突消解和cond求值路径。参数compiled时用编译执行的语义实现，两个参数可以同时使用
+ * </p>
+ * @author: gubing.gb
+ * @date: 2017/4/7.
+ */
+public class AllocationTest {
+    private static final String MODULA = "<modula xmlns=\"http://localhost/2017/01/modula\" version=\"1.0\" initial=\"idle\">"
+            + "<state id=\"idle\"><transition event=\"ping\" target=\"busy\"/></state>"
+            + "<state id=\"busy\"><transition event=\"pong\" target=\"idle\"/></state>"
+            + "</modula>";
+
+    private static final String HIERARCHICAL = "<modula xmlns=\"http://localhost/2017/01/modula\" version=\"1.0\" initial=\"idle\">"
+            + "<state id=\"order\">"
+            + "<state id=\"idle\"><transition event=\"ping\" cond=\"limit gt 0\" target=\"busy\"/></state>"
+            + "<state id=\"busy\"><transition event=\"pong\" cond=\"limit gt 0 and !stopped\" target=\"idle\"/></state>"
+            + "<transition event=\"cancel\" target=\"closed\"/>"
+            + "</state>"
+            + "<final id=\"closed\"/>"
+            + "</modula>";
+
+    private static final int WARMUP = 200000;
+
+    private static final int EVENTS = 100000;
+
+    public static void main(String[] args) throws Exception {
+        boolean compiled = false;
+        boolean hierarchical = false;
+        for (String arg : args) {
+            compiled |= "compiled".equals(arg);
+            hierarchical |= "hierarchical".equals(arg);
+        }
+        File file = File.createTempFile("allocation", ".xml");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write((hierarchical ? HIERARCHICAL : MODULA).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        Modula modula = new URLModulaFactory(file.toURI().toURL()).createModula(null);
+        StateMachineDefinition definition = new StateMachineDefinition(modula, null);
+        definition.setCompiled(compiled);
+        ModulaExecutor executor = definition.newExecutor();
+        SCInstance instance = definition.newInstance("allocation");
+        executor.go(instance);
+        if (hierarchical) {
+            instance.getRootContext().set("limit", 10L);
+            instance.getRootContext().set("stopped", Boolean.FALSE);
+        }
+
+        TriggerEvent[] ping = new TriggerEvent[]{new TriggerEvent("ping", TriggerEvent.SIGNAL_EVENT)};
+        TriggerEvent[] pong = new TriggerEvent[]{new TriggerEvent("pong", TriggerEvent.SIGNAL_EVENT)};
+        run(executor, instance, ping, pong, WARMUP);
+        // cond不满足或求值出错时状态不会变化，先确认事件确实触发了转移
+        executor.triggerEvents(instance, ping);
+        if (!isActive(instance, "busy")) {
+            System.out.println("FAILED: ping did not reach busy");
+            System.exit(1);
+        }
+        executor.triggerEvents(instance, pong);
+
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        run(executor, instance, ping, pong, EVENTS);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        double perEvent = (double) allocated / EVENTS;
+        System.out.println("allocated " + allocated + " bytes for " + EVENTS + " events, " + perEvent + " bytes/event");
+        if (perEvent >= 1) {
+            System.out.println("FAILED: steady-state step allocates");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+
+    private static void run(ModulaExecutor executor, SCInstance instance, TriggerEvent[] ping, TriggerEvent[] pong, int events)
+            throws Exception {
+        for (int i = 0; i < events; i += 2) {
+            executor.triggerEvents(instance, ping);
+            executor.triggerEvents(instance, pong);
+        }
+    }
+
+    private static boolean isActive(SCInstance instance, String id) {
+        for (EnterableState es : instance.getCurrentStatus().getStates()) {
+            if (id.equals(es.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
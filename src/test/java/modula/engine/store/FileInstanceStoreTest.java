@@ -0,0 +1,101 @@
+package modula.engine.store;
+
+import modula.executor.core.SCInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @description: 段切换和压缩后索引仍指向正确的记录
+ * @author: gubing.gb
+ * @date: 2017/4/10.
+ */
+public class FileInstanceStoreTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private File directory;
+
+    private FileInstanceStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("instances", "");
+        directory.delete();
+        store = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void rollWithCompaction() throws IOException {
+        store.save("keep", new SCInstance("keep"));
+        String[] keys = {"a", "b", "c"};
+        for (int i = 0; i < 200; i++) {
+            for (String key : keys) {
+                store.save(key, new SCInstance(key + "#" + i));
+            }
+        }
+        store.save("gone", new SCInstance("gone"));
+        store.remove("gone");
+        assertContents();
+
+        store.close();
+        store = open();
+        assertContents();
+    }
+
+    private void assertContents() throws IOException {
+        assertEquals(4, store.size());
+        assertEquals("keep", store.load("keep").getSessionId());
+        assertEquals("a#199", store.load("a").getSessionId());
+        assertEquals("b#199", store.load("b").getSessionId());
+        assertEquals("c#199", store.load("c").getSessionId());
+        assertNull(store.load("gone"));
+    }
+
+    private FileInstanceStore open() throws IOException {
+        FileInstanceStore store = new FileInstanceStore(directory.getPath());
+        store.setSegmentSize(16 * 1024);
+        store.setSerializer(new PaddedSerializer());
+        store.open();
+        return store;
+    }
+
+    /**
+     * 只保存sessionId，补齐到1K使16K的段很快写满
+     */
+    private static class PaddedSerializer implements InstanceSerializer {
+        private static final int SIZE = 1024;
+
+        @Override
+        public byte[] serialize(SCInstance instance) throws IOException {
+            byte[] id = instance.getSessionId().getBytes(UTF8);
+            byte[] data = Arrays.copyOf(id, SIZE);
+            data[SIZE - 1] = (byte) id.length;
+            return data;
+        }
+
+        @Override
+        public SCInstance deserialize(byte[] data) throws IOException {
+            return new SCInstance(new String(data, 0, data[data.length - 1], UTF8));
+        }
+    }
+}
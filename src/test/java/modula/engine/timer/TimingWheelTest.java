@@ -0,0 +1,187 @@
+package modula.engine.timer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @description: 跨层边界、恰好在降级tick、已过期加入以及降级后取消时，定时事件都在到期tick触发且只触发一次
+ * @author: gubing.gb
+ * @date: 2017/4/14.
+ */
+public class TimingWheelTest {
+    private static final long LEVEL1 = 1L << 8;
+
+    private static final long LEVEL2 = 1L << 16;
+
+    private static final long LEVEL3 = 1L << 24;
+
+    @Test
+    public void crossFirstLevelBoundary() {
+        assertFiresOnTime(0, 1, 255, 256, 257, 511, 512, 513);
+        assertFiresOnTime(250, 251, 255, 256, 300, 767, 768);
+    }
+
+    @Test
+    public void crossSecondLevelBoundary() {
+        assertFiresOnTime(LEVEL2 - 10, LEVEL2 - 1, LEVEL2, LEVEL2 + 1, LEVEL2 + LEVEL1, LEVEL2 + LEVEL1 + 7,
+                2 * LEVEL2 - 1, 2 * LEVEL2, 2 * LEVEL2 + 5);
+        assertFiresOnTime(12345, LEVEL2 + 12345, 3 * LEVEL2 + 1, LEVEL3 - 1, LEVEL3, LEVEL3 + LEVEL2 + LEVEL1 + 1);
+    }
+
+    @Test
+    public void deadlineAtCascadeTick() {
+        TimingWheel wheel = new TimingWheel(0);
+        Timeout first = timeout();
+        Timeout second = timeout();
+        wheel.add(first, 3 * LEVEL1);
+        wheel.add(second, LEVEL2);
+        assertEquals(1, first.level);
+        assertEquals(2, second.level);
+
+        List<Timeout> expired = new ArrayList<Timeout>();
+        wheel.advance(3 * LEVEL1 - 1, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(3 * LEVEL1, expired);
+        assertEquals(Collections.singletonList(first), expired);
+
+        expired.clear();
+        wheel.advance(LEVEL2 - 1, expired);
+        assertTrue(expired.isEmpty());
+        assertEquals(1, wheel.size());
+        wheel.advance(LEVEL2, expired);
+        assertEquals(Collections.singletonList(second), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void expiredAddFiresOnNextTick() {
+        TimingWheel wheel = new TimingWheel(100);
+        Timeout past = timeout();
+        Timeout now = timeout();
+        wheel.add(past, 50);
+        wheel.add(now, 100);
+        assertEquals(2, wheel.size());
+
+        List<Timeout> expired = new ArrayList<Timeout>();
+        wheel.advance(100, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(101, expired);
+        assertEquals(2, expired.size());
+        assertTrue(expired.contains(past));
+        assertTrue(expired.contains(now));
+        assertEquals(-1, past.level);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void removeAfterCascade() {
+        TimingWheel wheel = new TimingWheel(0);
+        Timeout far = timeout();
+        Timeout head = timeout();
+        Timeout tail = timeout();
+        wheel.add(far, LEVEL2 + 300);
+        wheel.add(head, 600);
+        wheel.add(tail, 600);
+        assertEquals(2, far.level);
+        assertEquals(1, head.level);
+
+        List<Timeout> expired = new ArrayList<Timeout>();
+        wheel.advance(2 * LEVEL1, expired);
+        // 600所在的槽已降到第0层，降级时链表顺序反转，head在链表头
+        assertEquals(0, head.level);
+        assertSame(tail, head.next);
+        wheel.remove(head);
+        assertEquals(-1, head.level);
+        assertEquals(2, wheel.size());
+
+        wheel.advance(600, expired);
+        assertEquals(Collections.singletonList(tail), expired);
+
+        expired.clear();
+        wheel.advance(LEVEL2, expired);
+        assertEquals(1, far.level);
+        wheel.remove(far);
+        wheel.remove(far);
+        assertEquals(0, wheel.size());
+        wheel.advance(2 * LEVEL2, expired);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void randomAgainstDeadlines() {
+        Random random = new Random(17);
+        long start = random.nextInt(1 << 20);
+        TimingWheel wheel = new TimingWheel(start);
+        List<Timeout> pending = new ArrayList<Timeout>();
+        for (int i = 0; i < 5000; i++) {
+            Timeout t = timeout();
+            int range = i % 3 == 0 ? 1 << 10 : (i % 3 == 1 ? 1 << 18 : 1 << 25);
+            wheel.add(t, start + random.nextInt(range));
+            pending.add(t);
+        }
+        for (int i = 0; i < 500; i++) {
+            wheel.remove(pending.remove(random.nextInt(pending.size())));
+        }
+        assertEquals(pending.size(), wheel.size());
+
+        List<Timeout> expired = new ArrayList<Timeout>();
+        long now = start;
+        while (wheel.size() > 0) {
+            long previous = now;
+            now += 1 + random.nextInt(random.nextBoolean() ? 300 : 100000);
+            expired.clear();
+            wheel.advance(now, expired);
+            long last = previous;
+            for (Timeout t : expired) {
+                assertTrue(t.tick > previous && t.tick <= now);
+                assertTrue(t.tick >= last);
+                last = t.tick;
+                assertTrue(pending.remove(t));
+            }
+        }
+        assertTrue(pending.isEmpty());
+    }
+
+    /**
+     * 逐tick推进，每个定时事件恰好在自己的tick触发
+     */
+    private static void assertFiresOnTime(long start, long... ticks) {
+        TimingWheel wheel = new TimingWheel(start);
+        Timeout[] timeouts = new Timeout[ticks.length];
+        for (int i = 0; i < ticks.length; i++) {
+            timeouts[i] = timeout();
+            wheel.add(timeouts[i], ticks[i]);
+        }
+        long[] fired = new long[ticks.length];
+        List<Timeout> expired = new ArrayList<Timeout>();
+        long end = ticks[ticks.length - 1];
+        for (long now = start + 1; now <= end; now++) {
+            expired.clear();
+            wheel.advance(now, expired);
+            for (Timeout t : expired) {
+                for (int i = 0; i < timeouts.length; i++) {
+                    if (timeouts[i] == t) {
+                        assertEquals(0, fired[i]);
+                        fired[i] = now;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < ticks.length; i++) {
+            assertEquals("deadline " + ticks[i], ticks[i], fired[i]);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    private static Timeout timeout() {
+        return new Timeout("s", "k", "e", null, 0);
+    }
+}
@@ -0,0 +1,177 @@
+package modula.executor.core.evaluator;
+
+import modula.executor.core.context.Context;
+import modula.executor.core.context.SimpleContext;
+import modula.executor.core.context.SlotLayout;
+import modula.executor.core.semantics.EventVariable;
+import modula.parser.model.ModelException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @description: cond表达式的优先级、别名、比较和路径取值，以及非法表达式在编译时报错
+ * @author: gubing.gb
+ * @date: 2017/4/10.
+ */
+public class ExpressionEvaluatorTest {
+    private ExpressionEvaluator evaluator;
+
+    private SimpleContext context;
+
+    @Before
+    public void setUp() {
+        Map<String, Guard> predicates = new HashMap<String, Guard>();
+        predicates.put("paid", new Guard() {
+            @Override
+            public boolean evaluate(Context context) {
+                return Boolean.TRUE.equals(context.get("paid"));
+            }
+        });
+        evaluator = new ExpressionEvaluator(predicates);
+        context = new SimpleContext();
+    }
+
+    @Test
+    public void andBindsTighterThanOr() throws ModelException {
+        context.set("a", true);
+        context.set("b", false);
+        context.set("c", false);
+        assertTrue(eval("a or b and c"));
+        assertTrue(eval("a || b && c"));
+        assertFalse(eval("(a or b) and c"));
+        assertTrue(eval("b and c or a"));
+    }
+
+    @Test
+    public void notBindsTighterThanAnd() throws ModelException {
+        context.set("a", false);
+        context.set("b", true);
+        assertTrue(eval("not a and b"));
+        assertTrue(eval("!a && b"));
+        assertFalse(eval("not (a or b)"));
+        assertTrue(eval("not not b"));
+    }
+
+    @Test
+    public void compareAliases() throws ModelException {
+        context.set("n", 5);
+        assertTrue(eval("n eq 5"));
+        assertTrue(eval("n ne 4"));
+        assertTrue(eval("n lt 6"));
+        assertTrue(eval("n le 5"));
+        assertTrue(eval("n gt 4"));
+        assertTrue(eval("n ge 5"));
+        assertFalse(eval("n lt 5"));
+        assertTrue(eval("n == 5 && n != 4 && n < 6 && n <= 5 && n > 4 && n >= 5"));
+    }
+
+    @Test
+    public void numbersCompareByValue() throws ModelException {
+        context.set("i", 3);
+        context.set("l", 3L);
+        context.set("d", 2.5d);
+        context.set("s", "3");
+        assertTrue(eval("i == l"));
+        assertTrue(eval("i == 3.0"));
+        assertTrue(eval("d < i"));
+        assertTrue(eval("s == 3"));
+        assertTrue(eval("-1 < d"));
+        assertTrue(eval("9007199254740993 > 9007199254740992"));
+        assertFalse(eval("'abc' == 3"));
+    }
+
+    @Test
+    public void nullComparisons() throws ModelException {
+        context.set("n", null);
+        context.set("m", 1);
+        assertTrue(eval("n == null"));
+        assertTrue(eval("missing == null"));
+        assertFalse(eval("m == null"));
+        assertTrue(eval("m != null"));
+        assertFalse(eval("n < 1"));
+        assertFalse(eval("n >= 1"));
+        assertFalse(eval("n"));
+    }
+
+    @Test
+    public void eventDataPath() throws ModelException {
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put("x", 10);
+        data.put("status", "PAID");
+        context.set("_event", new EventVariable("pay", EventVariable.TYPE_EXTERNAL, null, null, null, null, data));
+        assertTrue(eval("_event.data.x gt 9"));
+        assertTrue(eval("_event.data.status == 'PAID'"));
+        assertTrue(eval("_event.name eq \"pay\""));
+        assertTrue(eval("_event.data.missing == null"));
+        try {
+            eval("_event.data.x.y == 1");
+            fail("Integer has no property y");
+        } catch (ModelException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("'y'"));
+        }
+
+        context.set("_event", null);
+        assertTrue(eval("_event.data.x == null"));
+    }
+
+    @Test
+    public void slotLayoutRegistersRootVariable() throws ModelException {
+        SlotLayout layout = new SlotLayout();
+        evaluator.compile("_event.data.x gt 1 and n lt 2", layout);
+        assertEquals(2, layout.size());
+        assertTrue(layout.slotOf("_event") >= 0);
+        assertTrue(layout.slotOf("n") >= 0);
+    }
+
+    @Test
+    public void registeredPredicate() throws ModelException {
+        context.set("paid", true);
+        assertTrue(eval("paid()"));
+        assertFalse(eval("not paid()"));
+        context.set("paid", false);
+        assertTrue(eval("paid() or true"));
+    }
+
+    @Test
+    public void unknownPredicate() {
+        assertIllegal("refunded()");
+    }
+
+    @Test
+    public void trailingTokens() {
+        assertIllegal("a b");
+        assertIllegal("a == 1 )");
+        assertIllegal("(a == 1) 2");
+    }
+
+    @Test
+    public void malformedExpressions() {
+        assertIllegal("a ==");
+        assertIllegal("(a");
+        assertIllegal("'abc");
+        assertIllegal("1.2.3 == a");
+        assertIllegal("a # b");
+        assertIllegal("a.1");
+    }
+
+    private boolean eval(String expression) throws ModelException {
+        return evaluator.compile(expression, null).evaluate(context);
+    }
+
+    private void assertIllegal(String expression) {
+        try {
+            evaluator.compile(expression, null);
+            fail("expected ModelException for [" + expression + "]");
+        } catch (ModelException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expression));
+        }
+    }
+}